@@ -0,0 +1,184 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+
+/**
+ * The configuration of a filter run outside a container. Paths given
+ * to getRealPath are resolved against a directory.
+ *
+ * @author Anders Nyman
+ */
+public class BenchFilterConfig implements FilterConfig {
+    
+    /** 
+     * The init-params.
+     */
+    private Properties parameters;
+    
+    /** 
+     * The context.
+     */
+    private Context context;
+    
+    /**
+     * Creates the configuration.
+     * 
+     * @param parameters The init-params
+     * @param directory The directory of the web application
+     */
+    public BenchFilterConfig(Properties parameters, File directory) {
+        this.parameters = parameters;
+        context = new Context(directory);
+    }
+    
+    public String getFilterName() {
+        return "bench";
+    }
+    
+    public ServletContext getServletContext() {
+        return context;
+    }
+    
+    public String getInitParameter(String name) {
+        return parameters.getProperty(name);
+    }
+    
+    public Enumeration getInitParameterNames() {
+        return parameters.propertyNames();
+    }
+    
+    /**
+     * A context with attributes and real paths, other methods do
+     * nothing.
+     */
+    private static class Context implements ServletContext {
+        
+        private File directory;
+        private HashMap attributes;
+        
+        public Context(File directory) {
+            this.directory = directory;
+            attributes = new HashMap();
+        }
+        
+        public String getRealPath(String path) {
+            return new File(directory, path).getAbsolutePath();
+        }
+        
+        public Object getAttribute(String name) {
+            return attributes.get(name);
+        }
+        
+        public Enumeration getAttributeNames() {
+            return Collections.enumeration(attributes.keySet());
+        }
+        
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+        }
+        
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+        }
+        
+        public ServletContext getContext(String uri) {
+            return null;
+        }
+        
+        public int getMajorVersion() {
+            return 2;
+        }
+        
+        public int getMinorVersion() {
+            return 4;
+        }
+        
+        public String getMimeType(String file) {
+            return null;
+        }
+        
+        public Set getResourcePaths(String path) {
+            return null;
+        }
+        
+        public URL getResource(String path) {
+            return null;
+        }
+        
+        public InputStream getResourceAsStream(String path) {
+            return null;
+        }
+        
+        public RequestDispatcher getRequestDispatcher(String path) {
+            return null;
+        }
+        
+        public RequestDispatcher getNamedDispatcher(String name) {
+            return null;
+        }
+        
+        public Servlet getServlet(String name) {
+            return null;
+        }
+        
+        public Enumeration getServlets() {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+        
+        public Enumeration getServletNames() {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+        
+        public void log(String message) {
+        }
+        
+        public void log(Exception exception, String message) {
+        }
+        
+        public void log(String message, Throwable throwable) {
+        }
+        
+        public String getServerInfo() {
+            return "bench";
+        }
+        
+        public String getInitParameter(String name) {
+            return null;
+        }
+        
+        public Enumeration getInitParameterNames() {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+        
+        public String getServletContextName() {
+            return "bench";
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+/**
+ * A benchmark of one operation. The runner calls run over and over
+ * and measures how many times per second it can be called. The value
+ * returned by run is summed by the runner so the work done can't be
+ * optimized away by the JIT.
+ *
+ * @author Anders Nyman
+ */
+public abstract class Benchmark {
+    
+    /** 
+     * The name shown in the results.
+     */
+    private String name;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param name The name shown in the results
+     */
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Returns the name.
+     * 
+     * @return The name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Called once before the benchmark is run.
+     * 
+     * @throws Exception If the benchmark can't be set up
+     */
+    public void setUp() throws Exception {
+    }
+    
+    /**
+     * Called once after the benchmark is run.
+     * 
+     * @throws Exception If the benchmark can't be cleaned up
+     */
+    public void tearDown() throws Exception {
+    }
+    
+    /**
+     * Runs the operation once.
+     * 
+     * @return Any value depending on the work done
+     * @throws Exception If the operation fails, the benchmark is then aborted
+     */
+    public abstract int run() throws Exception;
+}
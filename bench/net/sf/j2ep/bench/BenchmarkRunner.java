@@ -0,0 +1,233 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks of the proxy's hot paths and prints the number
+ * of operations per second for each. Each benchmark is first run for
+ * a warmup period so the JIT has compiled the code, then measured in
+ * a number of iterations. The mean and the standard deviation of the
+ * iterations are printed.
+ * 
+ * The arguments are parts of the names of the benchmarks to run, all
+ * benchmarks are run if there are none. The system properties
+ * bench.warmup and bench.time set the warmup time and the time of each
+ * iteration in milliseconds, bench.iterations the number of iterations.
+ *
+ * @author Anders Nyman
+ */
+public class BenchmarkRunner {
+    
+    /** 
+     * The milliseconds each benchmark is warmed up.
+     */
+    private long warmupTime;
+    
+    /** 
+     * The milliseconds of each iteration.
+     */
+    private long iterationTime;
+    
+    /** 
+     * The number of iterations measured.
+     */
+    private int iterations;
+    
+    /** 
+     * Sum of the values returned by the benchmarks, printed at the
+     * end so the JIT can't remove the work.
+     */
+    private long sink;
+    
+    /**
+     * Creates a runner.
+     * 
+     * @param warmupTime The milliseconds each benchmark is warmed up
+     * @param iterationTime The milliseconds of each iteration
+     * @param iterations The number of iterations measured
+     */
+    public BenchmarkRunner(long warmupTime, long iterationTime, int iterations) {
+        this.warmupTime = warmupTime;
+        this.iterationTime = iterationTime;
+        this.iterations = iterations;
+    }
+    
+    /**
+     * Returns all benchmarks.
+     * 
+     * @return The benchmarks
+     */
+    public static List getBenchmarks() {
+        List benchmarks = new ArrayList();
+        benchmarks.add(new ServerChainBenchmark(10, false));
+        benchmarks.add(new ServerChainBenchmark(100, false));
+        benchmarks.add(new ServerChainBenchmark(10, true));
+        benchmarks.add(new ServerChainBenchmark(100, true));
+        benchmarks.add(new RewriteRuleBenchmark(false));
+        benchmarks.add(new RewriteRuleBenchmark(true));
+        benchmarks.add(new UrlRewritingBenchmark(true));
+        benchmarks.add(new UrlRewritingBenchmark(false));
+        benchmarks.add(new ClusterCookieBenchmark(false));
+        benchmarks.add(new ClusterCookieBenchmark(true));
+        benchmarks.add(new HeaderCopyBenchmark());
+        benchmarks.add(new BodyCopyBenchmark(1024));
+        benchmarks.add(new BodyCopyBenchmark(100 * 1024));
+        benchmarks.add(new BodyCopyBenchmark(1024 * 1024 * 1024));
+        benchmarks.add(new CompressionBenchmark());
+        benchmarks.add(new ProxyFilterBenchmark());
+        return benchmarks;
+    }
+    
+    /**
+     * Runs a benchmark.
+     * 
+     * @param benchmark The benchmark
+     * @return The operations per second of each iteration
+     * @throws Exception If the benchmark fails
+     */
+    public double[] run(Benchmark benchmark) throws Exception {
+        benchmark.setUp();
+        try {
+            int batch = 1;
+            long start = System.currentTimeMillis();
+            while (System.currentTimeMillis() - start < warmupTime) {
+                long batchStart = System.currentTimeMillis();
+                runBatch(benchmark, batch);
+                if (System.currentTimeMillis() - batchStart < 10) {
+                    batch *= 2;
+                }
+            }
+            
+            double[] results = new double[iterations];
+            for (int i=0; i < iterations; i++) {
+                long operations = 0;
+                long iterationStart = System.currentTimeMillis();
+                long elapsed;
+                do {
+                    runBatch(benchmark, batch);
+                    operations += batch;
+                    elapsed = System.currentTimeMillis() - iterationStart;
+                } while (elapsed < iterationTime);
+                results[i] = operations * 1000.0 / elapsed;
+            }
+            return results;
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+    
+    /**
+     * Runs the operation of a benchmark a number of times.
+     * 
+     * @param benchmark The benchmark
+     * @param count The number of times
+     * @throws Exception If the benchmark fails
+     */
+    private void runBatch(Benchmark benchmark, int count) throws Exception {
+        long sum = 0;
+        for (int i=0; i < count; i++) {
+            sum += benchmark.run();
+        }
+        sink += sum;
+    }
+    
+    /**
+     * Formats the result of a benchmark.
+     * 
+     * @param name The name of the benchmark
+     * @param results The operations per second of each iteration
+     * @return A line with the mean and the standard deviation
+     */
+    public static String format(String name, double[] results) {
+        double mean = 0;
+        for (int i=0; i < results.length; i++) {
+            mean += results[i];
+        }
+        mean /= results.length;
+        double variance = 0;
+        for (int i=0; i < results.length; i++) {
+            variance += (results[i] - mean) * (results[i] - mean);
+        }
+        double deviation = results.length > 1 ? Math.sqrt(variance / (results.length - 1)) : 0;
+        
+        StringBuffer line = new StringBuffer(name);
+        while (line.length() < 40) {
+            line.append(' ');
+        }
+        line.append(pad(Math.round(mean), 14)).append(" ops/s  +- ").append(pad(Math.round(deviation), 10));
+        line.append("  ").append(pad(Math.round(1000000000.0 / mean), 10)).append(" ns/op");
+        return line.toString();
+    }
+    
+    /**
+     * Pads a number with spaces on the left.
+     * 
+     * @param value The number
+     * @param width The width
+     * @return The padded number
+     */
+    private static String pad(long value, int width) {
+        StringBuffer padded = new StringBuffer(String.valueOf(value));
+        while (padded.length() < width) {
+            padded.insert(0, ' ');
+        }
+        return padded.toString();
+    }
+    
+    /**
+     * Runs the benchmarks.
+     * 
+     * @param args Parts of the names of the benchmarks to run
+     * @throws Exception If a benchmark fails
+     */
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(
+                Long.getLong("bench.warmup", 2000).longValue(),
+                Long.getLong("bench.time", 1000).longValue(),
+                Integer.getInteger("bench.iterations", 5).intValue());
+        
+        List benchmarks = getBenchmarks();
+        for (int i=0; i < benchmarks.size(); i++) {
+            Benchmark benchmark = (Benchmark) benchmarks.get(i);
+            if (isSelected(benchmark.getName(), args)) {
+                System.out.println(format(benchmark.getName(), runner.run(benchmark)));
+            }
+        }
+        System.out.println("(checksum " + runner.sink + ")");
+    }
+    
+    /**
+     * Checks if a benchmark was asked for.
+     * 
+     * @param name The name of the benchmark
+     * @param args The parts of names asked for
+     * @return true if there are no arguments or one of them is part of the name
+     */
+    private static boolean isSelected(String name, String[] args) {
+        if (args.length == 0) {
+            return true;
+        }
+        for (int i=0; i < args.length; i++) {
+            if (name.indexOf(args[i]) != -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import net.sf.j2ep.BufferPool;
+
+/**
+ * Copying a body the way the response handlers do, with the
+ * thread's buffer from the BufferPool. Bodies up to 1 MB are read
+ * from an array, larger bodies are generated while they are read
+ * so they don't have to fit in the heap.
+ *
+ * @author Anders Nyman
+ */
+public class BodyCopyBenchmark extends Benchmark {
+    
+    /** 
+     * The largest body kept in an array.
+     */
+    private static final long MAX_ARRAY_SIZE = 1024 * 1024;
+    
+    private long size;
+    
+    private byte[] body;
+    
+    /**
+     * Creates the benchmark.
+     * 
+     * @param size The size of the body, in bytes
+     */
+    public BodyCopyBenchmark(long size) {
+        super("Body copy, " + format(size) + ", " + BufferPool.getBufferSize() / 1024 + " kB buffer");
+        this.size = size;
+    }
+    
+    public void setUp() {
+        body = new byte[(int) Math.min(size, MAX_ARRAY_SIZE)];
+        for (int i=0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+    }
+    
+    public int run() throws Exception {
+        InputStream in;
+        if (size <= MAX_ARRAY_SIZE) {
+            in = new ByteArrayInputStream(body);
+        } else {
+            in = new GeneratedInputStream(body, size);
+        }
+        NullOutputStream out = new NullOutputStream();
+        byte[] buffer = BufferPool.getBuffer();
+        int read = in.read(buffer);
+        while (read != -1) {
+            out.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return (int) out.getCount();
+    }
+    
+    /**
+     * Formats a size for the name.
+     * 
+     * @param size The size in bytes
+     * @return The size in kB, MB or GB
+     */
+    private static String format(long size) {
+        if (size >= 1024 * 1024 * 1024) {
+            return size / (1024 * 1024 * 1024) + " GB";
+        } else if (size >= 1024 * 1024) {
+            return size / (1024 * 1024) + " MB";
+        } else {
+            return size / 1024 + " kB";
+        }
+    }
+    
+    /**
+     * A stream repeating a pattern until the size is reached.
+     */
+    private static class GeneratedInputStream extends InputStream {
+        
+        private byte[] pattern;
+        
+        private long remaining;
+        
+        private int position;
+        
+        /**
+         * Creates the stream.
+         * 
+         * @param pattern The bytes repeated
+         * @param size The number of bytes read before the end of the stream
+         */
+        public GeneratedInputStream(byte[] pattern, long size) {
+            this.pattern = pattern;
+            this.remaining = size;
+        }
+        
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = pattern[position] & 0xff;
+            position = (position + 1) % pattern.length;
+            remaining--;
+            return b;
+        }
+        
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(Math.min(len, remaining), pattern.length - position);
+            System.arraycopy(pattern, position, b, off, count);
+            position = (position + count) % pattern.length;
+            remaining -= count;
+            return count;
+        }
+    }
+}
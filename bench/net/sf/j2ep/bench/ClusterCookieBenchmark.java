@@ -0,0 +1,70 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.util.Enumeration;
+
+import net.sf.j2ep.servers.ClusterRequestWrapper;
+import net.sf.j2ep.servers.ClusterResponseWrapper;
+import net.sf.j2ep.test.MockHttpServletResponse;
+
+/**
+ * Rewriting the session cookies of a cluster, removing the server id
+ * from the request's cookies with the ClusterRequestWrapper or adding
+ * it to Set-Cookie with the ClusterResponseWrapper.
+ *
+ * @author Anders Nyman
+ */
+public class ClusterCookieBenchmark extends Benchmark {
+    
+    private boolean response;
+    private BrowserRequest request;
+    private MockHttpServletResponse wrapped;
+    
+    /**
+     * Creates the benchmark.
+     * 
+     * @param response true to benchmark the response wrapper, false for the request wrapper
+     */
+    public ClusterCookieBenchmark(boolean response) {
+        super(response ? "ClusterResponseWrapper cookies" : "ClusterRequestWrapper cookies");
+        this.response = response;
+    }
+    
+    public void setUp() {
+        request = new BrowserRequest("GET", "/app/page.html", null);
+        wrapped = new MockHttpServletResponse();
+    }
+    
+    public int run() {
+        if (response) {
+            wrapped.reset();
+            ClusterResponseWrapper wrapper = new ClusterResponseWrapper(wrapped, "server1");
+            wrapper.addHeader("Set-Cookie", "JSESSIONID=8F1A2B3C4D5E6F708192A3B4C5D6E7F8; Path=/app; HttpOnly");
+            wrapper.addHeader("Set-Cookie", "theme=dark; Path=/");
+            wrapper.addHeader("Content-Type", "text/html");
+            return wrapped.getHeader("set-cookie").length();
+        } else {
+            ClusterRequestWrapper wrapper = new ClusterRequestWrapper(request);
+            int length = 0;
+            Enumeration cookies = wrapper.getHeaders("cookie");
+            while (cookies.hasMoreElements()) {
+                length += ((String) cookies.nextElement()).length();
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+import net.sf.j2ep.CompressingResponseWrapper;
+import net.sf.j2ep.ResponseCompressor;
+import net.sf.j2ep.test.MockHttpServletResponse;
+
+/**
+ * Compressing a 100 kB HTML page with gzip for the client, written
+ * in 8 kB parts.
+ *
+ * @author Anders Nyman
+ */
+public class CompressionBenchmark extends Benchmark {
+    
+    private ResponseCompressor compressor;
+    private BrowserRequest request;
+    private byte[] page;
+    
+    public CompressionBenchmark() {
+        super("Response compression, 100 kB page");
+    }
+    
+    public void setUp() throws Exception {
+        compressor = new ResponseCompressor(ResponseCompressor.DEFAULT_TYPES, 1024, Deflater.DEFAULT_COMPRESSION);
+        request = new BrowserRequest("GET", "/app/page.html", null);
+        page = UrlRewritingBenchmark.createPage(100 * 1024);
+    }
+    
+    public int run() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CompressingResponseWrapper wrapper = compressor.wrap(request, response);
+        wrapper.addHeader("Content-Type", "text/html");
+        OutputStream out = wrapper.getOutputStream();
+        for (int i=0; i < page.length; i += 8192) {
+            out.write(page, i, Math.min(8192, page.length - i));
+        }
+        out.close();
+        return response.getBody().length;
+    }
+}
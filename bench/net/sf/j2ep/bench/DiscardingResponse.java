@@ -0,0 +1,47 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import javax.servlet.ServletOutputStream;
+
+import net.sf.j2ep.test.MockHttpServletResponse;
+
+/**
+ * A response throwing the body away, only counting its size, so that
+ * a load test measures the proxy and not the buffering of the body.
+ *
+ * @author Anders Nyman
+ */
+public class DiscardingResponse extends MockHttpServletResponse {
+    
+    /** 
+     * The stream the body is written to.
+     */
+    private NullOutputStream out = new NullOutputStream();
+    
+    public ServletOutputStream getOutputStream() {
+        return out;
+    }
+    
+    /**
+     * Returns the size of the body written.
+     * 
+     * @return The number of bytes
+     */
+    public long getBodyLength() {
+        return out.getCount();
+    }
+}
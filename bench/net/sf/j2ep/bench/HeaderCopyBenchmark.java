@@ -0,0 +1,50 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import net.sf.j2ep.factories.RequestHandlerFactory;
+import net.sf.j2ep.model.AllowedMethodHandler;
+import net.sf.j2ep.model.RequestHandler;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+/**
+ * Creating the request to the server for a browser request with 30
+ * headers, the headers are copied by RequestHandlerBase.setHeaders
+ * and the Via and X-Forwarded headers added.
+ *
+ * @author Anders Nyman
+ */
+public class HeaderCopyBenchmark extends Benchmark {
+    
+    private RequestHandler handler;
+    private BrowserRequest request;
+    
+    public HeaderCopyBenchmark() {
+        super("RequestHandlerBase headers, 30 headers");
+    }
+    
+    public void setUp() throws Exception {
+        AllowedMethodHandler.setAllowedMethods("OPTIONS,GET,HEAD,POST,PUT,DELETE,TRACE");
+        handler = RequestHandlerFactory.createRequestMethod("GET");
+        request = new BrowserRequest("GET", "/app/page.html", null);
+    }
+    
+    public int run() throws Exception {
+        HttpMethod method = handler.process(request, "http://backend:8080/app/page.html");
+        return method.getRequestHeaders().length;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.util.Arrays;
+
+/**
+ * Records latencies in nanoseconds and calculates percentiles of them.
+ * Each load thread has a recorder of its own, they are merged when
+ * the test is over.
+ *
+ * @author Anders Nyman
+ */
+public class LatencyRecorder {
+    
+    /** 
+     * The latencies.
+     */
+    private long[] latencies;
+    
+    /** 
+     * The number of latencies recorded.
+     */
+    private int count;
+    
+    /** 
+     * The number of failed requests.
+     */
+    private long errors;
+    
+    /** 
+     * true if the latencies are sorted.
+     */
+    private boolean sorted;
+    
+    /**
+     * Creates an empty recorder.
+     */
+    public LatencyRecorder() {
+        latencies = new long[1024];
+        count = 0;
+        errors = 0;
+    }
+    
+    /**
+     * Records a request.
+     * 
+     * @param nanos The latency
+     * @param failed true if the request failed
+     */
+    public void record(long nanos, boolean failed) {
+        if (count == latencies.length) {
+            long[] larger = new long[latencies.length * 2];
+            System.arraycopy(latencies, 0, larger, 0, count);
+            latencies = larger;
+        }
+        latencies[count++] = nanos;
+        sorted = false;
+        if (failed) {
+            errors++;
+        }
+    }
+    
+    /**
+     * Adds the requests of another recorder to this one.
+     * 
+     * @param other The other recorder
+     */
+    public void add(LatencyRecorder other) {
+        for (int i=0; i < other.count; i++) {
+            record(other.latencies[i], false);
+        }
+        errors += other.errors;
+    }
+    
+    /**
+     * Returns the number of requests.
+     * 
+     * @return The number of requests
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * Returns the number of failed requests.
+     * 
+     * @return The number of failed requests
+     */
+    public long getErrors() {
+        return errors;
+    }
+    
+    /**
+     * Returns a percentile of the latencies.
+     * 
+     * @param percentile The percentile, 0 to 100
+     * @return The latency in nanoseconds, 0 if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        if (!sorted) {
+            Arrays.sort(latencies, 0, count);
+            sorted = true;
+        }
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return latencies[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import net.sf.j2ep.ProxyFilter;
+import net.sf.j2ep.RewriteFilter;
+
+/**
+ * A load test of the whole proxy. The ProxyFilter, and the
+ * RewriteFilter in front of it if rewriting, are run against stub
+ * servers on localhost by a number of threads. The throughput, the
+ * latency percentiles and the bytes allocated per request are
+ * reported.
+ *
+ * Without a rate each thread sends a new request as soon as it got
+ * the last response (closed loop). With a rate the requests are sent
+ * on a schedule no matter how slow the responses are (open loop) and
+ * the latency is counted from when the request should have been sent,
+ * so a proxy falling behind shows in the latencies.
+ *
+ * The test is set with system properties, see the loadtest target in
+ * build.xml. System properties starting with proxy. are given to the
+ * filters as init-params, proxy.maxConnectionsPerHost=5 sets the
+ * init-param maxConnectionsPerHost. The test needs JDK 6 update 25 or
+ * later, and a JVM with com.sun.management.ThreadMXBean to report
+ * allocations.
+ *
+ * @author Anders Nyman
+ */
+public class LoadTest {
+    
+    private int backends;
+    private int threads;
+    private double rate;
+    private long warmup;
+    private long duration;
+    private int bodySize;
+    private long latency;
+    private double errorRate;
+    private int slowChunk;
+    private long slowDelay;
+    private boolean rewrite;
+    private String cluster;
+    private Properties parameters;
+    
+    /**
+     * Creates a test set by the system properties.
+     */
+    public LoadTest() {
+        backends = Integer.getInteger("load.backends", 2).intValue();
+        threads = Integer.getInteger("load.threads", 16).intValue();
+        rate = Double.parseDouble(System.getProperty("load.rate", "0"));
+        warmup = Long.getLong("load.warmup", 5000).longValue();
+        duration = Long.getLong("load.duration", 20000).longValue();
+        bodySize = Integer.getInteger("load.bodySize", 16 * 1024).intValue();
+        latency = Long.getLong("load.latency", 0).longValue();
+        errorRate = Double.parseDouble(System.getProperty("load.errorRate", "0"));
+        slowChunk = Integer.getInteger("load.slowChunk", 0).intValue();
+        slowDelay = Long.getLong("load.slowDelay", 0).longValue();
+        rewrite = "true".equals(System.getProperty("load.rewrite"));
+        cluster = System.getProperty("load.cluster", "net.sf.j2ep.servers.RoundRobinCluster");
+        
+        parameters = new Properties();
+        Enumeration names = System.getProperties().propertyNames();
+        while (names.hasMoreElements()) {
+            String name = (String) names.nextElement();
+            if (name.startsWith("proxy.") && System.getProperty(name).length() > 0) {
+                parameters.setProperty(name.substring("proxy.".length()), System.getProperty(name));
+            }
+        }
+        parameters.setProperty("dataUrl", "/data.xml");
+    }
+    
+    /**
+     * Runs the test and prints the result.
+     * 
+     * @throws Exception If the test can't be set up
+     */
+    public void run() throws Exception {
+        StubBackend[] servers = new StubBackend[backends];
+        byte[] body;
+        String contentType;
+        if (rewrite) {
+            body = UrlRewritingBenchmark.createPage(bodySize);
+            contentType = "text/html";
+        } else {
+            body = new byte[bodySize];
+            contentType = "application/octet-stream";
+        }
+        for (int i=0; i < servers.length; i++) {
+            servers[i] = new StubBackend(body, contentType);
+            servers[i].setLatency(latency);
+            servers[i].setErrorRate(errorRate);
+            servers[i].setSlowWrite(slowChunk, slowDelay);
+        }
+        
+        File directory = createWebApp(servers);
+        BenchFilterConfig config = new BenchFilterConfig(parameters, directory);
+        final ProxyFilter proxyFilter = new ProxyFilter();
+        proxyFilter.init(config);
+        final RewriteFilter rewriteFilter = rewrite ? new RewriteFilter() : null;
+        if (rewriteFilter != null) {
+            rewriteFilter.init(config);
+        }
+        
+        final FilterChain notFound = new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                throw new IOException("No server found for the request");
+            }
+        };
+        Filter first = proxyFilter;
+        FilterChain chain = notFound;
+        if (rewriteFilter != null) {
+            first = rewriteFilter;
+            chain = new FilterChain() {
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                    proxyFilter.doFilter(request, response, notFound);
+                }
+            };
+        }
+        
+        System.out.println(describe());
+        try {
+            long now = System.currentTimeMillis();
+            long measureStart = now + warmup;
+            long measureEnd = measureStart + duration;
+            LoadWorker[] workers = new LoadWorker[threads];
+            long interval = rate > 0 ? (long) (1000000000L * threads / rate) : 0;
+            for (int i=0; i < workers.length; i++) {
+                workers[i] = new LoadWorker(first, chain, interval, measureStart, measureEnd);
+                workers[i].start();
+            }
+            
+            LatencyRecorder total = new LatencyRecorder();
+            long allocated = 0;
+            for (int i=0; i < workers.length; i++) {
+                workers[i].join();
+                total.add(workers[i].getRecorder());
+                if (allocated >= 0) {
+                    allocated = workers[i].getAllocated() < 0 ? -1 : allocated + workers[i].getAllocated();
+                }
+            }
+            System.out.println(report(total, allocated));
+        } finally {
+            if (rewriteFilter != null) {
+                rewriteFilter.destroy();
+            }
+            proxyFilter.destroy();
+            for (int i=0; i < servers.length; i++) {
+                servers[i].close();
+            }
+            new File(directory, "data.xml").delete();
+            directory.delete();
+        }
+    }
+    
+    /**
+     * Creates a directory with a data.xml mapping /load to the
+     * servers, a cluster if there is more than one.
+     * 
+     * @param servers The servers
+     * @return The directory
+     * @throws IOException If the files can't be written
+     */
+    private File createWebApp(StubBackend[] servers) throws IOException {
+        File directory = File.createTempFile("j2ep-load", "");
+        directory.delete();
+        directory.mkdir();
+        StringBuffer data = new StringBuffer("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<config>\n");
+        String rule = "        <rule className=\"net.sf.j2ep.rules.DirectoryRule\" directory=\"/load\"/>\n";
+        if (servers.length == 1) {
+            data.append("    <server className=\"net.sf.j2ep.servers.BaseServer\"\n");
+            data.append("        domainName=\"localhost:").append(servers[0].getPort()).append("\"\n");
+            data.append("        isRewriting=\"").append(rewrite).append("\">\n");
+            data.append(rule);
+            data.append("    </server>\n");
+        } else {
+            data.append("    <cluster-server className=\"").append(cluster).append("\">\n");
+            for (int i=0; i < servers.length; i++) {
+                data.append("        <server domainName=\"localhost:").append(servers[i].getPort()).append("\"/>\n");
+            }
+            data.append(rule);
+            data.append("    </cluster-server>\n");
+        }
+        data.append("</config>\n");
+        
+        Writer writer = new FileWriter(new File(directory, "data.xml"));
+        try {
+            writer.write(data.toString());
+        } finally {
+            writer.close();
+        }
+        return directory;
+    }
+    
+    /**
+     * Describes the test.
+     * 
+     * @return A line with the settings
+     */
+    private String describe() {
+        StringBuffer line = new StringBuffer("Load test: ");
+        line.append(backends).append(backends == 1 ? " server" : " servers");
+        line.append(", ").append(threads).append(" threads, ");
+        line.append(rate > 0 ? "open loop at " + rate + " requests/s" : "closed loop");
+        line.append(", ").append(bodySize).append(" byte bodies");
+        if (latency > 0) {
+            line.append(", ").append(latency).append(" ms latency");
+        }
+        if (errorRate > 0) {
+            line.append(", ").append(errorRate * 100).append("% errors");
+        }
+        if (slowChunk > 0) {
+            line.append(", written in ").append(slowChunk).append(" byte parts every ").append(slowDelay).append(" ms");
+        }
+        if (rewrite) {
+            line.append(", rewriting");
+        }
+        if (parameters.size() > 1) {
+            line.append("\n  init-params: ").append(parameters);
+        }
+        return line.toString();
+    }
+    
+    /**
+     * Formats the result.
+     * 
+     * @param total The latencies of all requests
+     * @param allocated The bytes allocated by the load threads, -1 if unknown
+     * @return The report
+     */
+    private String report(LatencyRecorder total, long allocated) {
+        DecimalFormat decimals = new DecimalFormat("0.000");
+        StringBuffer report = new StringBuffer();
+        report.append("Requests:    ").append(total.getCount());
+        report.append(" (").append(total.getErrors()).append(" failed)\n");
+        report.append("Throughput:  ").append(decimals.format(total.getCount() * 1000.0 / duration)).append(" requests/s\n");
+        report.append("Latency ms:  ");
+        double[] percentiles = {50, 90, 99, 99.9, 100};
+        String[] names = {"p50", "p90", "p99", "p99.9", "max"};
+        for (int i=0; i < percentiles.length; i++) {
+            report.append(names[i]).append(' ');
+            report.append(decimals.format(total.getPercentile(percentiles[i]) / 1000000.0)).append("  ");
+        }
+        report.append('\n');
+        if (allocated < 0) {
+            report.append("Allocation:  not available in this JVM");
+        } else {
+            report.append("Allocation:  ");
+            report.append(total.getCount() == 0 ? 0 : allocated / total.getCount()).append(" bytes/request, ");
+            report.append(decimals.format(allocated * 1000.0 / duration / (1024 * 1024))).append(" MB/s");
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Runs the load test.
+     * 
+     * @param args Not used
+     * @throws Exception If the test can't be set up
+     */
+    public static void main(String[] args) throws Exception {
+        new LoadTest().run();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.lang.management.ManagementFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+
+/**
+ * A thread of a load test, sending requests to a filter until the
+ * test is over. The requests sent during the measured period are
+ * recorded, together with the bytes the thread allocated for them.
+ *
+ * @author Anders Nyman
+ */
+public class LoadWorker extends Thread {
+    
+    private Filter filter;
+    private FilterChain chain;
+    
+    /** 
+     * The nanoseconds between the requests, 0 to send the next request
+     * as soon as the response is read.
+     */
+    private long interval;
+    
+    /** 
+     * The time the measuring starts, milliseconds.
+     */
+    private long measureStart;
+    
+    /** 
+     * The time the test ends, milliseconds.
+     */
+    private long measureEnd;
+    
+    /** 
+     * The latencies.
+     */
+    private LatencyRecorder recorder;
+    
+    /** 
+     * The bytes allocated for the recorded requests, -1 if the JVM
+     * can't tell.
+     */
+    private long allocated;
+    
+    /**
+     * Creates a load thread.
+     * 
+     * @param filter The first filter
+     * @param chain The chain after the filter
+     * @param interval The nanoseconds between requests, 0 for a closed loop
+     * @param measureStart The time to start recording
+     * @param measureEnd The time to stop
+     */
+    public LoadWorker(Filter filter, FilterChain chain, long interval, long measureStart, long measureEnd) {
+        super("LoadWorker");
+        setDaemon(true);
+        this.filter = filter;
+        this.chain = chain;
+        this.interval = interval;
+        this.measureStart = measureStart;
+        this.measureEnd = measureEnd;
+        recorder = new LatencyRecorder();
+    }
+    
+    /**
+     * Returns the latencies recorded.
+     * 
+     * @return The recorder
+     */
+    public LatencyRecorder getRecorder() {
+        return recorder;
+    }
+    
+    /**
+     * Returns the bytes allocated for the recorded requests.
+     * 
+     * @return The number of bytes, -1 if the JVM can't tell
+     */
+    public long getAllocated() {
+        return allocated;
+    }
+    
+    /**
+     * Sends the requests.
+     * 
+     * @see java.lang.Thread#run()
+     */
+    public void run() {
+        long next = System.nanoTime() + (long) (Math.random() * interval);
+        long allocatedStart = -1;
+        boolean measuring = false;
+        long now = System.currentTimeMillis();
+        while (now < measureEnd) {
+            if (!measuring && now >= measureStart) {
+                measuring = true;
+                allocatedStart = getAllocatedBytes();
+            }
+            
+            long start = System.nanoTime();
+            if (interval > 0) {
+                if (next > start) {
+                    sleepNanos(next - start);
+                }
+                start = next;
+                next += interval;
+            }
+            
+            boolean failed;
+            try {
+                DiscardingResponse response = new DiscardingResponse();
+                filter.doFilter(new BrowserRequest("GET", "/load/page.html", null), response, chain);
+                failed = response.getStatus() >= 400;
+            } catch (Exception e) {
+                failed = true;
+            }
+            if (measuring) {
+                recorder.record(System.nanoTime() - start, failed);
+            }
+            now = System.currentTimeMillis();
+        }
+        allocated = allocatedStart < 0 ? -1 : getAllocatedBytes() - allocatedStart;
+    }
+    
+    /**
+     * Returns the bytes allocated so far by this thread.
+     * 
+     * @return The number of bytes, -1 if the JVM can't tell
+     */
+    private long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return sunBean.getThreadAllocatedBytes(getId());
+    }
+    
+    /**
+     * Sleeps a number of nanoseconds.
+     * 
+     * @param nanos The time to sleep
+     */
+    private void sleepNanos(long nanos) {
+        try {
+            Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * A stream throwing away everything written to it, counting the bytes.
+ *
+ * @author Anders Nyman
+ */
+public class NullOutputStream extends ServletOutputStream {
+    
+    /** 
+     * The number of bytes written.
+     */
+    private long count;
+    
+    public void write(int b) {
+        count++;
+    }
+    
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+    
+    /**
+     * Returns the number of bytes written.
+     * 
+     * @return The count
+     */
+    public long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Properties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import net.sf.j2ep.ProxyFilter;
+import net.sf.j2ep.test.MockHttpServletResponse;
+
+/**
+ * A whole request through the ProxyFilter to a StubBackend on
+ * localhost, from the rules to the copied body of the response.
+ *
+ * @author Anders Nyman
+ */
+public class ProxyFilterBenchmark extends Benchmark {
+    
+    private StubBackend backend;
+    private ProxyFilter filter;
+    private File directory;
+    private FilterChain chain;
+    
+    public ProxyFilterBenchmark() {
+        super("ProxyFilter round trip, 16 kB body");
+    }
+    
+    public void setUp() throws Exception {
+        backend = new StubBackend(new byte[16 * 1024], "application/octet-stream");
+        directory = createWebApp(backend.getPort());
+        
+        Properties parameters = new Properties();
+        parameters.setProperty("dataUrl", "/data.xml");
+        filter = new ProxyFilter();
+        filter.init(new BenchFilterConfig(parameters, directory));
+        
+        chain = new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                throw new IOException("No server found for the request");
+            }
+        };
+    }
+    
+    /**
+     * Creates a directory with a data.xml mapping /bench to the
+     * backend.
+     * 
+     * @param port The port of the backend
+     * @return The directory
+     * @throws IOException If the files can't be written
+     */
+    static File createWebApp(int port) throws IOException {
+        File directory = File.createTempFile("j2ep-bench", "");
+        directory.delete();
+        directory.mkdir();
+        File data = new File(directory, "data.xml");
+        Writer writer = new FileWriter(data);
+        try {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<config>\n"
+                    + "    <server className=\"net.sf.j2ep.servers.BaseServer\"\n"
+                    + "        domainName=\"localhost:" + port + "\">\n"
+                    + "        <rule className=\"net.sf.j2ep.rules.DirectoryRule\" directory=\"/bench\"/>\n"
+                    + "    </server>\n</config>\n");
+        } finally {
+            writer.close();
+        }
+        return directory;
+    }
+    
+    public int run() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new BrowserRequest("GET", "/bench/page.html", null), response, chain);
+        if (response.getStatus() != 200) {
+            throw new IOException("Got status " + response.getStatus());
+        }
+        return response.getBody().length;
+    }
+    
+    public void tearDown() {
+        filter.destroy();
+        backend.close();
+        new File(directory, "data.xml").delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletOutputStream;
+
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.model.Server;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The UrlRewritingOutputStream as it was before links were found
+ * with the LinkScanner, kept as the baseline the scanner is compared
+ * with in the UrlRewritingBenchmark.
+ * 
+ * The data is handled in a streaming fashion, the stream only
+ * keeps a window of the page in memory. Everything before the 
+ * window is rewritten and sent to the original stream as soon
+ * as the window is filled. This way the memory used for each
+ * request is bounded no matter how large the page is and the
+ * client gets the first bytes before the whole page is received.
+ * 
+ * The bytes are handled as ISO-8859-1 when searching for links,
+ * that way the content is kept byte for byte for all parts of 
+ * the page that isn't rewritten.
+ *
+ * @author Anders Nyman
+ */
+public final class RegexRewritingOutputStream extends ServletOutputStream {
+    
+    /** 
+     * The longest link we can guarantee to find. A link that is 
+     * longer than this might be split by the window and will then
+     * be sent without being rewritten.
+     */
+    private static final int MAX_LINK_LENGTH = 4096;
+    
+    /** 
+     * The size of the window, when this many bytes are buffered 
+     * the buffer will be processed.
+     */
+    private static final int WINDOW_SIZE = 4 * MAX_LINK_LENGTH;
+    
+    /** 
+     * The encoding used to map the bytes to chars one to one.
+     */
+    private static final String BYTE_ENCODING = "ISO-8859-1";
+    
+    /** 
+     * The stream we are wrapping, is the original response stream.
+     */
+    private OutputStream originalStream;
+    
+    /** 
+     * Buffer for the part of the page not yet sent to the client.
+     */
+    private byte[] buffer;
+    
+    /** 
+     * Number of bytes in the buffer.
+     */
+    private int count;
+    
+    /** 
+     * The position in the buffer where the unprocessed data 
+     * starts. Any data before this position is already sent
+     * and is only kept so links can be checked for word boundaries.
+     */
+    private int unprocessed;
+    
+    /** 
+     * The position in the buffer where the next search for links
+     * starts, this is after the last link found.
+     */
+    private int searchStart;
+    
+    /** 
+     * The server, needed when we rewrite absolute links.
+     */
+    private String ownHostName;
+    
+    /** 
+     * The contextPath, needed when we rewrite links.
+     */
+    private String contextPath;
+    
+    /** 
+     * The servers.
+     */
+    private ServerChain serverChain;
+    
+    /** 
+     * The server that we are using for this request.
+     */
+    private Server server;
+
+    /** 
+     * Regex matching links in the HTML.
+     */
+    private static Pattern linkPattern = Pattern.compile("\\b(href=|src=|action=|url\\()([\"\'])(([^/]+://)([^/<>]+))?([^\"\'>]*)[\"\']", Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ);
+
+    /** 
+     * Logging element supplied by commons-logging.
+     */
+    private static Log log;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param originalStream The stream we are wrapping
+     * @param ownHostName The host name links are rewritten to
+     * @param contextPath The context path links are rewritten to
+     * @param serverChain The servers, used to find absolute links
+     * @param server The server that we are using for this request
+     */
+    public RegexRewritingOutputStream(OutputStream originalStream, String ownHostName, String contextPath, ServerChain serverChain, Server server) {
+        this.originalStream = originalStream;
+        this.ownHostName = ownHostName;
+        this.contextPath = contextPath;
+        this.serverChain = serverChain;
+        this.server = server;
+        log = LogFactory.getLog(RegexRewritingOutputStream.class);  
+        
+        buffer = new byte[WINDOW_SIZE + MAX_LINK_LENGTH];
+        count = 0;
+        unprocessed = 0;
+        searchStart = 0;
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            process(false);
+        }
+        buffer[count++] = (byte) b;
+    }
+    
+    /**
+     * Adds the data to the window, the window is processed
+     * every time it gets full.
+     * 
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                process(false);
+            }
+            int length = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
+    }
+    
+    /**
+     * @see java.io.OutputStream#write(byte[])
+     */
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+    
+    /**
+     * Sends all the data that can be processed without
+     * knowing the rest of the page to the client.
+     * 
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException {
+        process(false);
+        originalStream.flush();
+    }
+    
+    /**
+     * Processes the rest of the stream looking for links, all 
+     * links found are rewritten. After this the stream is written
+     * to the response.
+     * 
+     * @throws IOException Is thrown when there is a problem with the streams
+     */
+    public void rewrite() throws IOException {
+        process(true);
+    }
+    
+    /**
+     * Processes the window looking for links, all links found are 
+     * rewritten and the data is written to the original stream. 
+     * Unless this is the end of the page the last part of the window
+     * is kept since it might contain the start of a link. 
+     * 
+     * @param finished Marks that there is no more data coming
+     * @throws IOException Is thrown when there is a problem with the streams
+     */
+    private void process(boolean finished) throws IOException {
+        /*
+         * Using regex can be quite harsh sometimes so here is how
+         * the regex trying to find links works
+         * 
+         * \\b(href=|src=|action=|url\\()([\"\'])
+         * This part is the identification of links, matching
+         * something like href=", href=' and href=
+         * 
+         * (([^/]+://)([^/<>]+))?
+         * This is to identify absolute paths. A link doesn't have
+         * to be absolute therefor there is a ?.
+         * 
+         * ([^\"\'>]*)
+         * This is the link
+         * 
+         * [\"\']
+         * Ending " or '
+         * 
+         * $1 - link type, e.g. href=
+         * $2 - ", ' or whitespace
+         * $3 - The entire http://www.server.com if present
+         * $4 - The protocol, e.g http:// or ftp:// 
+         * $5 - The host name, e.g. www.server.com
+         * $6 - The link
+         */
+        int limit = finished ? count : count - MAX_LINK_LENGTH;
+        if (limit <= unprocessed) {
+            return;
+        }
+        
+        String page = new String(buffer, 0, count, BYTE_ENCODING);
+        Matcher matcher = linkPattern.matcher(page);
+        int written = unprocessed;
+        
+        boolean found = matcher.find(Math.max(unprocessed, searchStart));
+        while (found && matcher.start() < limit) {          
+           
+           String link = matcher.group(6);
+           if (link.length() == 0) {
+               link = "/";
+           }
+            
+           String rewritten = null;
+           if (matcher.group(4) != null) { 
+               rewritten = handleExternalLink(matcher, link);
+           } else if (link.startsWith("/")) {
+               rewritten = handleLocalLink(matcher, link);
+           }
+           
+           if (rewritten != null) {
+               if (log.isDebugEnabled()) {
+                   log.debug("Found link " + link + " >> " + rewritten);
+               }
+               originalStream.write(buffer, written, matcher.start() - written);
+               originalStream.write(rewritten.getBytes(BYTE_ENCODING));
+               written = matcher.end();
+           }
+           searchStart = matcher.end();
+           found = matcher.find();
+        }
+        
+        int end = Math.max(written, limit);
+        originalStream.write(buffer, written, end - written);
+        compact(end);
+    }
+    
+    /**
+     * Removes the data before the position from the buffer. The 
+     * last byte before the position is kept so that the next
+     * search can see if a link starts on a word boundary.
+     * 
+     * @param position The position up to where all the data is sent
+     */
+    private void compact(int position) {
+        int keep = position > 0 ? position - 1 : 0;
+        System.arraycopy(buffer, keep, buffer, 0, count - keep);
+        count -= keep;
+        unprocessed = position - keep;
+        searchStart = Math.max(0, searchStart - keep);
+    }
+    
+    
+    /**
+     * Rewrites a absolute path starting with a protocol e.g.
+     * http://www.server.com/index.html
+     * 
+     * @param matcher The matcher used for this link
+     * @param link The part of the link after the domain name 
+     * @return The link now rewritten
+     */
+    private String handleExternalLink(Matcher matcher, String link) {
+        String location = matcher.group(5) + link;
+           Server matchingServer = serverChain.getServerMapped(location);
+           
+           if (matchingServer != null) {
+               link = link.substring(matchingServer.getPath().length()); 
+               link = matchingServer.getRule().revert(link);
+               String type = matcher.group(1);
+               String separator = matcher.group(2);
+               String protocol = matcher.group(4);
+               return type+separator+protocol+ ownHostName + contextPath + link + separator;
+           } else {
+               return null;
+           }
+    }
+
+    /**
+     * 
+     * @param matcher The matcher used for this link
+     * @param link The original link
+     * @return The rewritten link
+     */
+    private String handleLocalLink(Matcher matcher, String link) {
+        String serverDir = server.getPath();
+
+        if (serverDir.equals("") || link.startsWith(serverDir + "/")) {
+            link = server.getRule().revert(link.substring(serverDir.length()));
+            String type = matcher.group(1);
+            String separator = matcher.group(2);
+            return type + separator + contextPath + link + separator;
+        } else {
+            return null;
+        }
+    }
+
+
+    /**
+     * Releases the buffer, any data not yet processed is lost.
+     * 
+     * @see java.io.Closeable#close()
+     */
+    public void close() throws IOException {
+        count = 0;
+        unprocessed = 0;
+        searchStart = 0;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import net.sf.j2ep.rules.RewriteRule;
+
+/**
+ * Rewriting a URI with RewriteRule.process, or rewriting it back
+ * with RewriteRule.revert.
+ *
+ * @author Anders Nyman
+ */
+public class RewriteRuleBenchmark extends Benchmark {
+    
+    private boolean revert;
+    private RewriteRule rule;
+    private String[] uris;
+    private int next;
+    
+    /**
+     * Creates the benchmark.
+     * 
+     * @param revert true to benchmark revert, false for process
+     */
+    public RewriteRuleBenchmark(boolean revert) {
+        super(revert ? "RewriteRule.revert" : "RewriteRule.process");
+        this.revert = revert;
+    }
+    
+    public void setUp() {
+        rule = new RewriteRule();
+        rule.setFrom("/blogs/([0-9]+)/([0-9]+)[/\\w]*");
+        rule.setTo("/blog?date=$1&id=$2");
+        rule.setRevertFrom("/blog\\?date=([0-9]+)&id=([0-9]+)");
+        rule.setRevertTo("/blogs/$1/$2/");
+        
+        uris = new String[16];
+        for (int i=0; i < uris.length; i++) {
+            if (revert) {
+                uris[i] = "/blog?date=0512" + (10 + i) + "&id=" + i;
+            } else {
+                uris[i] = "/blogs/0512" + (10 + i) + "/" + i + "/entry";
+            }
+        }
+    }
+    
+    public int run() {
+        next = (next + 1) & (uris.length - 1);
+        String result = revert ? rule.revert(uris[next]) : rule.process(uris[next]);
+        return result.length();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.rules.DirectoryRule;
+import net.sf.j2ep.rules.RewriteRule;
+import net.sf.j2ep.servers.BaseServer;
+
+/**
+ * Finding the server for a request in a chain of N servers. Either
+ * all servers have directory rules, which are all indexed, or every
+ * tenth server has a regex rewrite rule, which is checked for every
+ * request. One request in eight matches no server.
+ *
+ * @author Anders Nyman
+ */
+public class ServerChainBenchmark extends Benchmark {
+    
+    private int rules;
+    private boolean mixed;
+    private ServerChain chain;
+    private HttpServletRequest[] requests;
+    private int next;
+    
+    /**
+     * Creates the benchmark.
+     * 
+     * @param rules The number of servers in the chain
+     * @param mixed true if every tenth server has a rewrite rule
+     */
+    public ServerChainBenchmark(int rules, boolean mixed) {
+        super("ServerChain.evaluate, " + rules + " rules, " + (mixed ? "mixed" : "indexed"));
+        this.rules = rules;
+        this.mixed = mixed;
+    }
+    
+    public void setUp() {
+        List servers = new LinkedList();
+        for (int i=0; i < rules; i++) {
+            BaseServer server = new BaseServer();
+            server.setDomainName("backend" + i + ":8080");
+            server.setPath("/app");
+            if (mixed && i % 10 == 9) {
+                RewriteRule rule = new RewriteRule();
+                rule.setFrom("/shop" + i + "/item/([0-9]+)");
+                rule.setTo("/item?id=$1");
+                server.setRule(rule);
+            } else {
+                DirectoryRule rule = new DirectoryRule();
+                rule.setDirectory("/dir" + i);
+                server.setRule(rule);
+            }
+            servers.add(server);
+        }
+        chain = new ServerChain(servers);
+        
+        requests = new HttpServletRequest[64];
+        for (int i=0; i < requests.length; i++) {
+            int server = (i * 7919) % rules;
+            if (i % 8 == 7) {
+                requests[i] = new BrowserRequest("GET", "/missing/page" + i + ".html", null);
+            } else if (mixed && server % 10 == 9) {
+                requests[i] = new BrowserRequest("GET", "/shop" + server + "/item/" + i, null);
+            } else {
+                requests[i] = new BrowserRequest("GET", "/dir" + server + "/sub/page" + i + ".html", "a=1");
+            }
+        }
+    }
+    
+    public int run() {
+        next = (next + 1) & (requests.length - 1);
+        return chain.evaluate(requests[next]) == null ? 0 : 1;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * A minimal HTTP/1.1 server answering every request with the same
+ * body, keeping the connections alive. Used as the server behind the
+ * proxy so that the proxy and not the server is measured.
+ *
+ * To look more like a real server the responses can be delayed, a
+ * part of them answered with an error and the body written slowly
+ * in small parts.
+ *
+ * @author Anders Nyman
+ */
+public class StubBackend implements Runnable {
+    
+    /** 
+     * The socket accepting connections.
+     */
+    private ServerSocket serverSocket;
+    
+    /** 
+     * The response, headers and body.
+     */
+    private byte[] response;
+    
+    /** 
+     * The response sent instead when failing.
+     */
+    private byte[] errorResponse;
+    
+    /** 
+     * The milliseconds to wait before answering.
+     */
+    private volatile long latency;
+    
+    /** 
+     * The part of the requests answered with an error.
+     */
+    private volatile double errorRate;
+    
+    /** 
+     * The size of the parts the body is written in when writing slowly,
+     * 0 to write it all at once.
+     */
+    private volatile int slowChunk;
+    
+    /** 
+     * The milliseconds to wait between the parts.
+     */
+    private volatile long slowDelay;
+    
+    /** 
+     * The number of requests answered.
+     */
+    private long requests;
+    
+    /**
+     * Starts a server on a free port of localhost.
+     * 
+     * @param body The body of the responses
+     * @param contentType The content type of the responses
+     * @throws IOException If the socket can't be opened
+     */
+    public StubBackend(byte[] body, String contentType) throws IOException {
+        String head = "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: " + contentType + "\r\n"
+            + "Content-Length: " + body.length + "\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "\r\n";
+        byte[] headBytes = head.getBytes("ISO-8859-1");
+        response = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        errorResponse = ("HTTP/1.1 500 Internal Server Error\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Content-Length: 5\r\n"
+            + "\r\n"
+            + "Error").getBytes("ISO-8859-1");
+        
+        serverSocket = new ServerSocket(0, 128, InetAddress.getByName("localhost"));
+        Thread acceptor = new Thread(this, "StubBackend-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    /**
+     * Returns the port the server listens on.
+     * 
+     * @return The port
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+    
+    /**
+     * Sets the milliseconds to wait before answering a request.
+     * 
+     * @param latency The milliseconds
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+    
+    /**
+     * Sets the part of the requests answered with 500.
+     * 
+     * @param errorRate The part, 0 to 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+    
+    /**
+     * Makes the responses be written in parts with a delay between
+     * them, like from a server producing the page as it goes.
+     * 
+     * @param chunk The size of the parts, 0 to write the response at once
+     * @param delay The milliseconds between the parts
+     */
+    public void setSlowWrite(int chunk, long delay) {
+        slowChunk = chunk;
+        slowDelay = delay;
+    }
+    
+    /**
+     * Returns the number of requests answered.
+     * 
+     * @return The number of requests
+     */
+    public synchronized long getRequests() {
+        return requests;
+    }
+    
+    /**
+     * Stops accepting connections.
+     */
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+        }
+    }
+    
+    /**
+     * Accepts connections, each handled by a thread of its own.
+     * 
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread handler = new Thread("StubBackend-connection") {
+                    public void run() {
+                        serve(socket);
+                    }
+                };
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
+    /**
+     * Answers the requests on a connection until it is closed. The
+     * requests are assumed to have no body.
+     * 
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            Random random = new Random();
+            while (skipRequest(in)) {
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                if (errorRate > 0 && random.nextDouble() < errorRate) {
+                    out.write(errorResponse);
+                } else {
+                    write(out, response);
+                }
+                out.flush();
+                synchronized (this) {
+                    requests++;
+                }
+            }
+        } catch (IOException e) {
+        } catch (InterruptedException e) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+    
+    /**
+     * Writes a response, in parts if writing slowly.
+     * 
+     * @param out The stream of the connection
+     * @param data The response
+     * @throws IOException If the response can't be written
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private void write(OutputStream out, byte[] data) throws IOException, InterruptedException {
+        int chunk = slowChunk;
+        if (chunk <= 0) {
+            out.write(data);
+        } else {
+            for (int i=0; i < data.length; i += chunk) {
+                out.write(data, i, Math.min(chunk, data.length - i));
+                out.flush();
+                Thread.sleep(slowDelay);
+            }
+        }
+    }
+    
+    /**
+     * Reads a request up to the empty line ending the headers.
+     * 
+     * @param in The stream of the connection
+     * @return false if the connection was closed
+     * @throws IOException If the request can't be read
+     */
+    private boolean skipRequest(InputStream in) throws IOException {
+        int lineLength = 0;
+        int read = in.read();
+        while (read != -1) {
+            if (read == '\n') {
+                if (lineLength == 0) {
+                    return true;
+                }
+                lineLength = 0;
+            } else if (read != '\r') {
+                lineLength++;
+            }
+            read = in.read();
+        }
+        return false;
+    }
+}
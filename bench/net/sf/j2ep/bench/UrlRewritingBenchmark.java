@@ -0,0 +1,105 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.bench;
+
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.UrlRewritingOutputStream;
+import net.sf.j2ep.rules.DirectoryRule;
+import net.sf.j2ep.servers.BaseServer;
+
+/**
+ * Rewriting the links of a 100 kB HTML page with the
+ * UrlRewritingOutputStream, written in 8 kB parts like the
+ * response handlers do. The same page can be run through the
+ * regex based stream used before the LinkScanner, to compare them.
+ *
+ * @author Anders Nyman
+ */
+public class UrlRewritingBenchmark extends Benchmark {
+    
+    private ServerChain serverChain;
+    private BaseServer server;
+    private byte[] page;
+    private boolean regex;
+    
+    /**
+     * Creates the benchmark.
+     * 
+     * @param regex true to use the regex based stream, false for the LinkScanner
+     */
+    public UrlRewritingBenchmark(boolean regex) {
+        super(regex ? "Link rewriting, regex, 100 kB page" : "Link rewriting, LinkScanner, 100 kB page");
+        this.regex = regex;
+    }
+    
+    public void setUp() throws Exception {
+        server = new BaseServer();
+        server.setDomainName("www.backend.com");
+        server.setPath("/app");
+        server.setIsRewriting("true");
+        DirectoryRule rule = new DirectoryRule();
+        rule.setDirectory("/proxied");
+        server.setRule(rule);
+        LinkedList servers = new LinkedList();
+        servers.add(server);
+        serverChain = new ServerChain(servers);
+        page = createPage(100 * 1024);
+    }
+    
+    /**
+     * Creates a page with the mix of text, relative, absolute and
+     * external links of a typical page.
+     * 
+     * @param size The size of the page
+     * @return The page
+     * @throws Exception If the encoding isn't supported
+     */
+    static byte[] createPage(int size) throws Exception {
+        StringBuffer html = new StringBuffer("<html><head><title>Bench</title>");
+        html.append("<link rel=\"stylesheet\" href=\"/app/css/site.css\"/></head><body>\n");
+        for (int i=0; html.length() < size; i++) {
+            html.append("<div class=\"item\"><h2>Item ").append(i).append("</h2>");
+            html.append("<p>Some text describing the item, long enough to look like a real paragraph of a page.</p>");
+            html.append("<a href=\"/app/items/").append(i).append(".html\">Details</a> ");
+            html.append("<img src=\"http://www.backend.com/app/img/").append(i).append(".png\" alt=\"\"/> ");
+            html.append("<a href=\"http://www.other.com/page").append(i).append("\">Elsewhere</a></div>\n");
+        }
+        html.append("</body></html>");
+        return html.toString().getBytes("ISO-8859-1");
+    }
+    
+    public int run() throws Exception {
+        NullOutputStream out = new NullOutputStream();
+        OutputStream stream;
+        if (regex) {
+            stream = new RegexRewritingOutputStream(out, "proxy:8080", "/ctx", serverChain, server);
+        } else {
+            stream = new UrlRewritingOutputStream(out, "proxy:8080", "/ctx", serverChain, server);
+        }
+        for (int i=0; i < page.length; i += 8192) {
+            stream.write(page, i, Math.min(8192, page.length - i));
+        }
+        if (regex) {
+            ((RegexRewritingOutputStream) stream).rewrite();
+        } else {
+            ((UrlRewritingOutputStream) stream).rewrite();
+        }
+        return (int) out.getCount();
+    }
+}
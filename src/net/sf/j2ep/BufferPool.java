@@ -0,0 +1,82 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+/**
+ * Gives out the buffers used when copying request and response
+ * bodies. Each thread gets a buffer of its own that is kept and
+ * reused for every body the thread copies, so no buffers are
+ * allocated while requests are handled and the buffers never
+ * have to be handed back.
+ * 
+ * A buffer must not be kept by the caller after the copy is done,
+ * and a thread may only use one buffer at a time.
+ *
+ * @author Anders Nyman
+ */
+public class BufferPool {
+    
+    /** 
+     * The default size of the buffers.
+     */
+    public static final int DEFAULT_SIZE = 32*1024;
+    
+    /** 
+     * The size of the buffers.
+     */
+    private static volatile int bufferSize = DEFAULT_SIZE;
+    
+    /** 
+     * The buffer of each thread.
+     */
+    private static ThreadLocal buffers = new ThreadLocal();
+    
+    /**
+     * Returns the buffer of the current thread.
+     * 
+     * @return The buffer
+     */
+    public static byte[] getBuffer() {
+        byte[] buffer = (byte[]) buffers.get();
+        if (buffer == null || buffer.length != bufferSize) {
+            buffer = new byte[bufferSize];
+            buffers.set(buffer);
+        }
+        return buffer;
+    }
+    
+    /**
+     * Sets the size of the buffers. Threads that already
+     * have a buffer get a new one the next time they ask.
+     * 
+     * @param size The size in bytes
+     */
+    public static void setBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The buffer size has to be positive");
+        }
+        bufferSize = size;
+    }
+    
+    /**
+     * Returns the size of the buffers.
+     * 
+     * @return The size in bytes
+     */
+    public static int getBufferSize() {
+        return bufferSize;
+    }
+}
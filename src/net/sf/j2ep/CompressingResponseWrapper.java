@@ -0,0 +1,439 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A wrapper compressing the body of the response. The headers are
+ * watched to find the content type and to see if the response is
+ * already encoded. Nothing is written to the wrapped response until
+ * the body reaches the min size of the compressor or the stream is
+ * flushed, then the Content-Encoding is set if the body is compressed.
+ * 
+ * A strong ETag is made weak when the body is compressed since the
+ * compressed body isn't the same bytes as the original.
+ *
+ * @author Anders Nyman
+ */
+public final class CompressingResponseWrapper extends HttpServletResponseWrapper {
+    
+    /** 
+     * The compressor we get the settings and deflaters from.
+     */
+    private ResponseCompressor compressor;
+    
+    /** 
+     * The coding to use, gzip or deflate. Null if the client
+     * doesn't accept compression.
+     */
+    private String coding;
+    
+    /** 
+     * The Content-Type header.
+     */
+    private String contentType;
+    
+    /** 
+     * The ETag header.
+     */
+    private String etag;
+    
+    /** 
+     * Set when a Content-Encoding or Content-Length header makes
+     * it impossible to compress the body.
+     */
+    private boolean fixedBody;
+    
+    /** 
+     * Stream we are using for the response.
+     */
+    private CompressingStream outStream;
+    
+    /** 
+     * Writer we are using for the response.
+     */
+    private PrintWriter outWriter;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param response The response we are wrapping
+     * @param compressor The compressor
+     * @param coding The coding to use, null if the client doesn't accept compression
+     */
+    public CompressingResponseWrapper(HttpServletResponse response, ResponseCompressor compressor, String coding) {
+        super(response);
+        this.compressor = compressor;
+        this.coding = coding;
+    }
+    
+    /**
+     * Checks the headers we need to know about before they are set.
+     * 
+     * @param name The name of the header
+     * @param value The value of the header
+     */
+    private void checkHeader(String name, String value) {
+        if (name.equalsIgnoreCase("content-type")) {
+            contentType = value;
+        } else if (name.equalsIgnoreCase("etag")) {
+            etag = value;
+        } else if (name.equalsIgnoreCase("content-encoding") || name.equalsIgnoreCase("content-length")) {
+            fixedBody = true;
+        }
+    }
+    
+    /**
+     * @see javax.servlet.http.HttpServletResponse#addHeader(java.lang.String, java.lang.String)
+     */
+    public void addHeader(String name, String value) {
+        checkHeader(name, value);
+        super.addHeader(name, value);
+    }
+    
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setHeader(java.lang.String, java.lang.String)
+     */
+    public void setHeader(String name, String value) {
+        checkHeader(name, value);
+        super.setHeader(name, value);
+    }
+    
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setIntHeader(java.lang.String, int)
+     */
+    public void setIntHeader(String name, int value) {
+        checkHeader(name, String.valueOf(value));
+        super.setIntHeader(name, value);
+    }
+    
+    /**
+     * @see javax.servlet.http.HttpServletResponse#addIntHeader(java.lang.String, int)
+     */
+    public void addIntHeader(String name, int value) {
+        checkHeader(name, String.valueOf(value));
+        super.addIntHeader(name, value);
+    }
+    
+    /**
+     * @see javax.servlet.ServletResponse#setContentType(java.lang.String)
+     */
+    public void setContentType(String type) {
+        contentType = type;
+        super.setContentType(type);
+    }
+    
+    /**
+     * @see javax.servlet.ServletResponse#setContentLength(int)
+     */
+    public void setContentLength(int length) {
+        fixedBody = true;
+        super.setContentLength(length);
+    }
+    
+    /**
+     * @see javax.servlet.ServletResponse#getOutputStream()
+     */
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outWriter != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (outStream == null) {
+            outStream = new CompressingStream();
+        }
+        return outStream;
+    }
+    
+    /**
+     * @see javax.servlet.ServletResponse#getWriter()
+     */
+    public PrintWriter getWriter() throws IOException {
+        if (outWriter == null) {
+            if (outStream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            outStream = new CompressingStream();
+            outWriter = new PrintWriter(new OutputStreamWriter(outStream, getCharacterEncoding()));
+        }
+        return outWriter;
+    }
+    
+    /**
+     * @see javax.servlet.ServletResponse#flushBuffer()
+     */
+    public void flushBuffer() throws IOException {
+        if (outWriter != null) {
+            outWriter.flush();
+        } else if (outStream != null) {
+            outStream.flush();
+        }
+        super.flushBuffer();
+    }
+    
+    /**
+     * Returns the deflater to the compressor if the stream wasn't
+     * closed, should be called when the response is done.
+     */
+    public void release() {
+        if (outStream != null) {
+            outStream.release();
+        }
+    }
+    
+    /**
+     * Checks if the response could be compressed.
+     * 
+     * @return true if the content type is compressed and the response isn't encoded
+     */
+    private boolean isCompressible() {
+        return !fixedBody && compressor.isCompressible(contentType);
+    }
+    
+    /**
+     * Stream holding back the first bytes of the body until it's
+     * known if the body will be compressed, after that the body is
+     * compressed while it's written.
+     */
+    private class CompressingStream extends ServletOutputStream {
+        
+        /** 
+         * The stream of the wrapped response, null until it's decided
+         * if the body is compressed.
+         */
+        private OutputStream out;
+        
+        /** 
+         * The first bytes of the body.
+         */
+        private byte[] pending;
+        
+        /** 
+         * The number of bytes in pending.
+         */
+        private int pendingCount;
+        
+        /** 
+         * The deflater, null if the body isn't compressed.
+         */
+        private Deflater deflater;
+        
+        /** 
+         * True if the body is compressed with gzip.
+         */
+        private boolean gzip;
+        
+        /** 
+         * Checksum of the body, needed for gzip.
+         */
+        private CRC32 crc;
+        
+        /** 
+         * Buffer for the compressed data.
+         */
+        private byte[] buffer;
+        
+        /** 
+         * The bytes written before and after compression.
+         */
+        private long bytesIn, bytesOut;
+        
+        /** 
+         * Reused by write(int).
+         */
+        private byte[] oneByte = new byte[1];
+        
+        /** 
+         * Set when the stream is closed.
+         */
+        private boolean closed;
+        
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        public void write(int b) throws IOException {
+            oneByte[0] = (byte) b;
+            write(oneByte, 0, 1);
+        }
+        
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("The stream is closed");
+            }
+            if (out == null) {
+                int minSize = compressor.getMinSize();
+                if (pendingCount + len < minSize) {
+                    if (pending == null) {
+                        pending = new byte[minSize];
+                    }
+                    System.arraycopy(b, off, pending, pendingCount, len);
+                    pendingCount += len;
+                    return;
+                }
+                start(true);
+            }
+            send(b, off, len);
+        }
+        
+        /**
+         * Decides if the body is compressed, sets the headers and
+         * sends the bytes held back.
+         * 
+         * @param large true if the body has reached the min size
+         * @throws IOException Is thrown when there is a problem with the stream
+         */
+        private void start(boolean large) throws IOException {
+            boolean compressible = isCompressible();
+            if (compressible) {
+                CompressingResponseWrapper.super.addHeader("Vary", "Accept-Encoding");
+            }
+            if (compressible && large && coding != null) {
+                gzip = coding.equals("gzip");
+                CompressingResponseWrapper.super.setHeader("Content-Encoding", coding);
+                if (etag != null && !etag.startsWith("W/")) {
+                    CompressingResponseWrapper.super.setHeader("ETag", "W/" + etag);
+                }
+                deflater = compressor.getDeflater(gzip);
+                buffer = new byte[8192];
+            }
+            
+            out = CompressingResponseWrapper.super.getOutputStream();
+            if (gzip) {
+                crc = new CRC32();
+                out.write(new byte[] {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0});
+                bytesOut += 10;
+            }
+            if (pendingCount > 0) {
+                send(pending, 0, pendingCount);
+            }
+            pending = null;
+        }
+        
+        /**
+         * Writes to the wrapped stream, through the deflater if
+         * the body is compressed.
+         * 
+         * @param b The data
+         * @param off The start offset in the data
+         * @param len The number of bytes to write
+         * @throws IOException Is thrown when there is a problem with the stream
+         */
+        private void send(byte[] b, int off, int len) throws IOException {
+            if (deflater == null) {
+                out.write(b, off, len);
+            } else {
+                if (gzip) {
+                    crc.update(b, off, len);
+                }
+                bytesIn += len;
+                deflater.setInput(b, off, len);
+                while (!deflater.needsInput()) {
+                    deflate();
+                }
+            }
+        }
+        
+        /**
+         * Writes what the deflater has compressed.
+         * 
+         * @throws IOException Is thrown when there is a problem with the stream
+         */
+        private void deflate() throws IOException {
+            int length = deflater.deflate(buffer);
+            if (length > 0) {
+                out.write(buffer, 0, length);
+                bytesOut += length;
+            }
+        }
+        
+        /**
+         * Writes the bytes held back if it isn't decided yet if the
+         * body is compressed, the body is then too small to compress.
+         * 
+         * @see java.io.OutputStream#flush()
+         */
+        public void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (out == null) {
+                start(false);
+            }
+            out.flush();
+        }
+        
+        /**
+         * Finishes the compression and closes the wrapped stream.
+         * 
+         * @see java.io.OutputStream#close()
+         */
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (out == null) {
+                start(false);
+            }
+            closed = true;
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    deflate();
+                }
+                if (gzip) {
+                    writeInt(crc.getValue());
+                    writeInt(bytesIn);
+                    bytesOut += 8;
+                }
+                compressor.count(contentType, bytesIn, bytesOut);
+                release();
+            }
+            out.close();
+        }
+        
+        /**
+         * Writes a number for the gzip trailer.
+         * 
+         * @param value The number, only the lowest 4 bytes are written
+         * @throws IOException Is thrown when there is a problem with the stream
+         */
+        private void writeInt(long value) throws IOException {
+            out.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+        }
+        
+        /**
+         * Returns the deflater to the compressor.
+         */
+        private void release() {
+            if (deflater != null) {
+                compressor.releaseDeflater(deflater, gzip);
+                deflater = null;
+            }
+        }
+    }
+}
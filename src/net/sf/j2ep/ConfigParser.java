@@ -111,9 +111,10 @@ public class ConfigParser {
         digester.addObjectCreate("config/cluster-server", null, "className");
         digester.addSetProperties("config/cluster-server");
         // Create the servers in this cluster
-        digester.addCallMethod("config/cluster-server/server", "addServer", 2);
+        digester.addCallMethod("config/cluster-server/server", "addServer", 3);
         digester.addCallParam("config/cluster-server/server", 0, "domainName");
         digester.addCallParam("config/cluster-server/server", 1, "path");
+        digester.addCallParam("config/cluster-server/server", 2, "weight");
         // Create rule
         digester.addObjectCreate("config/cluster-server/rule", null,
                 "className");
@@ -0,0 +1,199 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * A set of header names that is checked without regard to case,
+ * used for the headers that aren't copied between the client and the
+ * server. The names are kept in an open addressing hash table with a
+ * hash that ignores case, so a lookup is one hash of the name and
+ * usually a single comparison. Lookups in the set and in a token list
+ * create no strings, but the code copying the headers still does, see
+ * join.
+ * 
+ * The set can't be changed, adding names creates a new set. This
+ * way a set can be read by many threads without locking.
+ *
+ * @author Anders Nyman
+ */
+public final class HeaderNameSet {
+    
+    /** 
+     * The names in lower case, at most half of the slots are used.
+     */
+    private final String[] table;
+    
+    /** 
+     * The names as they were added.
+     */
+    private final String[] names;
+    
+    /**
+     * Creates a set.
+     * 
+     * @param names The names, comma separated e.g. "Connection,Via"
+     */
+    public HeaderNameSet(String names) {
+        this(new String[0], names);
+    }
+    
+    /**
+     * Creates a set with the names of another set and some more.
+     * 
+     * @param existing The names already in the set
+     * @param added The names to add, comma separated
+     */
+    private HeaderNameSet(String[] existing, String added) {
+        List all = new ArrayList();
+        for (int i=0; i < existing.length; i++) {
+            all.add(existing[i]);
+        }
+        StringTokenizer tokenizer = new StringTokenizer(added, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String name = tokenizer.nextToken().trim().toLowerCase();
+            if (name.length() > 0 && !all.contains(name)) {
+                all.add(name);
+            }
+        }
+        
+        names = (String[]) all.toArray(new String[all.size()]);
+        int size = 4;
+        while (size < names.length * 2) {
+            size *= 2;
+        }
+        table = new String[size];
+        for (int i=0; i < names.length; i++) {
+            int slot = hash(names[i]) & (size - 1);
+            while (table[slot] != null) {
+                slot = (slot + 1) & (size - 1);
+            }
+            table[slot] = names[i];
+        }
+    }
+    
+    /**
+     * Creates a new set with the names of this set and some more.
+     * 
+     * @param added The names to add, comma separated
+     * @return The new set
+     */
+    public HeaderNameSet add(String added) {
+        return new HeaderNameSet(names, added);
+    }
+    
+    /**
+     * Checks if a name is in the set.
+     * 
+     * @param name The name, in any case
+     * @return true if the name is in the set
+     */
+    public boolean contains(String name) {
+        int length = name.length();
+        int mask = table.length - 1;
+        int slot = hash(name) & mask;
+        while (table[slot] != null) {
+            String entry = table[slot];
+            if (entry.length() == length && entry.regionMatches(true, 0, name, 0, length)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+    
+    /**
+     * Checks if a name is one of the tokens in a comma separated
+     * list, such as the value of a Connection header.
+     * 
+     * @param list The list, can be null
+     * @param name The name, in any case
+     * @return true if the name is in the list
+     */
+    public static boolean containsToken(String list, String name) {
+        if (list == null) {
+            return false;
+        }
+        int length = name.length();
+        int start = 0;
+        while (start < list.length()) {
+            int end = list.indexOf(',', start);
+            if (end == -1) {
+                end = list.length();
+            }
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && list.charAt(tokenStart) <= ' ') {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && list.charAt(tokenEnd - 1) <= ' ') {
+                tokenEnd--;
+            }
+            if (tokenEnd - tokenStart == length && list.regionMatches(true, tokenStart, name, 0, length)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+    
+    /**
+     * Joins the values of a header that can be given many times,
+     * such as Connection, into one comma separated list. A new string
+     * is only created if there is more than one value.
+     * 
+     * @param values The values
+     * @return The list, null if there are no values
+     */
+    public static String join(Enumeration values) {
+        if (values == null || !values.hasMoreElements()) {
+            return null;
+        }
+        String first = (String) values.nextElement();
+        if (!values.hasMoreElements()) {
+            return first;
+        }
+        StringBuffer list = new StringBuffer(first);
+        while (values.hasMoreElements()) {
+            list.append(',').append((String) values.nextElement());
+        }
+        return list.toString();
+    }
+    
+    /**
+     * Calculates a hash of a name that is the same for all cases.
+     * Only ASCII letters are folded, which is all a header name
+     * can contain.
+     * 
+     * @param name The name
+     * @return The hash
+     */
+    private static int hash(String name) {
+        int hash = 0;
+        for (int i=0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            hash = 31 * hash + c;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.util.HashMap;
+
+/**
+ * Limits the number of requests each backend host can hold at
+ * once. A request holds a container thread for as long as the
+ * server takes to answer, so a slow server could otherwise tie up
+ * every thread of the container. A request is let through if the
+ * host has fewer requests than its max number of connections plus
+ * the number allowed to wait for a connection, other requests are
+ * turned away at once instead of waiting.
+ *
+ * @author Anders Nyman
+ */
+public class HostRequestLimiter {
+    
+    /** 
+     * The number of requests for each host, keyed on domain name.
+     */
+    private HashMap hosts;
+    
+    /** 
+     * The max number of connections for hosts without a limit of their own.
+     */
+    private int defaultMaxConnections;
+    
+    /** 
+     * The number of requests that can wait for a connection.
+     */
+    private int maxWaiting;
+    
+    /**
+     * Creates a limiter.
+     * 
+     * @param defaultMaxConnections The max number of connections for hosts without a limit of their own
+     * @param maxWaiting The number of requests for each host that can wait for a connection
+     */
+    public HostRequestLimiter(int defaultMaxConnections, int maxWaiting) {
+        this.defaultMaxConnections = defaultMaxConnections;
+        this.maxWaiting = maxWaiting;
+        hosts = new HashMap();
+    }
+    
+    /**
+     * Lets a request to a host through if the host isn't full. A
+     * request let through has to be ended with release.
+     * 
+     * @param domainName The host
+     * @param maxConnections The max number of connections to the host, 0 or less for the default
+     * @return true if the request was let through
+     */
+    public boolean acquire(String domainName, int maxConnections) {
+        int limit = (maxConnections > 0 ? maxConnections : defaultMaxConnections) + maxWaiting;
+        synchronized (hosts) {
+            int[] count = (int[]) hosts.get(domainName);
+            if (count == null) {
+                count = new int[1];
+                hosts.put(domainName, count);
+            }
+            if (count[0] >= limit) {
+                return false;
+            }
+            count[0]++;
+            return true;
+        }
+    }
+    
+    /**
+     * Ends a request let through by acquire.
+     * 
+     * @param domainName The host
+     */
+    public void release(String domainName) {
+        synchronized (hosts) {
+            int[] count = (int[]) hosts.get(domainName);
+            if (count != null && count[0] > 0) {
+                count[0]--;
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of requests a host is holding.
+     * 
+     * @param domainName The host
+     * @return The number of requests
+     */
+    public int getRequests(String domainName) {
+        synchronized (hosts) {
+            int[] count = (int[]) hosts.get(domainName);
+            return count == null ? 0 : count[0];
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * A stream decompressing what is written to it. Handles the gzip
+ * and the deflate content codings, so that a compressed response
+ * from a server can be written to a stream that works on the
+ * uncompressed content.
+ * 
+ * The gzip header is skipped as it is written and anything after
+ * the compressed data, like the gzip trailer, is ignored.
+ *
+ * @author Anders Nyman
+ */
+public final class InflatingOutputStream extends ServletOutputStream {
+    
+    /** 
+     * Flags in the gzip header.
+     */
+    private static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16;
+    
+    /** 
+     * Length of the fixed part of the gzip header.
+     */
+    private static final int HEADER_LENGTH = 10;
+    
+    /** 
+     * The stream the decompressed content is written to.
+     */
+    private OutputStream out;
+    
+    /** 
+     * The inflater used.
+     */
+    private Inflater inflater;
+    
+    /** 
+     * The decompressed content before it's written.
+     */
+    private byte[] buffer;
+    
+    /** 
+     * Marks if a gzip header is still to be skipped.
+     */
+    private boolean inHeader;
+    
+    /** 
+     * Number of header bytes read.
+     */
+    private int headerRead;
+    
+    /** 
+     * The flags of the gzip header.
+     */
+    private int flags;
+    
+    /** 
+     * Bytes left of the optional header field being skipped, -1 when
+     * skipping until a zero byte.
+     */
+    private int fieldLeft;
+    
+    /** 
+     * Used by write(int).
+     */
+    private byte[] single;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param out The stream to write the decompressed content to
+     * @param gzip true for the gzip coding, false for deflate
+     */
+    public InflatingOutputStream(OutputStream out, boolean gzip) {
+        this.out = out;
+        inflater = new Inflater(gzip);
+        buffer = new byte[8192];
+        inHeader = gzip;
+        headerRead = 0;
+        single = new byte[1];
+    }
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+    
+    /**
+     * Decompresses the bytes and writes the result.
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (inHeader && len > 0) {
+            readHeader(b[off] & 0xff);
+            off++;
+            len--;
+        }
+        if (len == 0 || inflater.finished()) {
+            return;
+        }
+        
+        inflater.setInput(b, off, len);
+        try {
+            while (!inflater.needsInput() && !inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated > 0) {
+                    out.write(buffer, 0, inflated);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("The compressed content needs a dictionary");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("The compressed content is broken: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * @see java.io.OutputStream#write(byte[])
+     */
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+    
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    /**
+     * Releases the inflater, the stream written to isn't closed.
+     * @see java.io.OutputStream#close()
+     */
+    public void close() throws IOException {
+        inflater.end();
+    }
+    
+    /**
+     * Reads one byte of the gzip header.
+     * 
+     * @param b The byte
+     * @throws IOException If this isn't a gzip header
+     */
+    private void readHeader(int b) throws IOException {
+        if (headerRead < HEADER_LENGTH) {
+            if ((headerRead == 0 && b != 0x1f) || (headerRead == 1 && b != 0x8b) || (headerRead == 2 && b != 8)) {
+                throw new IOException("The content isn't in the gzip format");
+            } else if (headerRead == 3) {
+                flags = b;
+            }
+            headerRead++;
+            if (headerRead == HEADER_LENGTH) {
+                nextField();
+            }
+        } else if (fieldLeft == -1) {
+            if (b == 0) {
+                nextField();
+            }
+        } else if ((flags & FEXTRA) != 0 && headerRead < HEADER_LENGTH + 2) {
+            fieldLeft = headerRead == HEADER_LENGTH ? b : fieldLeft | (b << 8);
+            headerRead++;
+            if (headerRead == HEADER_LENGTH + 2) {
+                flags &= ~FEXTRA;
+                if (fieldLeft == 0) {
+                    nextField();
+                }
+            }
+        } else {
+            fieldLeft--;
+            if (fieldLeft == 0) {
+                nextField();
+            }
+        }
+    }
+    
+    /**
+     * Moves on to the next optional field in the gzip header, or
+     * ends the header if there are no more fields.
+     */
+    private void nextField() {
+        if ((flags & FEXTRA) != 0) {
+            fieldLeft = 0;
+        } else if ((flags & FNAME) != 0) {
+            flags &= ~FNAME;
+            fieldLeft = -1;
+        } else if ((flags & FCOMMENT) != 0) {
+            flags &= ~FCOMMENT;
+            fieldLeft = -1;
+        } else if ((flags & FHCRC) != 0) {
+            flags &= ~FHCRC;
+            fieldLeft = 2;
+        } else {
+            inHeader = false;
+        }
+    }
+}
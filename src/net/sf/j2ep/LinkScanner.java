@@ -0,0 +1,311 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep;
+
+/**
+ * A scanner finding links in HTML, CSS and javascript. The scanner
+ * works directly on the bytes of a page and finds the same links as
+ * the regex
+ *
+ * \b(href=|src=|action=|url\()(["'])(([^/]+://)([^/<>]+))?([^"'>]*)["']
+ *
+ * with the flag CASE_INSENSITIVE. The scanner can be used on any
+ * charset where the ASCII characters are encoded as single bytes,
+ * for instance UTF-8 and the ISO-8859 family. Bytes that are not
+ * ASCII are considered part of a word when looking for word boundaries.
+ *
+ * Like a Matcher the scanner keeps the positions of the last link
+ * found, no objects are created when scanning.
+ *
+ * @author Anders Nyman
+ */
+public final class LinkScanner {
+
+    /**
+     * The link types we are looking for, in lower case.
+     */
+    private static final byte[][] TYPES = {
+        {'h', 'r', 'e', 'f', '='},
+        {'s', 'r', 'c', '='},
+        {'a', 'c', 't', 'i', 'o', 'n', '='},
+        {'u', 'r', 'l', '('}
+    };
+
+    /**
+     * Start of the last link found, this is the start of the type.
+     */
+    private int start;
+
+    /**
+     * Position of the opening quote for the last link.
+     */
+    private int quote;
+
+    /**
+     * Start of the host name, -1 if the link isn't absolute.
+     */
+    private int hostStart;
+
+    /**
+     * Start of the link, this is after the host name for absolute links.
+     */
+    private int linkStart;
+
+    /**
+     * End of the link, this is the position of the closing quote.
+     */
+    private int linkEnd;
+
+    /**
+     * Finds the next link starting at or after from but before limit. The
+     * whole link has to be before end to be found.
+     *
+     * @param data The data to search
+     * @param from Position to start searching from
+     * @param limit Links have to start before this position
+     * @param end The end of the data
+     * @return true if a link is found, otherwise false
+     */
+    public boolean find(byte[] data, int from, int limit, int end) {
+        for (int i = from; i < limit; i++) {
+            int typeEnd = matchType(data, i, end);
+            if (typeEnd != -1 && (i == 0 || !isWordByte(data[i-1]))
+                    && typeEnd < end && isQuote(data[typeEnd])
+                    && matchLink(data, typeEnd + 1, end)) {
+                start = i;
+                quote = typeEnd;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any of the link types starts at the position.
+     *
+     * @param data The data
+     * @param position Where the type should start
+     * @param end The end of the data
+     * @return The position after the type, -1 if no type is found
+     */
+    private int matchType(byte[] data, int position, int end) {
+        byte first = toLowerCase(data[position]);
+        for (int t = 0; t < TYPES.length; t++) {
+            byte[] type = TYPES[t];
+            if (first == type[0] && position + type.length <= end) {
+                int i = 1;
+                while (i < type.length && toLowerCase(data[position + i]) == type[i]) {
+                    i++;
+                }
+                if (i == type.length) {
+                    return position + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Tries to match the link after the opening quote. At first the
+     * link is matched as an absolute link with a protocol and host
+     * name, if that fails it is matched as a link without host.
+     *
+     * @param data The data
+     * @param position The position after the opening quote
+     * @param end The end of the data
+     * @return true if there is a link, otherwise false
+     */
+    private boolean matchLink(byte[] data, int position, int end) {
+        int slash = indexOf(data, position, end, '/');
+        if (slash - 1 > position && data[slash-1] == ':' && slash + 1 < end && data[slash+1] == '/') {
+            int host = slash + 2;
+            int hostEnd = host;
+            while (hostEnd < end && data[hostEnd] != '/' && data[hostEnd] != '<' && data[hostEnd] != '>') {
+                hostEnd++;
+            }
+
+            if (hostEnd > host) {
+                int close = indexOfEndOfLink(data, hostEnd, end);
+                if (close < end && isQuote(data[close])) {
+                    hostStart = host;
+                    linkStart = hostEnd;
+                    linkEnd = close;
+                    return true;
+                }
+
+                /*
+                 * The regex would backtrack the host name to the last
+                 * quote in it, leaving the link empty.
+                 */
+                for (int i = hostEnd - 1; i > host; i--) {
+                    if (isQuote(data[i])) {
+                        hostStart = host;
+                        linkStart = i;
+                        linkEnd = i;
+                        return true;
+                    }
+                }
+            }
+        }
+
+        int close = indexOfEndOfLink(data, position, end);
+        if (close < end && isQuote(data[close])) {
+            hostStart = -1;
+            linkStart = position;
+            linkEnd = close;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the first quote or &gt; at or after the position.
+     *
+     * @param data The data
+     * @param position Position to start from
+     * @param end The end of the data
+     * @return Position of the character found, end if there is none
+     */
+    private int indexOfEndOfLink(byte[] data, int position, int end) {
+        while (position < end && data[position] != '"' && data[position] != '\'' && data[position] != '>') {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Finds the first occurrence of a byte.
+     *
+     * @param data The data
+     * @param position Position to start from
+     * @param end The end of the data
+     * @param b The byte to look for
+     * @return Position of the byte, end if there is none
+     */
+    private int indexOf(byte[] data, int position, int end, char b) {
+        while (position < end && data[position] != b) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Checks if the byte is a quote.
+     *
+     * @param b The byte
+     * @return true for " and ', otherwise false
+     */
+    private static boolean isQuote(byte b) {
+        return b == '"' || b == '\'';
+    }
+
+    /**
+     * Checks if the byte is part of a word. All bytes that
+     * are not ASCII are considered part of a word.
+     *
+     * @param b The byte
+     * @return true if the byte is part of a word
+     */
+    private static boolean isWordByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                || (b >= '0' && b <= '9') || b == '_' || b < 0;
+    }
+
+    /**
+     * Lower cases ASCII letters.
+     *
+     * @param b The byte
+     * @return The lower cased byte
+     */
+    private static byte toLowerCase(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return (byte) (b + ('a' - 'A'));
+        } else {
+            return b;
+        }
+    }
+
+    /**
+     * Returns the start of the last link, this is where the type e.g.
+     * href= starts.
+     *
+     * @return The start
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Returns the end of the last link, this is the position after
+     * the closing quote.
+     *
+     * @return The end
+     */
+    public int end() {
+        return linkEnd + 1;
+    }
+
+    /**
+     * Returns the position of the opening quote, the type is
+     * everything between start and this position.
+     *
+     * @return The position of the quote
+     */
+    public int quote() {
+        return quote;
+    }
+
+    /**
+     * Checks if the last link was an absolute link including
+     * protocol and host name.
+     *
+     * @return true if the link is absolute
+     */
+    public boolean isAbsolute() {
+        return hostStart != -1;
+    }
+
+    /**
+     * Returns the start of the host name. The protocol is everything
+     * after the quote and before this position.
+     *
+     * @return The start of the host name, -1 if the link isn't absolute
+     */
+    public int hostStart() {
+        return hostStart;
+    }
+
+    /**
+     * Returns the start of the link after any host name.
+     *
+     * @return The start of the link
+     */
+    public int linkStart() {
+        return linkStart;
+    }
+
+    /**
+     * Returns the end of the link, this is the position of the
+     * closing quote.
+     *
+     * @return The end of the link
+     */
+    public int linkEnd() {
+        return linkEnd;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.model.ServerContainer;
+import net.sf.j2ep.servers.BaseServer;
+import net.sf.j2ep.servers.ClusterContainer;
+
+/**
+ * An index used to find the server a link is mapped to. The servers
+ * are keyed on domain name and each domain has a tree of the paths
+ * mapped on it, so finding the server for a link is one lookup of
+ * the domain and a walk down the directories in the link.
+ *
+ * Servers in a BaseServer or a ClusterContainer are indexed, other
+ * containers are asked one by one. The first container in the list
+ * mapping the link is always the one used, just like when the list
+ * is traversed.
+ *
+ * @author Anders Nyman
+ */
+class MappingIndex {
+
+    /**
+     * Trees of paths, keyed on domain name.
+     */
+    private HashMap domains;
+
+    /**
+     * Containers that can't be indexed, in order.
+     */
+    private PathTree.Entry[] others;
+
+    /**
+     * Builds the index.
+     *
+     * @param containers The server containers, in the order they are evaluated
+     */
+    public MappingIndex(List containers) {
+        domains = new HashMap();
+        List otherList = new ArrayList();
+
+        for (int i=0; i < containers.size(); i++) {
+            ServerContainer container = (ServerContainer) containers.get(i);
+            if (container instanceof BaseServer) {
+                BaseServer server = (BaseServer) container;
+                if (!isIndexable(server)) {
+                    otherList.add(new PathTree.Entry(i, container));
+                } else if (server.isRewriting()) {
+                    addServer(i, server);
+                }
+            } else if (container instanceof ClusterContainer && isIndexable((ClusterContainer) container)) {
+                Iterator itr = ((ClusterContainer) container).getServers().iterator();
+                while (itr.hasNext()) {
+                    addServer(i, (Server) itr.next());
+                }
+            } else {
+                otherList.add(new PathTree.Entry(i, container));
+            }
+        }
+        others = (PathTree.Entry[]) otherList.toArray(new PathTree.Entry[otherList.size()]);
+    }
+
+    /**
+     * Finds the first server mapped to the link.
+     *
+     * @param location The link, starting with the domain name
+     * @return The server, null if no server is mapped to the link
+     */
+    public Server find(String location) {
+        PathTree.Entry match = null;
+        int slash = location.indexOf('/');
+        if (slash != -1) {
+            PathTree paths = (PathTree) domains.get(location.substring(0, slash));
+            if (paths != null) {
+                match = paths.find(location, slash);
+            }
+        }
+
+        for (int i=0; i < others.length; i++) {
+            PathTree.Entry entry = others[i];
+            if (match != null && match.getPosition() < entry.getPosition()) {
+                break;
+            }
+            Server server = ((ServerContainer) entry.getValue()).getServerMapped(location);
+            if (server != null) {
+                return server;
+            }
+        }
+
+        return match == null ? null : (Server) match.getValue();
+    }
+
+    /**
+     * Adds a server to the tree for its domain.
+     *
+     * @param position The position of the server's container
+     * @param server The server
+     */
+    private void addServer(int position, Server server) {
+        PathTree paths = (PathTree) domains.get(server.getDomainName());
+        if (paths == null) {
+            paths = new PathTree();
+            domains.put(server.getDomainName(), paths);
+        }
+        paths.add(server.getPath() + "/", new PathTree.Entry(position, server));
+    }
+
+    /**
+     * Checks that all servers in a cluster can be indexed.
+     *
+     * @param cluster The cluster
+     * @return true if the cluster can be indexed
+     */
+    private boolean isIndexable(ClusterContainer cluster) {
+        Iterator itr = cluster.getServers().iterator();
+        while (itr.hasNext()) {
+            if (!isIndexable((Server) itr.next())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a server has a domain name without any / and a
+     * path that is empty or starts with /. Other servers can't be
+     * found by splitting the link at the first /.
+     *
+     * @param server The server
+     * @return true if the server can be indexed
+     */
+    private boolean isIndexable(Server server) {
+        String path = server.getPath();
+        return server.getDomainName().indexOf('/') == -1
+                && (path.length() == 0 || path.startsWith("/"));
+    }
+}
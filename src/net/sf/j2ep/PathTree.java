@@ -0,0 +1,191 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep;
+
+import java.util.HashMap;
+
+/**
+ * A tree of directories with one level for each directory in a
+ * path. Values are added for a directory together with a position,
+ * a lookup finds all directories that are a start of a path and
+ * returns the value with the lowest position.
+ *
+ * Used by the indexes in ServerChain so that the first matching
+ * server is found without comparing the path with every server.
+ *
+ * @author Anders Nyman
+ */
+class PathTree {
+
+    /**
+     * The root of the tree, the directory "/".
+     */
+    private Node root;
+
+    /**
+     * Basic constructor.
+     */
+    public PathTree() {
+        root = new Node();
+    }
+
+    /**
+     * Adds a value for a directory. If there already is a value
+     * for the directory the one with the lowest position is kept.
+     *
+     * @param directory The directory, starting and ending with /
+     * @param entry The value and its position
+     */
+    public void add(String directory, Entry entry) {
+        Node node = root;
+        int start = 1;
+        int end = directory.indexOf('/', start);
+        while (end != -1) {
+            node = node.getOrCreateChild(directory.substring(start, end));
+            start = end + 1;
+            end = directory.indexOf('/', start);
+        }
+        node.entry = first(node.entry, entry);
+    }
+
+    /**
+     * Walks the tree along a path. Every directory found on the way
+     * is a start of the path, the one with the lowest position is
+     * returned.
+     *
+     * @param path The path
+     * @param offset Where in the string the path starts
+     * @return The first matching entry, null if there is none
+     */
+    public Entry find(String path, int offset) {
+        if (path == null || !path.startsWith("/", offset)) {
+            return null;
+        }
+
+        Node node = root;
+        Entry match = root.entry;
+        int start = offset + 1;
+        int end = path.indexOf('/', start);
+        while (end != -1 && node.children != null) {
+            node = (Node) node.children.get(path.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            match = first(match, node.entry);
+            start = end + 1;
+            end = path.indexOf('/', start);
+        }
+        return match;
+    }
+
+    /**
+     * Returns the entry with the lowest position.
+     *
+     * @param a An entry, can be null
+     * @param b An entry, can be null
+     * @return The first entry
+     */
+    public static Entry first(Entry a, Entry b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else {
+            return a.getPosition() <= b.getPosition() ? a : b;
+        }
+    }
+
+    /**
+     * A value and its position.
+     */
+    public static class Entry {
+
+        /**
+         * The position.
+         */
+        private int position;
+
+        /**
+         * The value.
+         */
+        private Object value;
+
+        /**
+         * Basic constructor.
+         *
+         * @param position The position
+         * @param value The value
+         */
+        public Entry(int position, Object value) {
+            this.position = position;
+            this.value = value;
+        }
+
+        /**
+         * Returns the position.
+         *
+         * @return The position
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Returns the value.
+         *
+         * @return The value
+         */
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * A directory in the tree.
+     */
+    private static class Node {
+
+        /**
+         * The first value for this directory, can be null.
+         */
+        private Entry entry;
+
+        /**
+         * The sub directories, keyed on name. Null if there are none.
+         */
+        private HashMap children;
+
+        /**
+         * Returns the sub directory with the name, it's
+         * created if it doesn't exist.
+         *
+         * @param name The name of the directory
+         * @return The directory
+         */
+        public Node getOrCreateChild(String name) {
+            if (children == null) {
+                children = new HashMap();
+            }
+            Node child = (Node) children.get(name);
+            if (child == null) {
+                child = new Node();
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+}
@@ -18,23 +18,41 @@ package net.sf.j2ep;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.Deflater;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.j2ep.cache.CachedResponse;
+import net.sf.j2ep.cache.CachedResponseHandler;
+import net.sf.j2ep.cache.CachingResponseHandler;
+import net.sf.j2ep.cache.RequestCoalescer;
+import net.sf.j2ep.cache.ResponseCache;
 import net.sf.j2ep.factories.MethodNotAllowedException;
 import net.sf.j2ep.factories.RequestHandlerFactory;
 import net.sf.j2ep.factories.ResponseHandlerFactory;
+import net.sf.j2ep.metrics.LatencyHistogram;
+import net.sf.j2ep.metrics.MetricsRegistry;
+import net.sf.j2ep.metrics.TimedConnectionManager;
 import net.sf.j2ep.model.AllowedMethodHandler;
 import net.sf.j2ep.model.RequestHandler;
 import net.sf.j2ep.model.ResponseHandler;
 import net.sf.j2ep.model.Server;
+import net.sf.j2ep.requesthandlers.EntityEnclosingRequestHandler;
+import net.sf.j2ep.servers.HealthCheckScheduler;
 
 import org.apache.commons.httpclient.*;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -50,6 +68,24 @@ import org.apache.commons.logging.LogFactory;
  * XML data file. This allows the proxy to be easily extended by creating
  * new rules and new servers.
  * 
+ * Responses to GET requests can be cached by setting the init-param
+ * cacheSize to the number of bytes the cache can use. The init-param
+ * cacheMaxEntrySize sets the max size of a single response.
+ * 
+ * A slow server holds a container thread for each request. With the
+ * init-param maxWaitingPerHost set, requests to a host that already has
+ * all its connections in use and that many requests waiting are
+ * answered with 503 at once.
+ * 
+ * With the init-param metrics set to true the time spent waiting for
+ * the servers and sending the responses and the response times of the
+ * servers and clusters are recorded, see MetricsRegistry.
+ * 
+ * Responses can be compressed for clients accepting gzip or deflate
+ * by setting the init-param compression to true. With a RewriteFilter
+ * in front the responses are compressed by the RewriteFilter after
+ * they are rewritten, so they aren't compressed twice.
+ * 
  * @author Anders Nyman
  */
 public class ProxyFilter implements Filter {
@@ -68,6 +104,36 @@ public class ProxyFilter implements Filter {
      * The httpclient used to make all connections with, supplied by commons-httpclient.
      */
     private HttpClient httpClient;
+    
+    /** 
+     * The cache for responses, null if caching is disabled.
+     */
+    private ResponseCache responseCache;
+    
+    /** 
+     * Collapses concurrent requests for the same URL, null if disabled.
+     */
+    private RequestCoalescer coalescer;
+    
+    /** 
+     * The hosts that have their max number of connections set.
+     */
+    private Set configuredHosts;
+    
+    /** 
+     * Compresses the responses, null if compression is disabled.
+     */
+    private ResponseCompressor compressor;
+    
+    /** 
+     * Limits the requests each host can hold, null if there is no limit.
+     */
+    private HostRequestLimiter limiter;
+    
+    /** 
+     * The metrics, null if metrics are disabled.
+     */
+    private MetricsRegistry metrics;
 
     /**
      * Implementation of a reverse-proxy. All request go through here. This is
@@ -90,43 +156,196 @@ public class ProxyFilter implements Filter {
         if (server == null) {
             filterChain.doFilter(request, response);
         } else {
-            String uri = server.getRule().process(getURI(httpRequest));
-            String scheme = server.getScheme();
-            if (scheme == null) {
-                scheme = request.getScheme();
-            }
-            String url = scheme + "://" + server.getDomainName() + server.getPath() + uri;
+            HttpServletRequest originalRequest = httpRequest;
+            String url = getURL(server, httpRequest);
             log.debug("Connecting to " + url);
             
             ResponseHandler responseHandler = null;
+            CompressingResponseWrapper compressingResponse = null;
+            RequestCoalescer.Flight flight = null;
+            Server limited = null;
+            boolean started = false;
+            long responseTime = -1;
+            boolean failed = false;
             
             try {
-                httpRequest = server.preExecute(httpRequest);
-                responseHandler = executeRequest(httpRequest, url);
+                httpRequest = server.preExecute(originalRequest);
+                CachedResponse cached = getCachedResponse(httpRequest, url);
+                boolean useCached = cached != null && cached.isFresh(System.currentTimeMillis());
+                if (!useCached && coalescer != null && isStoringResponse(httpRequest)) {
+                    flight = coalescer.join(url);
+                    if (!flight.isLeader()) {
+                        CachedResponse shared = coalescer.await(flight, httpRequest);
+                        flight = null;
+                        if (shared != null) {
+                            cached = shared;
+                            useCached = true;
+                        }
+                    }
+                }
+                
+                if (useCached) {
+                    log.debug("Using cached response for " + url);
+                    responseHandler = new CachedResponseHandler(cached, httpRequest);
+                } else {
+                    long start = 0;
+                    for (int retries = 0; responseHandler == null; retries++) {
+                        configureConnections(server);
+                        if (limiter != null) {
+                            if (!limiter.acquire(server.getDomainName(), server.getMaxConnections())) {
+                                throw new ConnectionPoolTimeoutException("Too many requests to " + server.getDomainName());
+                            }
+                            limited = server;
+                        }
+                        start = System.currentTimeMillis();
+                        server.requestStarted();
+                        started = true;
+                        try {
+                            responseHandler = executeRequest(httpRequest, server, url, cached, flight);
+                        } catch (IOException e) {
+                            Server retryServer = getRetryServer(server, httpRequest, e, retries);
+                            if (retryServer == null) {
+                                throw e;
+                            }
+                            log.info("Retrying request to " + url + " on another server after " + e);
+                            server.setConnectionExceptionRecieved(e);
+                            server.requestFinished(-1, true);
+                            recordServer(server, -1, true);
+                            started = false;
+                            if (limited != null) {
+                                limiter.release(limited.getDomainName());
+                                limited = null;
+                            }
+                            server = retryServer;
+                            url = getURL(server, originalRequest);
+                            httpRequest = server.preExecute(originalRequest);
+                        }
+                    }
+                    responseTime = System.currentTimeMillis() - start;
+                    failed = responseHandler.getStatusCode() >= 500;
+                }
                 httpResponse = server.postExecute(httpResponse);
+                if (compressor != null && originalRequest.getAttribute(ResponseCompressor.REQUEST_ATTRIBUTE) == null) {
+                    compressingResponse = compressor.wrap(httpRequest, httpResponse);
+                    httpResponse = compressingResponse;
+                }
 
+                long transferStart = System.currentTimeMillis();
                 responseHandler.process(httpResponse);
+                record("transfer", transferStart);
+            } catch (ConnectionPoolTimeoutException e) {
+                log.error("No free connection to the server", e);
+                httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                if (started) {
+                    server.requestAborted();
+                    started = false;
+                }
+            } catch (ConnectTimeoutException e) {
+                log.error("Timeout while connecting to the server", e);
+                httpResponse.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                server.setConnectionExceptionRecieved(e);
+                failed = true;
+            } catch (SocketTimeoutException e) {
+                log.error("Timeout while waiting for the server", e);
+                httpResponse.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+                failed = true;
+            } catch (ConnectException e) {
+                log.error("The server refused the connection", e);
+                httpResponse.setStatus(HttpServletResponse.SC_BAD_GATEWAY);
+                server.setConnectionExceptionRecieved(e);
+                failed = true;
             } catch (HttpException e) {
                 log.error("Problem while connecting to server", e);
                 httpResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
                 server.setConnectionExceptionRecieved(e);
+                failed = true;
             } catch (UnknownHostException e) {
                 log.error("Could not connection to the host specified", e);
                 httpResponse.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
                 server.setConnectionExceptionRecieved(e);
+                failed = true;
             } catch (IOException e) {
                 log.error( "Problem probably with the input being send, either with a Header or the Stream", e);
                 httpResponse .setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } catch (InterruptedException e) {
+                log.error("Interrupted while waiting for another request to the server", e);
+                httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                Thread.currentThread().interrupt();
             } catch (MethodNotAllowedException e) {
                 log.error("Incoming method could not be handled", e);
                 httpResponse.setStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
                 httpResponse.setHeader("Allow", e.getAllowedMethods());
             } finally {
+                if (flight != null) {
+                    coalescer.complete(flight);
+                }
                 if (responseHandler != null) {
                     responseHandler.close();
                 }
+                if (compressingResponse != null) {
+                    compressingResponse.release();
+                }
+                if (limited != null) {
+                    limiter.release(limited.getDomainName());
+                }
+                if (started) {
+                    server.requestFinished(responseTime, failed);
+                    recordServer(server, responseTime, failed);
+                }
+                EntityEnclosingRequestHandler.release(originalRequest);
+            }
+        }
+    }
+    
+    /**
+     * Builds the URL on the server the request is proxied to.
+     * 
+     * @param server The server we are proxying to
+     * @param httpRequest Request we are receiving from the client
+     * @return The URL
+     */
+    private String getURL(Server server, HttpServletRequest httpRequest) {
+        String uri = server.getRule().process(getURI(httpRequest));
+        String scheme = server.getScheme();
+        if (scheme == null) {
+            scheme = httpRequest.getScheme();
+        }
+        return scheme + "://" + server.getDomainName() + server.getPath() + uri;
+    }
+    
+    /**
+     * Asks the server for another server to retry a failed request on.
+     * Requests that failed before they were sent, because the connection
+     * couldn't be made, can always be retried. Requests that might have
+     * reached the server are only retried if they have no body or if
+     * the body was buffered, otherwise the body has been read from the
+     * client and can't be sent again.
+     * 
+     * @param server The server that failed
+     * @param httpRequest Request we are receiving from the client
+     * @param e The exception received
+     * @param retries The number of times the request has been retried
+     * @return The server to retry on, null if the request shouldn't be retried
+     */
+    private Server getRetryServer(Server server, HttpServletRequest httpRequest, IOException e, int retries) {
+        boolean sent;
+        if (e instanceof ConnectionPoolTimeoutException) {
+            return null;
+        } else if (e instanceof ConnectException || e instanceof ConnectTimeoutException
+                || e instanceof UnknownHostException) {
+            sent = false;
+        } else if (e instanceof NoHttpResponseException || e instanceof SocketException) {
+            sent = true;
+            String length = httpRequest.getHeader("content-length");
+            boolean hasBody = (length != null && !length.trim().equals("0"))
+                    || httpRequest.getHeader("transfer-encoding") != null;
+            if (hasBody && !EntityEnclosingRequestHandler.isBuffered(httpRequest)) {
+                return null;
             }
+        } else {
+            return null;
         }
+        return server.getRetryServer(httpRequest.getMethod(), sent, retries);
     }
     
     /**
@@ -145,25 +364,70 @@ public class ProxyFilter implements Filter {
         return uri;
     }
 
+    /**
+     * Looks for a response in the cache. The response found might
+     * not be fresh, it then has to be revalidated with the server.
+     * 
+     * @param httpRequest Request we are receiving from the client
+     * @param url The location we are proxying to
+     * @return The cached response, null if there is none
+     */
+    private CachedResponse getCachedResponse(HttpServletRequest httpRequest, String url) {
+        if (responseCache == null || !responseCache.isCacheableRequest(httpRequest)) {
+            return null;
+        } else {
+            return responseCache.get(url, httpRequest);
+        }
+    }
+    
+    /**
+     * Checks if the response to this request should be stored
+     * in the cache.
+     * 
+     * @param httpRequest Request we are receiving from the client
+     * @return true if the response should be stored
+     */
+    private boolean isStoringResponse(HttpServletRequest httpRequest) {
+        return responseCache != null && httpRequest.getMethod().equalsIgnoreCase("GET") 
+            && responseCache.isCacheableRequest(httpRequest);
+    }
+
     /**
      * Will create the method and execute it. After this the method
      * is sent to a ResponseHandler that is returned.
      * 
+     * If there is a stale response in the cache a GET is made
+     * conditional using the ETag and Last-Modified of the cached
+     * response. When the server answers 304 the cached response
+     * is refreshed and sent instead.
+     * 
      * @param httpRequest Request we are receiving from the client
+     * @param server The server we are proxying to
      * @param url The location we are proxying to
+     * @param stale A cached response that isn't fresh, can be null
+     * @param flight The flight this request is leading, can be null
      * @return A ResponseHandler that can be used to write the response
      * @throws MethodNotAllowedException If the method specified by the request isn't handled
      * @throws IOException When there is a problem with the streams
      * @throws HttpException The httpclient can throw HttpExcetion when executing the method
      */
-    private ResponseHandler executeRequest(HttpServletRequest httpRequest,
-            String url) throws MethodNotAllowedException, IOException,
+    private ResponseHandler executeRequest(HttpServletRequest httpRequest, Server server,
+            String url, CachedResponse stale, RequestCoalescer.Flight flight) throws MethodNotAllowedException, IOException,
             HttpException {
         RequestHandler requestHandler = RequestHandlerFactory
                 .createRequestMethod(httpRequest.getMethod());
 
         HttpMethod method = requestHandler.process(httpRequest, url);
         method.setFollowRedirects(false);
+        if (server.getSocketTimeout() >= 0) {
+            method.getParams().setSoTimeout(server.getSocketTimeout());
+        }
+        
+        boolean revalidating = stale != null && stale.hasValidator()
+                && httpRequest.getMethod().equalsIgnoreCase("GET");
+        if (revalidating) {
+            setValidators(method, stale);
+        }
 
         /*
          * Why does method.validate() return true when the method has been
@@ -172,7 +436,9 @@ public class ProxyFilter implements Filter {
          * TODO I don't like doing type casting here, see above.
          */
         if (!((HttpMethodBase) method).isAborted()) {
+            long backendStart = System.currentTimeMillis();
             httpClient.executeMethod(method);
+            record("backend", backendStart);
 
             if (method.getStatusCode() == 405) {
                 Header allow = method.getResponseHeader("allow");
@@ -182,8 +448,112 @@ public class ProxyFilter implements Filter {
                                 .processAllowHeader(value));
             }
         }
+        
+        if (revalidating && method.getStatusCode() == HttpServletResponse.SC_NOT_MODIFIED) {
+            log.debug("Cached response for " + url + " revalidated");
+            CachedResponse refreshed = responseCache.refresh(url, stale, method.getResponseHeaders());
+            method.releaseConnection();
+            if (flight != null) {
+                flight.setResponse(refreshed);
+            }
+            return new CachedResponseHandler(refreshed, httpRequest);
+        }
 
-        return ResponseHandlerFactory.createResponseHandler(method);
+        ResponseHandler responseHandler = ResponseHandlerFactory.createResponseHandler(method);
+        if (isStoringResponse(httpRequest)) {
+            responseHandler = new CachingResponseHandler(responseHandler, responseCache, url, httpRequest, flight);
+        }
+        return responseHandler;
+    }
+    
+    /**
+     * Records the time of a phase if metrics are enabled.
+     * 
+     * @param phase The phase
+     * @param start When the phase started
+     */
+    private void record(String phase, long start) {
+        if (metrics != null) {
+            metrics.record(phase, System.currentTimeMillis() - start);
+        }
+    }
+    
+    /**
+     * Records a request to a server, and to its cluster if it's in
+     * one, if metrics are enabled.
+     * 
+     * @param server The server
+     * @param responseTime The response time in milliseconds, -1 if unknown
+     * @param failed true if the request failed
+     */
+    private void recordServer(Server server, long responseTime, boolean failed) {
+        if (metrics != null) {
+            metrics.getServer(server).record(responseTime, failed);
+            LatencyHistogram cluster = metrics.getCluster(server);
+            if (cluster != null) {
+                cluster.record(responseTime, failed);
+            }
+        }
+    }
+    
+    /**
+     * Sets the max number of connections for the server's host the
+     * first time the server is used. Servers without a limit of their
+     * own use the default from the init-params.
+     * 
+     * @param server The server we are proxying to
+     */
+    private void configureConnections(Server server) {
+        if (server.getMaxConnections() <= 0) {
+            return;
+        }
+        synchronized (configuredHosts) {
+            String domainName = server.getDomainName();
+            if (configuredHosts.contains(domainName)) {
+                return;
+            }
+            configuredHosts.add(domainName);
+            
+            String host = domainName;
+            int port = -1;
+            int colon = domainName.lastIndexOf(':');
+            if (colon != -1) {
+                host = domainName.substring(0, colon);
+                port = Integer.parseInt(domainName.substring(colon + 1));
+            }
+            
+            HttpConnectionManagerParams params = httpClient.getHttpConnectionManager().getParams();
+            String[] schemes = server.getScheme() == null ? new String[] {"http", "https"} : new String[] {server.getScheme()};
+            for (int i=0; i < schemes.length; i++) {
+                HostConfiguration hostConfiguration = new HostConfiguration();
+                hostConfiguration.setHost(host, port, schemes[i]);
+                params.setMaxConnectionsPerHost(hostConfiguration, server.getMaxConnections());
+            }
+            log.debug("Max connections to " + domainName + " set to " + server.getMaxConnections());
+        }
+    }
+    
+    /**
+     * Makes the method conditional using the validators of a cached
+     * response. Any conditional headers from the client are replaced,
+     * the client's conditions are checked against the cached response
+     * instead.
+     * 
+     * @param method The method to make conditional
+     * @param cached The cached response
+     */
+    private void setValidators(HttpMethod method, CachedResponse cached) {
+        method.removeRequestHeader("if-none-match");
+        method.removeRequestHeader("if-modified-since");
+        
+        Header etag = cached.getHeader("etag");
+        if (etag != null) {
+            method.setRequestHeader("If-None-Match", etag.getValue());
+        }
+        Header lastModified = cached.getHeader("last-modified");
+        if (lastModified != null) {
+            method.setRequestHeader("If-Modified-Since", lastModified.getValue());
+        }
     }
 
     /**
@@ -195,10 +565,89 @@ public class ProxyFilter implements Filter {
     public void init(FilterConfig filterConfig) throws ServletException {
         log = LogFactory.getLog(ProxyFilter.class);
         AllowedMethodHandler.setAllowedMethods("OPTIONS,GET,HEAD,POST,PUT,DELETE,TRACE");
+        HealthCheckScheduler.acquire();
+        ProxyIdentity.setHostName(filterConfig.getInitParameter("proxyHostName"));
+        
+        if ("true".equals(filterConfig.getInitParameter("metrics"))) {
+            metrics = new MetricsRegistry(!"false".equals(filterConfig.getInitParameter("metricsJmx")));
+            filterConfig.getServletContext().setAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE, metrics);
+        } else {
+            metrics = null;
+        }
+        
+        MultiThreadedHttpConnectionManager connectionManager;
+        if (metrics != null) {
+            connectionManager = new TimedConnectionManager(metrics);
+        } else {
+            connectionManager = new MultiThreadedHttpConnectionManager();
+        }
+        HttpConnectionManagerParams connectionParams = connectionManager.getParams();
+        connectionParams.setMaxTotalConnections((int) getLongParameter(filterConfig, "maxTotalConnections", 100));
+        connectionParams.setDefaultMaxConnectionsPerHost((int) getLongParameter(filterConfig, "maxConnectionsPerHost", 20));
+        connectionParams.setConnectionTimeout((int) getLongParameter(filterConfig, "connectionTimeout", 0));
+        connectionParams.setSoTimeout((int) getLongParameter(filterConfig, "socketTimeout", 0));
+        connectionParams.setStaleCheckingEnabled(!"false".equals(filterConfig.getInitParameter("staleChecking")));
+        configuredHosts = new HashSet();
         
-        httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
+        long maxWaiting = getLongParameter(filterConfig, "maxWaitingPerHost", -1);
+        if (maxWaiting >= 0) {
+            limiter = new HostRequestLimiter(connectionParams.getDefaultMaxConnectionsPerHost(), (int) maxWaiting);
+        } else {
+            limiter = null;
+        }
+        
+        httpClient = new HttpClient(connectionManager);
         httpClient.getParams().setBooleanParameter(HttpClientParams.USE_EXPECT_CONTINUE, false);
         httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+        httpClient.getParams().setConnectionManagerTimeout(getLongParameter(filterConfig, "connectionManagerTimeout", 10000));
+        
+        long cacheSize = getLongParameter(filterConfig, "cacheSize", 0);
+        if (cacheSize > 0) {
+            int maxEntrySize = (int) getLongParameter(filterConfig, "cacheMaxEntrySize", 1024*1024);
+            responseCache = new ResponseCache(cacheSize, maxEntrySize);
+        } else {
+            responseCache = null;
+        }
+        if (metrics != null) {
+            metrics.setCache(responseCache);
+        }
+        
+        if ("true".equals(filterConfig.getInitParameter("compression"))) {
+            String types = filterConfig.getInitParameter("compressionTypes");
+            String[] compressionTypes = ResponseCompressor.DEFAULT_TYPES;
+            if (types != null) {
+                StringTokenizer tokenizer = new StringTokenizer(types, ",");
+                compressionTypes = new String[tokenizer.countTokens()];
+                for (int i=0; i < compressionTypes.length; i++) {
+                    compressionTypes[i] = tokenizer.nextToken();
+                }
+            }
+            compressor = new ResponseCompressor(compressionTypes,
+                    (int) getLongParameter(filterConfig, "compressionMinSize", 1024),
+                    (int) getLongParameter(filterConfig, "compressionLevel", Deflater.DEFAULT_COMPRESSION));
+            filterConfig.getServletContext().setAttribute(ResponseCompressor.CONTEXT_ATTRIBUTE, compressor);
+        } else {
+            compressor = null;
+        }
+        if (metrics != null) {
+            metrics.setCompressor(compressor);
+        }
+        
+        BufferPool.setBufferSize((int) getLongParameter(filterConfig, "bufferSize", BufferPool.DEFAULT_SIZE));
+        
+        long requestBuffer = getLongParameter(filterConfig, "requestBuffer", -1);
+        File tempDir = (File) filterConfig.getServletContext().getAttribute("javax.servlet.context.tempdir");
+        EntityEnclosingRequestHandler.setBuffering((int) requestBuffer, tempDir);
+        
+        long coalesceTimeout = getLongParameter(filterConfig, "coalesceTimeout", 0);
+        if (responseCache != null && coalesceTimeout > 0) {
+            coalescer = new RequestCoalescer(coalesceTimeout);
+        } else {
+            coalescer = null;
+        }
+        if (metrics != null) {
+            metrics.setCoalescer(coalescer);
+        }
         
         String data = filterConfig.getInitParameter("dataUrl");
         if (data == null) {
@@ -214,6 +663,28 @@ public class ProxyFilter implements Filter {
         }
     }
 
+    /**
+     * Reads a number from the init-params.
+     * 
+     * @param filterConfig The config
+     * @param name Name of the init-param
+     * @param defaultValue Value used if the init-param isn't set
+     * @return The value
+     * @throws ServletException If the init-param isn't a number
+     */
+    private long getLongParameter(FilterConfig filterConfig, String name, long defaultValue) throws ServletException {
+        String value = filterConfig.getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        } else {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("The init-param " + name + " has to be a number.", e);
+            }
+        }
+    }
+
     /**
      * Called when this filter is destroyed.
      * Releases the fields.
@@ -222,7 +693,22 @@ public class ProxyFilter implements Filter {
      */
     public void destroy() {
         log = null;
+        if (httpClient != null) {
+            ((MultiThreadedHttpConnectionManager) httpClient.getHttpConnectionManager()).shutdown();
+        }
+        HealthCheckScheduler.release();
+        if (compressor != null) {
+            compressor.destroy();
+        }
+        if (metrics != null) {
+            metrics.unregister();
+        }
         httpClient = null;
+        responseCache = null;
+        coalescer = null;
+        compressor = null;
+        limiter = null;
+        metrics = null;
         serverChain = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The name this proxy uses for itself in the Via and
+ * X-Forwarded-Server headers. The name is looked up once, when the
+ * ProxyFilter is initialized, instead of for every request since the
+ * lookup can block on a slow resolver. The name can also be set in
+ * the config so no lookup is made at all.
+ * 
+ * The Via values for HTTP/1.0 and HTTP/1.1 are built when the name
+ * is set, so they don't have to be built for each request.
+ *
+ * @author Anders Nyman
+ */
+public class ProxyIdentity {
+    
+    /** 
+     * The name used if the host name can't be found.
+     */
+    public static final String DEFAULT_NAME = "jEasyExtensibleProxy";
+    
+    /** 
+     * The name, its Via values and the host name it was looked up
+     * from are kept in one object so they are always changed together.
+     */
+    private static volatile Identity identity;
+    
+    /**
+     * Sets the name of the proxy.
+     * 
+     * @param hostName The name, null to look up the name of the local host
+     */
+    public static void setHostName(String hostName) {
+        if (hostName == null || hostName.trim().length() == 0) {
+            identity = new Identity(lookupHostName());
+        } else {
+            identity = new Identity(hostName.trim());
+        }
+    }
+    
+    /**
+     * Returns the name of the proxy. If no name has been set the
+     * name of the local host is looked up the first time.
+     * 
+     * @return The name
+     */
+    public static String getHostName() {
+        return getIdentity().hostName;
+    }
+    
+    /**
+     * Returns the value this proxy adds to the Via header.
+     * 
+     * @param protocol The protocol of the message, e.g. HTTP/1.1
+     * @return The protocol followed by the name
+     */
+    public static String getVia(String protocol) {
+        Identity current = getIdentity();
+        if ("HTTP/1.1".equals(protocol)) {
+            return current.via11;
+        } else if ("HTTP/1.0".equals(protocol)) {
+            return current.via10;
+        } else {
+            return protocol + " " + current.hostName;
+        }
+    }
+    
+    /**
+     * Returns the identity, looking up the name if it hasn't
+     * been set.
+     * 
+     * @return The identity
+     */
+    private static Identity getIdentity() {
+        Identity current = identity;
+        if (current == null) {
+            current = new Identity(lookupHostName());
+            identity = current;
+        }
+        return current;
+    }
+    
+    /**
+     * Looks up the name of the local host.
+     * 
+     * @return The name, DEFAULT_NAME if the name can't be found
+     */
+    private static String lookupHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            LogFactory.getLog(ProxyIdentity.class).error("Couldn't get the hostname needed for headers x-forwarded-server and Via", e);
+            return DEFAULT_NAME;
+        }
+    }
+    
+    /**
+     * A name with the Via values built from it.
+     */
+    private static class Identity {
+        
+        /** 
+         * The name of the proxy.
+         */
+        private String hostName;
+        
+        /** 
+         * The Via value added to HTTP/1.0 requests.
+         */
+        private String via10;
+        
+        /** 
+         * The Via value added to HTTP/1.1 requests.
+         */
+        private String via11;
+        
+        /**
+         * Builds the Via values.
+         * 
+         * @param hostName The name
+         */
+        public Identity(String hostName) {
+            this.hostName = hostName;
+            via10 = "HTTP/1.0 " + hostName;
+            via11 = "HTTP/1.1 " + hostName;
+        }
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.j2ep.requesthandlers.RequestHandlerBase;
+
+/**
+ * Compresses responses for clients accepting gzip or deflate.
+ * Responses are compressed when the content type is one of the
+ * configured types, the response isn't already encoded and the
+ * body is at least the min size. The body is compressed while it's
+ * written, only the first bytes are held back until it's known if
+ * the body reaches the min size.
+ * 
+ * The deflaters are kept in a pool and reused, the pool is emptied
+ * by destroy. Statistics on the bytes saved are kept for each
+ * content type.
+ *
+ * @author Anders Nyman
+ */
+public class ResponseCompressor {
+    
+    /** 
+     * The servlet context attribute the compressor of the
+     * ProxyFilter is stored in.
+     */
+    public static final String CONTEXT_ATTRIBUTE = "net.sf.j2ep.compressor";
+    
+    /** 
+     * The request attribute set when the response is compressed
+     * by a filter in front of the ProxyFilter.
+     */
+    public static final String REQUEST_ATTRIBUTE = "net.sf.j2ep.compressing";
+    
+    /** 
+     * The content types compressed by default.
+     */
+    public static final String[] DEFAULT_TYPES = {"text/html", "text/plain", "text/css", "text/xml",
+        "text/javascript", "application/javascript", "application/x-javascript", "application/json",
+        "application/xml", "application/xhtml+xml"};
+    
+    /** 
+     * The max number of idle deflaters kept of each kind.
+     */
+    private static final int MAX_IDLE = 32;
+    
+    /** 
+     * The content types compressed, in lower case.
+     */
+    private String[] types;
+    
+    /** 
+     * The min size of the bodies compressed, in bytes.
+     */
+    private int minSize;
+    
+    /** 
+     * The compression level.
+     */
+    private int level;
+    
+    /** 
+     * Idle deflaters writing raw data, used for gzip.
+     */
+    private LinkedList gzipDeflaters;
+    
+    /** 
+     * Idle deflaters writing zlib data, used for deflate.
+     */
+    private LinkedList zlibDeflaters;
+    
+    /** 
+     * The statistics, keyed on content type.
+     */
+    private HashMap statistics;
+    
+    /** 
+     * Set when the compressor is destroyed, deflaters released
+     * after that are ended.
+     */
+    private volatile boolean destroyed;
+    
+    /**
+     * Creates a compressor.
+     * 
+     * @param types The content types to compress, a type ending with /* matches all subtypes
+     * @param minSize The min size of the bodies compressed, in bytes
+     * @param level The compression level, see java.util.zip.Deflater
+     */
+    public ResponseCompressor(String[] types, int minSize, int level) {
+        this.types = new String[types.length];
+        for (int i=0; i < types.length; i++) {
+            this.types[i] = types[i].trim().toLowerCase();
+        }
+        this.minSize = minSize;
+        this.level = level;
+        gzipDeflaters = new LinkedList();
+        zlibDeflaters = new LinkedList();
+        statistics = new HashMap();
+    }
+    
+    /**
+     * Wraps the response so that the body is compressed if the
+     * client accepts it. Responses are wrapped even if the client
+     * doesn't accept compression since the Vary header is needed
+     * for the responses that could have been compressed.
+     * 
+     * @param request The request from the client
+     * @param response The response to wrap
+     * @return The wrapped response
+     */
+    public CompressingResponseWrapper wrap(HttpServletRequest request, HttpServletResponse response) {
+        String accepted = RequestHandlerBase.getAcceptEncoding(request);
+        String coding = null;
+        if (accepted.startsWith("gzip")) {
+            coding = "gzip";
+        } else if (accepted.startsWith("deflate")) {
+            coding = "deflate";
+        }
+        return new CompressingResponseWrapper(response, this, coding);
+    }
+    
+    /**
+     * Checks if a content type is compressed.
+     * 
+     * @param contentType The Content-Type header, can be null
+     * @return true if the content type is compressed
+     */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = getMediaType(contentType);
+        for (int i=0; i < types.length; i++) {
+            if (type.equals(types[i])
+                    || (types[i].endsWith("/*") && type.startsWith(types[i].substring(0, types[i].length() - 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Returns the min size of the bodies compressed.
+     * 
+     * @return The size in bytes
+     */
+    public int getMinSize() {
+        return minSize;
+    }
+    
+    /**
+     * Takes a deflater from the pool, a new one is created if
+     * the pool is empty.
+     * 
+     * @param gzip true for a deflater writing raw data for gzip, false for zlib data
+     * @return The deflater
+     */
+    Deflater getDeflater(boolean gzip) {
+        LinkedList pool = gzip ? gzipDeflaters : zlibDeflaters;
+        synchronized (pool) {
+            if (!pool.isEmpty()) {
+                return (Deflater) pool.removeLast();
+            }
+        }
+        return new Deflater(level, gzip);
+    }
+    
+    /**
+     * Returns a deflater to the pool. The deflater is reset, or
+     * ended if the pool is full.
+     * 
+     * @param deflater The deflater
+     * @param gzip true if the deflater is writing raw data for gzip
+     */
+    void releaseDeflater(Deflater deflater, boolean gzip) {
+        LinkedList pool = gzip ? gzipDeflaters : zlibDeflaters;
+        deflater.reset();
+        synchronized (pool) {
+            if (!destroyed && pool.size() < MAX_IDLE) {
+                pool.addLast(deflater);
+                return;
+            }
+        }
+        deflater.end();
+    }
+    
+    /**
+     * Ends the idle deflaters, freeing their native memory.
+     * Deflaters still in use are ended when they are released.
+     */
+    public void destroy() {
+        destroyed = true;
+        endAll(gzipDeflaters);
+        endAll(zlibDeflaters);
+    }
+    
+    /**
+     * Ends the deflaters in a pool.
+     * 
+     * @param pool The pool
+     */
+    private void endAll(LinkedList pool) {
+        synchronized (pool) {
+            while (!pool.isEmpty()) {
+                ((Deflater) pool.removeFirst()).end();
+            }
+        }
+    }
+    
+    /**
+     * Adds a compressed response to the statistics.
+     * 
+     * @param contentType The Content-Type header of the response
+     * @param bytesIn The size of the body before it was compressed
+     * @param bytesOut The size of the compressed body
+     */
+    void count(String contentType, long bytesIn, long bytesOut) {
+        String type = getMediaType(contentType);
+        Statistics counters;
+        synchronized (statistics) {
+            counters = (Statistics) statistics.get(type);
+            if (counters == null) {
+                counters = new Statistics();
+                statistics.put(type, counters);
+            }
+        }
+        counters.add(bytesIn, bytesOut);
+    }
+    
+    /**
+     * Returns the statistics for a content type.
+     * 
+     * @param contentType The content type, without parameters
+     * @return The statistics, null if no response of the type has been compressed
+     */
+    public Statistics getStatistics(String contentType) {
+        synchronized (statistics) {
+            return (Statistics) statistics.get(contentType.toLowerCase());
+        }
+    }
+    
+    /**
+     * Returns the statistics for all content types compressed.
+     * 
+     * @return A map from content type to Statistics
+     */
+    public Map getStatistics() {
+        synchronized (statistics) {
+            return new HashMap(statistics);
+        }
+    }
+    
+    /**
+     * Removes the parameters from a content type.
+     * 
+     * @param contentType The Content-Type header
+     * @return The media type in lower case
+     */
+    private String getMediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        if (semicolon != -1) {
+            contentType = contentType.substring(0, semicolon);
+        }
+        return contentType.trim().toLowerCase();
+    }
+    
+    /**
+     * Counters for the responses of one content type.
+     */
+    public static class Statistics {
+        
+        /** 
+         * The number of responses compressed.
+         */
+        private long responses;
+        
+        /** 
+         * The bytes before compression.
+         */
+        private long bytesIn;
+        
+        /** 
+         * The bytes after compression.
+         */
+        private long bytesOut;
+        
+        /**
+         * Adds a response.
+         * 
+         * @param in The size before compression
+         * @param out The size after compression
+         */
+        private synchronized void add(long in, long out) {
+            responses++;
+            bytesIn += in;
+            bytesOut += out;
+        }
+        
+        /**
+         * @return The number of responses compressed
+         */
+        public synchronized long getResponses() {
+            return responses;
+        }
+        
+        /**
+         * @return The bytes before compression
+         */
+        public synchronized long getBytesIn() {
+            return bytesIn;
+        }
+        
+        /**
+         * @return The bytes after compression
+         */
+        public synchronized long getBytesOut() {
+            return bytesOut;
+        }
+        
+        /**
+         * @return The bytes saved by compressing
+         */
+        public synchronized long getBytesSaved() {
+            return bytesIn - bytesOut;
+        }
+    }
+}
@@ -18,12 +18,15 @@ package net.sf.j2ep;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.StringTokenizer;
+import java.util.zip.Deflater;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.sf.j2ep.model.Server;
+import net.sf.j2ep.servers.HealthCheckScheduler;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,6 +36,11 @@ import org.apache.commons.logging.LogFactory;
  * and use it to rewrite any incoming request to
  * get the server targeted. Responses sent back
  * are also rewritten.
+ * 
+ * If the ProxyFilter compresses responses they are
+ * compressed here, after they are rewritten, instead
+ * of being compressed by the ProxyFilter and then
+ * decompressed again to be rewritten.
  *
  * @author Anders Nyman
  */
@@ -47,6 +55,22 @@ public class RewriteFilter implements Filter {
      * The server chain, will be traversed to find a matching server.
      */
     private ServerChain serverChain;
+    
+    /** 
+     * The level used when compressing rewritten content.
+     */
+    private int compressionLevel;
+    
+    /** 
+     * Parts of the content types that are rewritten.
+     */
+    private String[] rewriteTypes;
+    
+    /** 
+     * The servlet context, where the compressor is found if the
+     * ProxyFilter has enabled compression.
+     */
+    private ServletContext servletContext;
 
 
     /**
@@ -79,13 +103,28 @@ public class RewriteFilter implements Filter {
             } else {
                 httpRequest.setAttribute("proxyServer", server);
                 
-                String ownHostName = request.getServerName() + ":" + request.getServerPort();
-                UrlRewritingResponseWrapper wrappedResponse;
-                wrappedResponse = new UrlRewritingResponseWrapper(httpResponse, server, ownHostName, httpRequest.getContextPath(), serverChain);
+                ResponseCompressor compressor = (ResponseCompressor) servletContext.getAttribute(ResponseCompressor.CONTEXT_ATTRIBUTE);
+                CompressingResponseWrapper compressingResponse = null;
+                if (compressor != null) {
+                    compressingResponse = compressor.wrap(httpRequest, httpResponse);
+                    httpResponse = compressingResponse;
+                    httpRequest.setAttribute(ResponseCompressor.REQUEST_ATTRIBUTE, Boolean.TRUE);
+                }
                 
-                filterChain.doFilter(httpRequest, wrappedResponse);
+                try {
+                    String ownHostName = request.getServerName() + ":" + request.getServerPort();
+                    UrlRewritingResponseWrapper wrappedResponse;
+                    wrappedResponse = new UrlRewritingResponseWrapper(httpResponse, server, ownHostName, httpRequest.getContextPath(), serverChain,
+                            compressionLevel, rewriteTypes);
+                    
+                    filterChain.doFilter(httpRequest, wrappedResponse);
 
-                wrappedResponse.processStream();
+                    wrappedResponse.processStream();
+                } finally {
+                    if (compressingResponse != null) {
+                        compressingResponse.release();
+                    }
+                }
             }
         }
     }
@@ -99,6 +138,26 @@ public class RewriteFilter implements Filter {
      */
     public void init(FilterConfig filterConfig) throws ServletException {
         log = LogFactory.getLog(RewriteFilter.class);
+        servletContext = filterConfig.getServletContext();
+        HealthCheckScheduler.acquire();
+        
+        String level = filterConfig.getInitParameter("compressionLevel");
+        try {
+            compressionLevel = level == null ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(level.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("The init-param compressionLevel has to be a number.", e);
+        }
+        
+        String types = filterConfig.getInitParameter("rewriteTypes");
+        if (types == null) {
+            rewriteTypes = UrlRewritingResponseWrapper.DEFAULT_REWRITE_TYPES;
+        } else {
+            StringTokenizer tokenizer = new StringTokenizer(types, ",");
+            rewriteTypes = new String[tokenizer.countTokens()];
+            for (int i=0; i < rewriteTypes.length; i++) {
+                rewriteTypes[i] = tokenizer.nextToken().trim().toLowerCase();
+            }
+        }
         
         String data = filterConfig.getInitParameter("dataUrl");
         if (data == null) {
@@ -122,7 +181,9 @@ public class RewriteFilter implements Filter {
      */
     public void destroy() {
         log = null;
+        HealthCheckScheduler.release();
         serverChain = null;
+        servletContext = null;
     }
     
     
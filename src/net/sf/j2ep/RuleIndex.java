@@ -0,0 +1,136 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.j2ep.model.Rule;
+import net.sf.j2ep.model.ServerContainer;
+import net.sf.j2ep.rules.DirectoryRule;
+import net.sf.j2ep.rules.RewriteRule;
+
+/**
+ * An index over the rules of a list of server containers, used to find
+ * the first container whose rule matches a request without asking every
+ * rule.
+ *
+ * DirectoryRules are put in a tree with one level for each directory in
+ * the path. RewriteRules that match a single URI are put in a hash map.
+ * All other rules are kept in a list and asked one by one. Every container
+ * remembers its position in the list so the first matching container is
+ * always the one returned, just like when the list is traversed.
+ *
+ * Only the indexed rules are found in constant time. The rules in the
+ * list, such as RewriteRules with a regular expression, are still asked
+ * one by one for every request, so their cost grows linearly with their
+ * number.
+ *
+ * @author Anders Nyman
+ */
+class RuleIndex {
+
+    /**
+     * Containers with a DirectoryRule, keyed on the directory.
+     */
+    private PathTree directories;
+
+    /**
+     * Containers with a RewriteRule matching a single URI,
+     * keyed on the URI.
+     */
+    private HashMap exactMatches;
+
+    /**
+     * Containers with rules that can't be indexed, in order.
+     */
+    private PathTree.Entry[] others;
+
+    /**
+     * Builds the index.
+     *
+     * @param containers The server containers, in the order they are evaluated
+     */
+    public RuleIndex(List containers) {
+        directories = new PathTree();
+        exactMatches = new HashMap();
+        List otherList = new ArrayList();
+
+        for (int i=0; i < containers.size(); i++) {
+            ServerContainer container = (ServerContainer) containers.get(i);
+            PathTree.Entry entry = new PathTree.Entry(i, container);
+            Rule rule = container.getRule();
+
+            if (rule != null && rule.getClass() == DirectoryRule.class) {
+                directories.add(((DirectoryRule) rule).getDirectory(), entry);
+            } else if (rule != null && rule.getClass() == RewriteRule.class
+                    && ((RewriteRule) rule).getExactMatch() != null) {
+                String uri = ((RewriteRule) rule).getExactMatch();
+                if (!exactMatches.containsKey(uri)) {
+                    exactMatches.put(uri, entry);
+                }
+            } else {
+                otherList.add(entry);
+            }
+        }
+        others = (PathTree.Entry[]) otherList.toArray(new PathTree.Entry[otherList.size()]);
+    }
+
+    /**
+     * Finds the first container with a rule matching the request.
+     *
+     * @param request The request
+     * @return The container, null if no rule matches
+     */
+    public ServerContainer evaluate(HttpServletRequest request) {
+        PathTree.Entry match = directories.find(request.getServletPath(), 0);
+
+        if (!exactMatches.isEmpty()) {
+            match = PathTree.first(match, (PathTree.Entry) exactMatches.get(getURI(request)));
+        }
+
+        for (int i=0; i < others.length; i++) {
+            PathTree.Entry entry = others[i];
+            if (match != null && match.getPosition() < entry.getPosition()) {
+                break;
+            } else if (((ServerContainer) entry.getValue()).getRule().matches(request)) {
+                match = entry;
+                break;
+            }
+        }
+
+        return match == null ? null : (ServerContainer) match.getValue();
+    }
+
+    /**
+     * Builds the URI used by RewriteRule, the request URI without
+     * the context path and with the query string.
+     *
+     * @param request The request
+     * @return The URI
+     */
+    private String getURI(HttpServletRequest request) {
+        String uri = request.getRequestURI().substring(request.getContextPath().length());
+        if (request.getQueryString() != null) {
+            uri += "?" + request.getQueryString();
+        }
+        return uri;
+    }
+}
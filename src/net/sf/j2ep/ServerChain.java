@@ -16,11 +16,14 @@
 
 package net.sf.j2ep;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
 
+import net.sf.j2ep.model.MappingVersion;
 import net.sf.j2ep.model.Rule;
 import net.sf.j2ep.model.Server;
 import net.sf.j2ep.model.ServerContainer;
@@ -35,6 +38,10 @@ import net.sf.j2ep.model.ServerContainer;
  * This is only a slightly modified version of the 
  * RuleChain used with the balancer webapp shipped 
  * with tomcat.
+ * 
+ * The rules and mappings are looked up in indexes. The indexes are
+ * rebuilt when a server is added to the chain and when a rule or a
+ * mapping is changed, see MappingVersion.
  *
  * @author Anders Nyman, Yoav Shapira
  */
@@ -44,22 +51,40 @@ public class ServerChain{
      * The list of servers to evaluate.
      */
     private List serverContainers;
+    
+    /**
+     * Index over the rules, used to find the first matching server.
+     */
+    private volatile RuleIndex ruleIndex;
+    
+    /**
+     * Index over the servers' mappings, used to find the server for a link.
+     */
+    private volatile MappingIndex mappingIndex;
+    
+    /**
+     * The MappingVersion the indexes were built from.
+     */
+    private volatile long indexedVersion;
 
     /**
-     * Constructor.
+     * Constructor. The servers are copied, later changes to the
+     * list aren't seen by the chain.
      */
     public ServerChain(List serverContainers) {
-        this.serverContainers = serverContainers;
+        this.serverContainers = new ArrayList(serverContainers);
+        buildIndexes();
     }
 
     /**
      * Returns the list of servers
-     * to evaluate.
+     * to evaluate. The list can't be changed,
+     * servers are added with addServer.
      *
      * @return The servers
      */
     protected List getServers() {
-        return serverContainers;
+        return Collections.unmodifiableList(serverContainers);
     }
 
     /**
@@ -77,11 +102,36 @@ public class ServerChain{
      *
      * @param theServer The server to add
      */
-    public void addServer(Server theServer) {
+    public synchronized void addServer(Server theServer) {
         if (theServer == null) {
             throw new IllegalArgumentException("The rule cannot be null.");
         } else {
-            getServers().add(theServer);
+            serverContainers.add(theServer);
+            buildIndexes();
+        }
+    }
+    
+    /**
+     * Builds the indexes from the servers.
+     */
+    private synchronized void buildIndexes() {
+        long version = MappingVersion.get();
+        ruleIndex = new RuleIndex(serverContainers);
+        mappingIndex = new MappingIndex(serverContainers);
+        indexedVersion = version;
+    }
+    
+    /**
+     * Rebuilds the indexes if a rule or a mapping has changed
+     * since they were built.
+     */
+    private void checkIndexes() {
+        if (indexedVersion != MappingVersion.get()) {
+            synchronized (this) {
+                if (indexedVersion != MappingVersion.get()) {
+                    buildIndexes();
+                }
+            }
         }
     }
 
@@ -89,23 +139,19 @@ public class ServerChain{
      * Evaluates the given request to see if
      * any of the rules matches.  Returns the
      * the server linked to the first matching rule.
+     * Directory rules and rewrite rules matching a single
+     * URI are looked up in an index, all other rules are
+     * checked one by one, see RuleIndex.
      *
      * @param request The request
      * @return The first matching server, null if no rule matched the request
      * @see Rule#matches(HttpServletRequest)
      */
     public Server evaluate(HttpServletRequest request) {
-        Iterator itr = getServerIterator();
-        ServerContainer currentContainer = null;
-        boolean currentMatches = false;
-
-        while (itr.hasNext() && !currentMatches) {
-            currentContainer = (ServerContainer) itr.next();
-            currentMatches = currentContainer.getRule().matches(request);
-        }
-        
-        if (currentMatches) {
-            return currentContainer.getServer(request);
+        checkIndexes();
+        ServerContainer container = ruleIndex.evaluate(request);
+        if (container != null) {
+            return container.getServer(request);
         } else {
             return null;
         }
@@ -121,17 +167,8 @@ public class ServerChain{
      * @see ServerContainer#getServerMapped(String)
      */
     public Server getServerMapped(String location) {
-        Iterator itr = getServerIterator();
-        Server match = null;
-
-        while (itr.hasNext() && match == null) {
-            ServerContainer container = (ServerContainer) itr.next();
-            Server next = container.getServerMapped(location);
-            if (next != null) {
-                match = next;
-            }
-        }
-        return match;
+        checkIndexes();
+        return mappingIndex.find(location);
     }
 
     /**
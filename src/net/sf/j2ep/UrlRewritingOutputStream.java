@@ -16,10 +16,9 @@
 
 package net.sf.j2ep;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 
 import javax.servlet.ServletOutputStream;
 
@@ -30,22 +29,76 @@ import org.apache.commons.logging.LogFactory;
 
 /**
  * A wrapper for the default output stream. This class will
- * make sure all data being sent is cached by the stream and
- * can rewrite all the links.
+ * rewrite all the links found in the data being sent.
+ * 
+ * The data is handled in a streaming fashion, the stream only
+ * keeps a window of the page in memory. Everything before the 
+ * window is rewritten and sent to the original stream as soon
+ * as the window is filled. This way the memory used for each
+ * request is bounded no matter how large the page is and the
+ * client gets the first bytes before the whole page is received.
+ * 
+ * Links are found by a LinkScanner working directly on the bytes,
+ * this works for all charsets encoding ASCII as single bytes. The
+ * parts of the page that isn't rewritten are sent byte for byte. 
+ * Pages using other charsets, such as UTF-16, are sent without 
+ * being rewritten.
  *
  * @author Anders Nyman
  */
 public final class UrlRewritingOutputStream extends ServletOutputStream {
     
+    /** 
+     * The longest link we can guarantee to find. A link that is 
+     * longer than this might be split by the window and will then
+     * be sent without being rewritten.
+     */
+    private static final int MAX_LINK_LENGTH = 4096;
+    
+    /** 
+     * The size of the window, when this many bytes are buffered 
+     * the buffer will be processed.
+     */
+    private static final int WINDOW_SIZE = 4 * MAX_LINK_LENGTH;
+    
+    /** 
+     * The encoding used when no charset is specified.
+     */
+    private static final String DEFAULT_ENCODING = "ISO-8859-1";
+    
+    /** 
+     * Characters that have to be encoded as single ASCII bytes 
+     * for the LinkScanner to work with a charset.
+     */
+    private static final String SCANNED_CHARACTERS = "hrefsrcactionurlHREFSRCACTIONURL=(\"'/:<>_09";
+    
     /** 
      * The stream we are wrapping, is the original response stream.
      */
-    private ServletOutputStream originalStream;
+    private OutputStream originalStream;
+    
+    /** 
+     * Buffer for the part of the page not yet sent to the client.
+     */
+    private byte[] buffer;
     
     /** 
-     * Stream that is written to, works as a buffer for the response stream.
+     * Number of bytes in the buffer.
      */
-    private ByteArrayOutputStream stream;
+    private int count;
+    
+    /** 
+     * The position in the buffer where the unprocessed data 
+     * starts. Any data before this position is already sent
+     * and is only kept so links can be checked for word boundaries.
+     */
+    private int unprocessed;
+    
+    /** 
+     * The position in the buffer where the next search for links
+     * starts, this is after the last link found.
+     */
+    private int searchStart;
     
     /** 
      * The server, needed when we rewrite absolute links.
@@ -61,11 +114,26 @@ public final class UrlRewritingOutputStream extends ServletOutputStream {
      * The servers.
      */
     private ServerChain serverChain;
+    
+    /** 
+     * The server that we are using for this request.
+     */
+    private Server server;
 
     /** 
-     * Regex matching links in the HTML.
+     * The charset of the page.
      */
-    private static Pattern linkPattern = Pattern.compile("\\b(href=|src=|action=|url\\()([\"\'])(([^/]+://)([^/<>]+))?([^\"\'>]*)[\"\']", Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ);
+    private String encoding;
+    
+    /** 
+     * Marks if the charset can be handled by the scanner.
+     */
+    private boolean isScannable;
+    
+    /** 
+     * The scanner used to find links.
+     */
+    private LinkScanner scanner;
 
     /** 
      * Logging element supplied by commons-logging.
@@ -76,141 +144,219 @@ public final class UrlRewritingOutputStream extends ServletOutputStream {
      * Basic constructor.
      * 
      * @param originalStream The stream we are wrapping
+     * @param ownHostName The host name links are rewritten to
+     * @param contextPath The context path links are rewritten to
+     * @param serverChain The servers, used to find absolute links
+     * @param server The server that we are using for this request
      */
-    public UrlRewritingOutputStream(ServletOutputStream originalStream, String ownHostName, String contextPath, ServerChain serverChain) {
+    public UrlRewritingOutputStream(OutputStream originalStream, String ownHostName, String contextPath, ServerChain serverChain, Server server) {
         this.originalStream = originalStream;
         this.ownHostName = ownHostName;
         this.contextPath = contextPath;
         this.serverChain = serverChain;
+        this.server = server;
         log = LogFactory.getLog(UrlRewritingOutputStream.class);  
         
-        stream = new ByteArrayOutputStream();
+        scanner = new LinkScanner();
+        setEncoding(null);
+        buffer = new byte[WINDOW_SIZE + MAX_LINK_LENGTH];
+        count = 0;
+        unprocessed = 0;
+        searchStart = 0;
+    }
+
+    /**
+     * Sets the charset of the page, this is the charset specified
+     * in the Content-Type header. If the charset isn't encoding 
+     * ASCII as single bytes no rewriting will be done.
+     * 
+     * @param charset The charset, null if no charset is specified
+     */
+    public void setEncoding(String charset) {
+        if (charset == null) {
+            encoding = DEFAULT_ENCODING;
+            isScannable = true;
+        } else {
+            try {
+                byte[] encoded = SCANNED_CHARACTERS.getBytes(charset);
+                encoding = charset;
+                isScannable = new String(encoded, DEFAULT_ENCODING).equals(SCANNED_CHARACTERS);
+            } catch (UnsupportedEncodingException e) {
+                log.debug("Unknown charset " + charset + ", will use " + DEFAULT_ENCODING);
+                encoding = DEFAULT_ENCODING;
+                isScannable = true;
+            }
+        }
+        
+        if (!isScannable) {
+            log.debug("Links can't be rewritten for charset " + charset);
+        }
     }
 
     /**
      * @see java.io.OutputStream#write(int)
      */
     public void write(int b) throws IOException {
-        stream.write(b);        
+        if (count == buffer.length) {
+            process(false);
+        }
+        buffer[count++] = (byte) b;
     }
     
     /**
+     * Adds the data to the window, the window is processed
+     * every time it gets full.
+     * 
      * @see java.io.OutputStream#write(byte[], int, int)
      */
     public void write(byte[] b, int off, int len) throws IOException {
-        stream.write(b, off, len);
+        while (len > 0) {
+            if (count == buffer.length) {
+                process(false);
+            }
+            int length = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, length);
+            count += length;
+            off += length;
+            len -= length;
+        }
     }
     
     /**
      * @see java.io.OutputStream#write(byte[])
      */
     public void write(byte[] b) throws IOException {
-        stream.write(b);
+        write(b, 0, b.length);
+    }
+    
+    /**
+     * Sends all the data that can be processed without
+     * knowing the rest of the page to the client.
+     * 
+     * @see java.io.OutputStream#flush()
+     */
+    public void flush() throws IOException {
+        process(false);
+        originalStream.flush();
     }
     
     /**
-     * Processes the stream looking for links, all links
-     * found are rewritten. After this the stream is written
+     * Processes the rest of the stream looking for links, all 
+     * links found are rewritten. After this the stream is written
      * to the response.
      * 
-     * @param server The server that we are using for this request.
      * @throws IOException Is thrown when there is a problem with the streams
      */
-    public void rewrite(Server server) throws IOException {
-        /*
-         * Using regex can be quite harsh sometimes so here is how
-         * the regex trying to find links works
-         * 
-         * \\b(href=|src=|action=|url\\()([\"\'])
-         * This part is the identification of links, matching
-         * something like href=", href=' and href=
-         * 
-         * (([^/]+://)([^/<>]+))?
-         * This is to identify absolute paths. A link doesn't have
-         * to be absolute therefor there is a ?.
-         * 
-         * ([^\"\'>]*)
-         * This is the link
-         * 
-         * [\"\']
-         * Ending " or '
-         * 
-         * $1 - link type, e.g. href=
-         * $2 - ", ' or whitespace
-         * $3 - The entire http://www.server.com if present
-         * $4 - The protocol, e.g http:// or ftp:// 
-         * $5 - The host name, e.g. www.server.com
-         * $6 - The link
-         */
-        StringBuffer page = new StringBuffer();
+    public void rewrite() throws IOException {
+        process(true);
+    }
+    
+    /**
+     * Processes the window looking for links, all links found are 
+     * rewritten and the data is written to the original stream. 
+     * Unless this is the end of the page the last part of the window
+     * is kept since it might contain the start of a link. 
+     * 
+     * @param finished Marks that there is no more data coming
+     * @throws IOException Is thrown when there is a problem with the streams
+     */
+    private void process(boolean finished) throws IOException {
+        int limit = finished ? count : count - MAX_LINK_LENGTH;
+        if (limit <= unprocessed) {
+            return;
+        }
         
-        Matcher matcher = linkPattern.matcher(stream.toString());
-        while (matcher.find()) {          
-           
-           String link = matcher.group(6).replaceAll("\\$", "\\\\\\$");
-           if (link.length() == 0) {
-               link = "/";
-           }
-            
-           String rewritten = null;
-           if (matcher.group(4) != null) { 
-               rewritten = handleExternalLink(matcher, link);
-           } else if (link.startsWith("/")) {
-               rewritten = handleLocalLink(server, matcher, link);
-           }
-           
-           if (rewritten != null) {
-               if (log.isDebugEnabled()) {
-                   log.debug("Found link " + link + " >> " + rewritten);
-               }
-               matcher.appendReplacement(page, rewritten); 
-           }
+        int written = unprocessed;
+        if (isScannable) {
+            int from = Math.max(unprocessed, searchStart);
+            while (scanner.find(buffer, from, limit, count)) {
+                String link = new String(buffer, scanner.linkStart(), scanner.linkEnd() - scanner.linkStart(), encoding);
+                if (link.length() == 0) {
+                    link = "/";
+                }
+                
+                String rewritten = null;
+                int prefixEnd = 0;
+                if (scanner.isAbsolute()) { 
+                    rewritten = handleExternalLink(link);
+                    prefixEnd = scanner.hostStart();
+                } else if (link.startsWith("/")) {
+                    rewritten = handleLocalLink(link);
+                    prefixEnd = scanner.quote() + 1;
+                }
+                
+                if (rewritten != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Found link " + link + " >> " + rewritten);
+                    }
+                    originalStream.write(buffer, written, prefixEnd - written);
+                    originalStream.write(rewritten.getBytes(encoding));
+                    originalStream.write(buffer[scanner.quote()]);
+                    written = scanner.end();
+                }
+                from = scanner.end();
+            }
+            searchStart = from;
         }
         
-        matcher.appendTail(page);
-        originalStream.print(page.toString());        
+        int end = Math.max(written, limit);
+        originalStream.write(buffer, written, end - written);
+        compact(end);
+    }
+    
+    /**
+     * Removes the data before the position from the buffer. The 
+     * last byte before the position is kept so that the next
+     * search can see if a link starts on a word boundary.
+     * 
+     * @param position The position up to where all the data is sent
+     */
+    private void compact(int position) {
+        int keep = position > 0 ? position - 1 : 0;
+        System.arraycopy(buffer, keep, buffer, 0, count - keep);
+        count -= keep;
+        unprocessed = position - keep;
+        searchStart = Math.max(0, searchStart - keep);
     }
     
     
     /**
      * Rewrites a absolute path starting with a protocol e.g.
      * http://www.server.com/index.html
+     * The protocol and type of link is kept as it is, only the 
+     * host name and the link is returned.
      * 
-     * @param matcher The matcher used for this link
      * @param link The part of the link after the domain name 
-     * @return The link now rewritten
+     * @return The host name and link now rewritten, null if no server is mapped to the link
+     * @throws UnsupportedEncodingException Is thrown if the charset isn't supported
      */
-    private String handleExternalLink(Matcher matcher, String link) {
-        String location = matcher.group(5) + link;
-           Server matchingServer = serverChain.getServerMapped(location);
+    private String handleExternalLink(String link) throws UnsupportedEncodingException {
+        String host = new String(buffer, scanner.hostStart(), scanner.linkStart() - scanner.hostStart(), encoding);
+        String location = host + link;
+        Server matchingServer = serverChain.getServerMapped(location);
            
-           if (matchingServer != null) {
-               link = link.substring(matchingServer.getPath().length()); 
-               link = matchingServer.getRule().revert(link);
-               String type = matcher.group(1);
-               String separator = matcher.group(2);
-               String protocol = matcher.group(4);
-               return type+separator+protocol+ ownHostName + contextPath + link + separator;
-           } else {
-               return null;
-           }
+        if (matchingServer != null) {
+            link = link.substring(matchingServer.getPath().length()); 
+            link = matchingServer.getRule().revert(link);
+            return ownHostName + contextPath + link;
+        } else {
+            return null;
+        }
     }
 
     /**
+     * Rewrites a link starting with /, the type of link is
+     * kept as it is and only the link is returned.
      * 
-     * @param server The current server we are using for this page
-     * @param matcher The matcher used for this link
      * @param link The original link
-     * @return The rewritten link
+     * @return The rewritten link, null if the link isn't handled by the server
      */
-    private String handleLocalLink(Server server, Matcher matcher, String link) {
+    private String handleLocalLink(String link) {
         String serverDir = server.getPath();
 
         if (serverDir.equals("") || link.startsWith(serverDir + "/")) {
             link = server.getRule().revert(link.substring(serverDir.length()));
-            String type = matcher.group(1);
-            String separator = matcher.group(2);
-            return type + separator + contextPath + link + separator;
+            return contextPath + link;
         } else {
             return null;
         }
@@ -218,10 +364,14 @@ public final class UrlRewritingOutputStream extends ServletOutputStream {
 
 
     /**
+     * Releases the buffer, any data not yet processed is lost.
+     * 
      * @see java.io.Closeable#close()
      */
     public void close() throws IOException {
-        stream.close();
+        count = 0;
+        unprocessed = 0;
+        searchStart = 0;
     }
 
 }
@@ -17,9 +17,13 @@
 package net.sf.j2ep;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
@@ -38,6 +42,10 @@ import org.apache.commons.logging.LogFactory;
  * 
  * This class also handles rewriting of the headers Location
  * and Set-Cookie.
+ * 
+ * Compressed content that isn't rewritten is sent on as it is.
+ * Compressed content that is rewritten is decompressed as it's
+ * written, rewritten and compressed again with the same coding.
  *
  * @author Anders Nyman
  */
@@ -58,6 +66,43 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      */
     private PrintWriter originalWriter;
     
+    /** 
+     * Stream decompressing compressed content before it's rewritten,
+     * null if the content isn't compressed.
+     */
+    private InflatingOutputStream decompressor;
+    
+    /** 
+     * Stream compressing the rewritten content, null if the
+     * content isn't compressed.
+     */
+    private DeflaterOutputStream compressor;
+    
+    /** 
+     * The deflater used by the compressor.
+     */
+    private Deflater deflater;
+    
+    /** 
+     * The Content-Encoding header, in lower case.
+     */
+    private String contentEncoding;
+    
+    /** 
+     * The level used when compressing rewritten content.
+     */
+    private int compressionLevel;
+    
+    /** 
+     * Parts of the content types that are rewritten, in lower case.
+     */
+    private String[] rewriteTypes;
+    
+    /** 
+     * The content types rewritten by default.
+     */
+    public static final String[] DEFAULT_REWRITE_TYPES = {"html", "css", "javascript"};
+    
     /** 
      * Server used for this page
      */
@@ -88,6 +133,11 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      */
     private static Pattern pathAndDomainPattern = Pattern.compile("\\b(path=|domain=)([^;\\s]+);?", Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ);
 
+    /** 
+     * Regex to find the charset in the Content-Type header.
+     */
+    private static Pattern charsetPattern = Pattern.compile("\\bcharset=[\"']?([^;\"'\\s]+)", Pattern.CASE_INSENSITIVE);
+
     /** 
      * Logging element supplied by commons-logging.
      */
@@ -102,15 +152,30 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      * @throws IOException When there is a problem with the streams
      */
     public UrlRewritingResponseWrapper(HttpServletResponse response, Server server, String ownHostName, String contextPath, ServerChain serverChain) throws IOException {
+        this(response, server, ownHostName, contextPath, serverChain, Deflater.DEFAULT_COMPRESSION, DEFAULT_REWRITE_TYPES);
+    }
+    
+    /**
+     * Constructor also setting how content is rewritten.
+     * 
+     * @param response The response we are wrapping
+     * @param server The server that was matched
+     * @param ownHostName String we are rewriting servers to
+     * @param compressionLevel The level used when compressing rewritten content
+     * @param rewriteTypes Parts of the content types that are rewritten, e.g. "html"
+     * @throws IOException When there is a problem with the streams
+     */
+    public UrlRewritingResponseWrapper(HttpServletResponse response, Server server, String ownHostName, String contextPath, ServerChain serverChain,
+            int compressionLevel, String[] rewriteTypes) throws IOException {
         super(response);
         this.server = server;
         this.ownHostName = ownHostName;
         this.contextPath = contextPath;
         this.serverChain = serverChain;
+        this.compressionLevel = compressionLevel;
+        this.rewriteTypes = rewriteTypes;
         
         log = LogFactory.getLog(UrlRewritingResponseWrapper.class);        
-        outStream = new UrlRewritingOutputStream(response.getOutputStream(), ownHostName, contextPath, serverChain);
-        outWriter = new PrintWriter(outStream);
         originalWriter = new PrintWriter(response.getOutputStream());
     }
     
@@ -122,7 +187,10 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      */
     public void addHeader(String name, String originalValue) {
         String value;
-        if (name.equalsIgnoreCase("location")) {
+        if (name.equalsIgnoreCase("content-encoding")) {
+            contentEncoding = originalValue.trim().toLowerCase();
+            value = originalValue;
+        } else if (name.equalsIgnoreCase("location")) {
             value = rewriteLocation(originalValue);
         } else if (name.equalsIgnoreCase("set-cookie")) {
             value = rewriteSetCookie(originalValue);
@@ -140,7 +208,10 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      */
     public void setHeader(String name, String originalValue) {
         String value;
-        if (name.equalsIgnoreCase("location")) {
+        if (name.equalsIgnoreCase("content-encoding")) {
+            contentEncoding = originalValue.trim().toLowerCase();
+            value = originalValue;
+        } else if (name.equalsIgnoreCase("location")) {
             value = rewriteLocation(originalValue);
         } else if (name.equalsIgnoreCase("set-cookie")) {
             value = rewriteSetCookie(originalValue);
@@ -211,13 +282,19 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
     /**
      * Based on the value in the content-type header we either
      * return the default stream or our own stream that can rewrite
-     * links.
+     * links. If the content is compressed our stream will decompress
+     * it before it's rewritten.
      * 
      * @see javax.servlet.ServletResponse#getOutputStream()
      */
     public ServletOutputStream getOutputStream() throws IOException {
-        if (getContentType() != null && shouldRewrite(getContentType())) {
-            return outStream;
+        if (shouldRewrite()) {
+            createStreams();
+            if (decompressor != null) {
+                return decompressor;
+            } else {
+                return outStream;
+            }
         } else {
             return super.getOutputStream();
         }
@@ -231,7 +308,8 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
      * @see javax.servlet.ServletResponse#getWriter()
      */
     public PrintWriter getWriter() throws IOException {
-        if (getContentType() != null && shouldRewrite(getContentType())) {
+        if (shouldRewrite()) {
+            createStreams();
             return outWriter;
         } else {
             return originalWriter;
@@ -239,33 +317,134 @@ public final class UrlRewritingResponseWrapper extends HttpServletResponseWrappe
     }
     
     /**
-     * Rewrites the output stream to change any links. Also closes all the 
-     * streams and writers. We need the user to flush and close the streams himself
+     * Rewrites the rest of the output stream to change any links, most of
+     * the stream is already rewritten and sent while it was written. Also 
+     * closes all the streams and writers. We need the user to flush and close the streams himself
      * as usual but we can't be sure that the writers created are used by the client
      * and therefor we close them here.
      * 
      * @throws IOException Is thrown when there is a problem with the streams
      */
     public void processStream() throws IOException {
-        if (getContentType() != null && shouldRewrite(getContentType())) {
-            outStream.rewrite(server);
+        if (outStream != null) {
+            outWriter.flush();
+            outStream.rewrite();
+            if (compressor != null) {
+                compressor.finish();
+                deflater.end();
+            }
+            if (decompressor != null) {
+                decompressor.close();
+            }
         }
         super.getOutputStream().flush();
         super.getOutputStream().close();
-        outStream.close();
         originalWriter.close();
-        outWriter.close();
+        if (outStream != null) {
+            outStream.close();
+            outWriter.close();
+        }
+    }
+    
+    /**
+     * Creates the streams used when the content is rewritten. If
+     * the content is compressed with gzip or deflate the rewritten
+     * content is compressed again with the same coding.
+     * 
+     * @throws IOException Is thrown when there is a problem with the streams
+     */
+    private void createStreams() throws IOException {
+        if (outStream != null) {
+            return;
+        }
+        
+        OutputStream target = super.getOutputStream();
+        boolean gzip = "gzip".equals(contentEncoding) || "x-gzip".equals(contentEncoding);
+        if (gzip) {
+            LevelGZIPOutputStream gzipStream = new LevelGZIPOutputStream(target, compressionLevel);
+            deflater = gzipStream.getDeflater();
+            compressor = gzipStream;
+            target = compressor;
+        } else if ("deflate".equals(contentEncoding)) {
+            deflater = new Deflater(compressionLevel);
+            compressor = new DeflaterOutputStream(target, deflater, BufferPool.getBufferSize());
+            target = compressor;
+        }
+        
+        outStream = new UrlRewritingOutputStream(target, ownHostName, contextPath, serverChain, server);
+        outStream.setEncoding(getCharset(getContentType()));
+        outWriter = new PrintWriter(outStream);
+        if (compressor != null) {
+            decompressor = new InflatingOutputStream(outStream, gzip);
+        }
     }
     
     /**
      * Checks the contentType to evaluate if we should do 
-     * link rewriting for this content.
+     * link rewriting for this content. Content compressed with
+     * a coding we can't decompress isn't rewritten.
      * 
-     * @param contentType The Content-Type header
      * @return true if we need to rewrite links, false otherwise
      */
-    private boolean shouldRewrite(String contentType) {
+    private boolean shouldRewrite() {
+        String contentType = getContentType();
+        if (contentType == null) {
+            return false;
+        } else if (contentEncoding != null && !contentEncoding.equals("identity")
+                && !contentEncoding.equals("gzip") && !contentEncoding.equals("x-gzip")
+                && !contentEncoding.equals("deflate")) {
+            return false;
+        }
+        
         String lowerCased = contentType.toLowerCase();
-        return (lowerCased.indexOf("html")>-1 || lowerCased.indexOf("css")>-1 || lowerCased.indexOf("javascript")>-1);
+        for (int i=0; i < rewriteTypes.length; i++) {
+            if (lowerCased.indexOf(rewriteTypes[i]) > -1) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Finds the charset specified in the Content-Type header.
+     * 
+     * @param contentType The Content-Type header
+     * @return The charset, null if no charset is specified
+     */
+    private String getCharset(String contentType) {
+        Matcher matcher = charsetPattern.matcher(contentType);
+        if (matcher.find()) {
+            return matcher.group(1);
+        } else {
+            return null;
+        }
+    }
+    
+    /**
+     * A gzip stream compressing with a chosen level.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        
+        /**
+         * Basic constructor.
+         * 
+         * @param out The stream to write to
+         * @param level The compression level
+         * @throws IOException If the gzip header can't be written
+         */
+        public LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BufferPool.getBufferSize());
+            def.setLevel(level);
+        }
+        
+        /**
+         * Returns the deflater, it has to be ended when the
+         * stream is finished.
+         * 
+         * @return The deflater
+         */
+        public Deflater getDeflater() {
+            return def;
+        }
     }
 }
@@ -0,0 +1,404 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import net.sf.j2ep.requesthandlers.RequestHandlerBase;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * A response stored in the cache. Holds the status code, the
+ * headers and the body as they were sent to the client the first
+ * time so that they can be sent again.
+ *
+ * @author Anders Nyman
+ */
+public class CachedResponse {
+
+    /**
+     * The status code.
+     */
+    private int statusCode;
+
+    /**
+     * The headers.
+     */
+    private Header[] headers;
+
+    /**
+     * The body.
+     */
+    private byte[] body;
+
+    /**
+     * The time the response was received, in milliseconds.
+     */
+    private long responseTime;
+
+    /**
+     * The time this response stops being fresh, in milliseconds.
+     */
+    private long expires;
+
+    /**
+     * The request headers named in the Vary header.
+     */
+    private String[] varyNames;
+
+    /**
+     * The normalized values the request headers in varyNames had
+     * for the request creating this response.
+     */
+    private String[] varyValues;
+
+    /**
+     * Basic constructor.
+     *
+     * @param statusCode The status code
+     * @param headers The headers
+     * @param body The body
+     * @param responseTime The time the response was received
+     * @param expires The time the response stops being fresh
+     * @param varyNames The request headers this response varies on
+     * @param request The request that created the response
+     */
+    public CachedResponse(int statusCode, Header[] headers, byte[] body, long responseTime, long expires, String[] varyNames, HttpServletRequest request) {
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+        this.responseTime = responseTime;
+        this.expires = expires;
+        this.varyNames = varyNames;
+
+        varyValues = new String[varyNames.length];
+        for (int i=0; i < varyNames.length; i++) {
+            varyValues[i] = getVaryValue(request, varyNames[i]);
+        }
+    }
+
+    /**
+     * Returns the value of a request header named in a Vary header,
+     * normalized so that requests the server can't tell apart get
+     * the same value. Accept-Encoding is replaced by the codings we
+     * send to the server, other headers have the spaces around the
+     * commas removed.
+     *
+     * @param request The request
+     * @param name The name of the header, in lower case
+     * @return The value, null if the request doesn't have the header
+     */
+    public static String getVaryValue(HttpServletRequest request, String name) {
+        if (name.equals("accept-encoding")) {
+            return RequestHandlerBase.getAcceptEncoding(request);
+        }
+        String value = request.getHeader(name);
+        if (value == null) {
+            return null;
+        }
+        StringBuffer normalized = new StringBuffer(value.length());
+        StringTokenizer tokenizer = new StringTokenizer(value, ",");
+        while (tokenizer.hasMoreTokens()) {
+            if (normalized.length() > 0) {
+                normalized.append(',');
+            }
+            normalized.append(tokenizer.nextToken().trim());
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Constructor used when a response is refreshed, the body
+     * and the Vary values are kept from the old response.
+     *
+     * @param old The response being refreshed
+     * @param headers The new headers
+     * @param responseTime The time the new headers were received
+     * @param expires The time the response stops being fresh
+     */
+    private CachedResponse(CachedResponse old, Header[] headers, long responseTime, long expires) {
+        this.statusCode = old.statusCode;
+        this.headers = headers;
+        this.body = old.body;
+        this.responseTime = responseTime;
+        this.expires = expires;
+        this.varyNames = old.varyNames;
+        this.varyValues = old.varyValues;
+    }
+
+    /**
+     * Merges the stored headers with the headers from a 304 response.
+     * Headers present in the 304 response replace the stored headers
+     * with the same name, the other stored headers are kept.
+     *
+     * @param updated The headers from the 304 response
+     * @return The merged headers
+     */
+    public Header[] mergeHeaders(Header[] updated) {
+        List merged = new ArrayList();
+        for (int i=0; i < headers.length; i++) {
+            if (!isUpdated(headers[i].getName(), updated)) {
+                merged.add(headers[i]);
+            }
+        }
+        for (int i=0; i < updated.length; i++) {
+            if (isUpdateAllowed(updated[i].getName())) {
+                merged.add(updated[i]);
+            }
+        }
+        return (Header[]) merged.toArray(new Header[merged.size()]);
+    }
+
+    /**
+     * Creates a copy of this response with new headers and
+     * freshness, the body is shared with this response.
+     *
+     * @param headers The new headers
+     * @param now The time the new headers were received
+     * @param expires The time the copy stops being fresh
+     * @return The refreshed response
+     */
+    public CachedResponse refresh(Header[] headers, long now, long expires) {
+        return new CachedResponse(this, headers, now, expires);
+    }
+
+    /**
+     * Checks if a stored header is replaced by the headers
+     * from a 304 response.
+     *
+     * @param name The name of the stored header
+     * @param updated The headers from the 304 response
+     * @return true if the stored header should be replaced
+     */
+    private boolean isUpdated(String name, Header[] updated) {
+        if (!isUpdateAllowed(name)) {
+            return false;
+        }
+        for (int i=0; i < updated.length; i++) {
+            if (updated[i].getName().equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a header from a 304 response may be stored. Headers
+     * describing the connection or the body are never taken from
+     * a 304 response.
+     *
+     * @param name The header name
+     * @return true if the header can be used
+     */
+    private boolean isUpdateAllowed(String name) {
+        String lowerName = name.toLowerCase();
+        return !lowerName.equals("content-length") && !lowerName.equals("transfer-encoding")
+                && !lowerName.equals("content-encoding") && !lowerName.equals("connection")
+                && !lowerName.equals("keep-alive") && !lowerName.equals("via")
+                && !lowerName.equals("age");
+    }
+
+    /**
+     * Checks if this response has an ETag or a Last-Modified
+     * header that can be used to revalidate it with the server.
+     *
+     * @return true if the response has a validator
+     */
+    public boolean hasValidator() {
+        return getHeader("etag") != null || getHeader("last-modified") != null;
+    }
+
+    /**
+     * Checks the conditional headers If-None-Match and If-Modified-Since
+     * sent by the client. If the client already has this response
+     * a 304 can be sent instead of the body. If-Modified-Since is
+     * only used when there is no If-None-Match header.
+     *
+     * @param request The request
+     * @return true if the client's copy is still valid
+     */
+    public boolean isNotModified(HttpServletRequest request) {
+        String ifNoneMatch = request.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            Header etag = getHeader("etag");
+            return etag != null && matchesEntityTag(ifNoneMatch, etag.getValue());
+        }
+
+        String ifModifiedSince = request.getHeader("if-modified-since");
+        Header lastModified = getHeader("last-modified");
+        if (ifModifiedSince != null && lastModified != null) {
+            try {
+                long since = DateUtil.parseDate(ifModifiedSince).getTime();
+                long modified = DateUtil.parseDate(lastModified.getValue()).getTime();
+                return modified <= since;
+            } catch (DateParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if an entity tag is in a list like the one in
+     * If-None-Match. Weak comparison is used, a W/ prefix
+     * is ignored.
+     *
+     * @param list The list of entity tags, or *
+     * @param tag The entity tag
+     * @return true if the tag is in the list
+     */
+    private boolean matchesEntityTag(String list, String tag) {
+        String opaqueTag = stripWeak(tag.trim());
+        StringTokenizer tokenizer = new StringTokenizer(list, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            if (token.equals("*") || stripWeak(token).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the weak indicator W/ from an entity tag.
+     *
+     * @param tag The entity tag
+     * @return The tag without W/
+     */
+    private String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    /**
+     * Checks if the response can be sent without asking
+     * the server.
+     *
+     * @param now The current time
+     * @return true if the response is fresh
+     */
+    public boolean isFresh(long now) {
+        return now < expires;
+    }
+
+    /**
+     * Checks that the headers named in the Vary header have the
+     * same values as they had for the request creating this response.
+     *
+     * @param request The request
+     * @return true if this response can be used for the request
+     */
+    public boolean matches(HttpServletRequest request) {
+        for (int i=0; i < varyNames.length; i++) {
+            String value = getVaryValue(request, varyNames[i]);
+            if (value == null ? varyValues[i] != null : !value.equals(varyValues[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the request headers named in the Vary header.
+     *
+     * @return The names, in lower case
+     */
+    public String[] getVaryNames() {
+        return varyNames;
+    }
+
+    /**
+     * Returns the normalized values the headers in the Vary header
+     * had for the request creating this response.
+     *
+     * @return The values, in the order of getVaryNames
+     */
+    public String[] getVaryValues() {
+        return varyValues;
+    }
+
+    /**
+     * Returns the first header with the name.
+     *
+     * @param name The header name
+     * @return The header, null if there is no such header
+     */
+    public Header getHeader(String name) {
+        for (int i=0; i < headers.length; i++) {
+            if (headers[i].getName().equalsIgnoreCase(name)) {
+                return headers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns an estimate of the memory used by this response.
+     *
+     * @return The size in bytes
+     */
+    public int getSize() {
+        int size = body.length + 64;
+        for (int i=0; i < headers.length; i++) {
+            size += 2 * (headers[i].getName().length() + headers[i].getValue().length()) + 32;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the age of this response in seconds.
+     *
+     * @param now The current time
+     * @return The age
+     */
+    public long getAge(long now) {
+        return Math.max(0, (now - responseTime) / 1000);
+    }
+
+    /**
+     * Returns the status code.
+     *
+     * @return The status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the headers.
+     *
+     * @return The headers
+     */
+    public Header[] getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the body.
+     *
+     * @return The body
+     */
+    public byte[] getBody() {
+        return body;
+    }
+}
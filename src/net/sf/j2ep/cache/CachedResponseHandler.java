@@ -0,0 +1,137 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.j2ep.model.ResponseHandler;
+
+import org.apache.commons.httpclient.Header;
+
+/**
+ * A ResponseHandler sending a response from the cache. Is
+ * used for both GET and HEAD, for HEAD no body is sent. If
+ * the client already has a valid copy of the response a 304
+ * is sent instead.
+ *
+ * @author Anders Nyman
+ */
+public class CachedResponseHandler implements ResponseHandler {
+
+    /**
+     * The response we are sending.
+     */
+    private CachedResponse cached;
+
+    /**
+     * Marks if the body should be sent.
+     */
+    private boolean sendBody;
+
+    /**
+     * Marks if a 304 should be sent.
+     */
+    private boolean notModified;
+
+    /**
+     * Headers that are sent with a 304 response.
+     */
+    private static final String[] NOT_MODIFIED_HEADERS = new String[] {
+        "date", "etag", "last-modified", "expires", "cache-control",
+        "vary", "content-location", "via"
+    };
+
+    /**
+     * Basic constructor.
+     *
+     * @param cached The response from the cache
+     * @param request The request we are answering
+     */
+    public CachedResponseHandler(CachedResponse cached, HttpServletRequest request) {
+        this.cached = cached;
+        notModified = cached.getStatusCode() == HttpServletResponse.SC_OK
+                && cached.isNotModified(request);
+        sendBody = !notModified && !request.getMethod().equalsIgnoreCase("HEAD");
+    }
+
+    /**
+     * Sets the stored headers and status code, then the
+     * body is written. An Age header is added telling how
+     * long the response has been in the cache.
+     *
+     * @see net.sf.j2ep.model.ResponseHandler#process(javax.servlet.http.HttpServletResponse)
+     */
+    public void process(HttpServletResponse response) throws IOException {
+        Header[] headers = cached.getHeaders();
+        for (int i=0; i < headers.length; i++) {
+            if (isSendingHeader(headers[i].getName())) {
+                response.addHeader(headers[i].getName(), headers[i].getValue());
+            }
+        }
+        response.setHeader("Age", String.valueOf(cached.getAge(System.currentTimeMillis())));
+        response.setStatus(getStatusCode());
+
+        if (sendBody) {
+            OutputStream responseStream = response.getOutputStream();
+            responseStream.write(cached.getBody());
+            responseStream.flush();
+            responseStream.close();
+        }
+    }
+
+    /**
+     * Checks if a stored header should be sent. The Age header is
+     * always calculated again and a 304 response only gets the
+     * headers that could have been changed.
+     *
+     * @param name The header name
+     * @return true if the header is sent
+     */
+    private boolean isSendingHeader(String name) {
+        if (name.equalsIgnoreCase("age")) {
+            return false;
+        } else if (notModified) {
+            for (int i=0; i < NOT_MODIFIED_HEADERS.length; i++) {
+                if (NOT_MODIFIED_HEADERS[i].equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /**
+     * @see net.sf.j2ep.model.ResponseHandler#getStatusCode()
+     */
+    public int getStatusCode() {
+        return notModified ? HttpServletResponse.SC_NOT_MODIFIED : cached.getStatusCode();
+    }
+
+    /**
+     * Nothing to release, the response is kept in the cache.
+     *
+     * @see net.sf.j2ep.model.ResponseHandler#close()
+     */
+    public void close() {
+    }
+}
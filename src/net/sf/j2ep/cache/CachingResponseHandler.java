@@ -0,0 +1,114 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.j2ep.model.ResponseHandler;
+
+/**
+ * A ResponseHandler wrapping another handler. The response is
+ * recorded while the wrapped handler is processing it, if the
+ * response can be stored it is put in the cache afterwards. Requests
+ * waiting for the same URL are given the response as well.
+ *
+ * @author Anders Nyman
+ */
+public class CachingResponseHandler implements ResponseHandler {
+
+    /**
+     * The handler we are wrapping.
+     */
+    private ResponseHandler handler;
+
+    /**
+     * The cache to store the response in.
+     */
+    private ResponseCache cache;
+
+    /**
+     * The URL we are proxying to, used as key in the cache.
+     */
+    private String url;
+
+    /**
+     * The request.
+     */
+    private HttpServletRequest request;
+
+    /**
+     * The flight waiting for this response, null if the request
+     * isn't coalesced.
+     */
+    private RequestCoalescer.Flight flight;
+
+    /**
+     * Basic constructor.
+     *
+     * @param handler The handler we are wrapping
+     * @param cache The cache
+     * @param url The URL we are proxying to
+     * @param request The request
+     * @param flight The flight we are leading, can be null
+     */
+    public CachingResponseHandler(ResponseHandler handler, ResponseCache cache, String url, HttpServletRequest request, RequestCoalescer.Flight flight) {
+        this.handler = handler;
+        this.cache = cache;
+        this.url = url;
+        this.request = request;
+        this.flight = flight;
+    }
+
+    /**
+     * Lets the wrapped handler process the response while the
+     * response is recorded. The recorded response is then stored.
+     *
+     * @see net.sf.j2ep.model.ResponseHandler#process(javax.servlet.http.HttpServletResponse)
+     */
+    public void process(HttpServletResponse response) throws IOException {
+        RecordingResponseWrapper recorder = new RecordingResponseWrapper(response, cache.getMaxEntrySize());
+        handler.process(recorder);
+
+        byte[] body = recorder.getBody();
+        if (body != null) {
+            CachedResponse cached = cache.createSharedResponse(request, recorder.getStatusCode(), recorder.getHeaders(), body);
+            if (cached != null) {
+                if (flight != null) {
+                    flight.setResponse(cached);
+                }
+                cache.put(url, cached);
+            }
+        }
+    }
+
+    /**
+     * @see net.sf.j2ep.model.ResponseHandler#getStatusCode()
+     */
+    public int getStatusCode() {
+        return handler.getStatusCode();
+    }
+
+    /**
+     * @see net.sf.j2ep.model.ResponseHandler#close()
+     */
+    public void close() {
+        handler.close();
+    }
+}
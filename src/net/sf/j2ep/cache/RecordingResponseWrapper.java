@@ -0,0 +1,304 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.util.DateUtil;
+
+/**
+ * A wrapper that records the status code, headers and body being
+ * sent to the client. The response is still sent to the client as
+ * usual, the recording is only a copy.
+ *
+ * The body is only recorded up to a max size, if the body is larger
+ * the recording is stopped.
+ *
+ * @author Anders Nyman
+ */
+public class RecordingResponseWrapper extends HttpServletResponseWrapper {
+
+    /**
+     * The status code.
+     */
+    private int statusCode;
+
+    /**
+     * The headers, a list of Header.
+     */
+    private List headers;
+
+    /**
+     * The recorded body.
+     */
+    private ByteArrayOutputStream body;
+
+    /**
+     * The max size of the body.
+     */
+    private int maxSize;
+
+    /**
+     * Marks if we are still recording.
+     */
+    private boolean recording;
+
+    /**
+     * The stream that both sends and records the body.
+     */
+    private RecordingOutputStream outStream;
+
+    /**
+     * Basic constructor.
+     *
+     * @param response The response we are wrapping
+     * @param maxSize The max size of the body
+     */
+    public RecordingResponseWrapper(HttpServletResponse response, int maxSize) {
+        super(response);
+        this.maxSize = maxSize;
+        statusCode = SC_OK;
+        headers = new ArrayList();
+        body = new ByteArrayOutputStream();
+        recording = true;
+    }
+
+    /**
+     * Returns the recorded status code.
+     *
+     * @return The status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the recorded headers.
+     *
+     * @return A list of Header
+     */
+    public List getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Returns the recorded body.
+     *
+     * @return The body, null if the whole body couldn't be recorded
+     */
+    public byte[] getBody() {
+        return recording ? body.toByteArray() : null;
+    }
+
+    /**
+     * Stops the recording, nothing more will be recorded
+     * and getBody will return null.
+     */
+    public void stopRecording() {
+        recording = false;
+        body = null;
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setStatus(int)
+     */
+    public void setStatus(int sc) {
+        statusCode = sc;
+        super.setStatus(sc);
+    }
+
+    /**
+     * Stops the recording, an error page shouldn't be stored.
+     *
+     * @see javax.servlet.http.HttpServletResponse#sendError(int)
+     */
+    public void sendError(int sc) throws IOException {
+        stopRecording();
+        super.sendError(sc);
+    }
+
+    /**
+     * Stops the recording, an error page shouldn't be stored.
+     *
+     * @see javax.servlet.http.HttpServletResponse#sendError(int, java.lang.String)
+     */
+    public void sendError(int sc, String msg) throws IOException {
+        stopRecording();
+        super.sendError(sc, msg);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#addHeader(java.lang.String, java.lang.String)
+     */
+    public void addHeader(String name, String value) {
+        headers.add(new Header(name, value));
+        super.addHeader(name, value);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setHeader(java.lang.String, java.lang.String)
+     */
+    public void setHeader(String name, String value) {
+        removeHeaders(name);
+        headers.add(new Header(name, value));
+        super.setHeader(name, value);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#addIntHeader(java.lang.String, int)
+     */
+    public void addIntHeader(String name, int value) {
+        headers.add(new Header(name, String.valueOf(value)));
+        super.addIntHeader(name, value);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setIntHeader(java.lang.String, int)
+     */
+    public void setIntHeader(String name, int value) {
+        removeHeaders(name);
+        headers.add(new Header(name, String.valueOf(value)));
+        super.setIntHeader(name, value);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#addDateHeader(java.lang.String, long)
+     */
+    public void addDateHeader(String name, long date) {
+        headers.add(new Header(name, DateUtil.formatDate(new Date(date))));
+        super.addDateHeader(name, date);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponse#setDateHeader(java.lang.String, long)
+     */
+    public void setDateHeader(String name, long date) {
+        removeHeaders(name);
+        headers.add(new Header(name, DateUtil.formatDate(new Date(date))));
+        super.setDateHeader(name, date);
+    }
+
+    /**
+     * @see javax.servlet.ServletResponse#setContentType(java.lang.String)
+     */
+    public void setContentType(String type) {
+        removeHeaders("Content-Type");
+        headers.add(new Header("Content-Type", type));
+        super.setContentType(type);
+    }
+
+    /**
+     * Removes all recorded headers with the name.
+     *
+     * @param name The header name
+     */
+    private void removeHeaders(String name) {
+        Iterator itr = headers.iterator();
+        while (itr.hasNext()) {
+            Header header = (Header) itr.next();
+            if (header.getName().equalsIgnoreCase(name)) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns a stream that will send the data to the client
+     * and record it.
+     *
+     * @see javax.servlet.ServletResponse#getOutputStream()
+     */
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outStream == null) {
+            outStream = new RecordingOutputStream(super.getOutputStream());
+        }
+        return outStream;
+    }
+
+    /**
+     * A stream writing to both the original stream and to the
+     * recorded body.
+     */
+    private class RecordingOutputStream extends ServletOutputStream {
+
+        /**
+         * The stream we are wrapping.
+         */
+        private ServletOutputStream originalStream;
+
+        /**
+         * Basic constructor.
+         *
+         * @param originalStream The stream we are wrapping
+         */
+        public RecordingOutputStream(ServletOutputStream originalStream) {
+            this.originalStream = originalStream;
+        }
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        public void write(int b) throws IOException {
+            originalStream.write(b);
+            if (recording) {
+                if (body.size() < maxSize) {
+                    body.write(b);
+                } else {
+                    stopRecording();
+                }
+            }
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        public void write(byte[] b, int off, int len) throws IOException {
+            originalStream.write(b, off, len);
+            if (recording) {
+                if (body.size() + len <= maxSize) {
+                    body.write(b, off, len);
+                } else {
+                    stopRecording();
+                }
+            }
+        }
+
+        /**
+         * @see java.io.OutputStream#flush()
+         */
+        public void flush() throws IOException {
+            originalStream.flush();
+        }
+
+        /**
+         * @see java.io.OutputStream#close()
+         */
+        public void close() throws IOException {
+            originalStream.close();
+        }
+    }
+}
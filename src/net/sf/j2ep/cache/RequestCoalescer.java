@@ -0,0 +1,250 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.util.HashMap;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Collapses concurrent requests for the same URL into a single
+ * request to the server. The first thread asking for a URL becomes
+ * the leader of a flight and makes the request, threads asking for
+ * the same URL while the flight is in progress wait for the leader
+ * and are given its response.
+ *
+ * A waiting thread only gets the leader's response if it could be
+ * stored in a shared cache and the Vary header allows it to be used.
+ * Otherwise, or if the leader fails or takes too long, the thread
+ * has to make its own request.
+ *
+ * The number of requests collapsed is counted and exported by the
+ * MetricsRegistry.
+ *
+ * @author Anders Nyman
+ */
+public class RequestCoalescer implements RequestCoalescerMBean {
+
+    /**
+     * The flights in progress, keyed on URL.
+     */
+    private HashMap flights;
+
+    /**
+     * Max time in milliseconds to wait for a leader.
+     */
+    private long timeout;
+
+    /**
+     * Number of requests made by leaders.
+     */
+    private long leaders;
+
+    /**
+     * Number of requests answered with the response of a leader.
+     */
+    private long collapsed;
+
+    /**
+     * Number of requests that waited but had to make their own request.
+     */
+    private long fallbacks;
+
+    /**
+     * Logging element supplied by commons-logging.
+     */
+    private static Log log = LogFactory.getLog(RequestCoalescer.class);
+
+    /**
+     * Basic constructor.
+     *
+     * @param timeout Max time in milliseconds to wait for a leader
+     */
+    public RequestCoalescer(long timeout) {
+        this.timeout = timeout;
+        flights = new HashMap();
+    }
+
+    /**
+     * Joins the flight for a URL, if there is no flight in progress
+     * a new one is started and the calling thread becomes its leader.
+     * A leader has to call complete when the response is sent.
+     *
+     * @param url The URL we are proxying to
+     * @return The flight
+     */
+    public synchronized Flight join(String url) {
+        Flight flight = (Flight) flights.get(url);
+        if (flight == null) {
+            flight = new Flight(url);
+            flights.put(url, flight);
+            leaders++;
+        }
+        return flight;
+    }
+
+    /**
+     * Waits for the leader of a flight and returns its response.
+     *
+     * @param flight The flight joined
+     * @param request The request we are answering
+     * @return The leader's response, null if it can't be used
+     * @throws InterruptedException If the thread is interrupted while waiting,
+     *          the request should then be answered with an error
+     */
+    public CachedResponse await(Flight flight, HttpServletRequest request) throws InterruptedException {
+        CachedResponse response = flight.await(timeout);
+        if (response != null && response.matches(request)) {
+            synchronized (this) {
+                collapsed++;
+            }
+            return response;
+        } else {
+            log.debug("Could not use the response from the leader for " + flight.url);
+            synchronized (this) {
+                fallbacks++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Ends a flight, the waiting threads are woken up. Should be
+     * called by the leader even if the request failed.
+     *
+     * @param flight The flight
+     */
+    public void complete(Flight flight) {
+        synchronized (this) {
+            flights.remove(flight.url);
+        }
+        flight.finish();
+    }
+
+    /**
+     * Returns the number of requests made by leaders.
+     *
+     * @return The number of leaders
+     */
+    public synchronized long getLeaders() {
+        return leaders;
+    }
+
+    /**
+     * Returns the number of requests answered with the
+     * response of a leader.
+     *
+     * @return The number of collapsed requests
+     */
+    public synchronized long getCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * Returns the number of requests that waited for a leader
+     * but had to make their own request.
+     *
+     * @return The number of fallbacks
+     */
+    public synchronized long getFallbacks() {
+        return fallbacks;
+    }
+
+    /**
+     * A request in progress for a URL.
+     */
+    public static class Flight {
+
+        /**
+         * The URL.
+         */
+        private String url;
+
+        /**
+         * The thread making the request.
+         */
+        private Thread leader;
+
+        /**
+         * The response, set by the leader.
+         */
+        private CachedResponse response;
+
+        /**
+         * Marks if the leader is done.
+         */
+        private boolean finished;
+
+        /**
+         * Basic constructor, the calling thread is the leader.
+         *
+         * @param url The URL
+         */
+        private Flight(String url) {
+            this.url = url;
+            leader = Thread.currentThread();
+            finished = false;
+        }
+
+        /**
+         * Checks if the calling thread is the leader of this flight.
+         *
+         * @return true for the leader
+         */
+        public boolean isLeader() {
+            return leader == Thread.currentThread();
+        }
+
+        /**
+         * Sets the response the waiting threads will get, only
+         * responses that can be stored in a shared cache should be set.
+         *
+         * @param response The response
+         */
+        public synchronized void setResponse(CachedResponse response) {
+            this.response = response;
+        }
+
+        /**
+         * Marks the flight as finished and wakes up the waiting threads.
+         */
+        private synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the flight to finish.
+         *
+         * @param timeout Max time in milliseconds to wait
+         * @return The response, null if there is none
+         * @throws InterruptedException If the thread is interrupted
+         */
+        private synchronized CachedResponse await(long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            long left = timeout;
+            while (!finished && left > 0) {
+                wait(left);
+                left = end - System.currentTimeMillis();
+            }
+            return finished ? response : null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.cache;
+
+/**
+ * The counters of a RequestCoalescer shown through JMX.
+ *
+ * @author Anders Nyman
+ */
+public interface RequestCoalescerMBean {
+    
+    /**
+     * @return The number of requests made by leaders
+     */
+    long getLeaders();
+    
+    /**
+     * @return The number of requests answered with the response of a leader
+     */
+    long getCollapsed();
+    
+    /**
+     * @return The number of requests that waited but had to make their own request
+     */
+    long getFallbacks();
+}
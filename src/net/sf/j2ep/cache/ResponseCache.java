@@ -0,0 +1,541 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An in memory cache for responses. The cache is keyed on the URL
+ * a request is proxied to and follows the rules for a shared cache,
+ * responses marked as private or no-store are never stored. Responses
+ * that are no longer fresh are kept if they can be revalidated.
+ *
+ * A URL can have one variant for each set of values of the request
+ * headers named in its Vary header, so clients accepting gzip and
+ * clients that don't each get their own response. The values are
+ * normalized, see CachedResponse.getVaryValue.
+ *
+ * The size of the cache is limited by a number of bytes, when
+ * the limit is reached the least recently used responses are removed.
+ * The hits, misses and revalidations are counted and exported by the
+ * MetricsRegistry.
+ *
+ * @author Anders Nyman
+ */
+public class ResponseCache implements ResponseCacheMBean {
+
+    /**
+     * The responses keyed on URL and Vary values, in order of access
+     * with the least recently used response first.
+     */
+    private LinkedHashMap responses;
+
+    /**
+     * The Variants of each URL stored.
+     */
+    private HashMap variants;
+
+    /**
+     * The max number of bytes used by the cache.
+     */
+    private long maxSize;
+
+    /**
+     * The max size of a single response.
+     */
+    private int maxEntrySize;
+
+    /**
+     * The number of bytes currently used.
+     */
+    private long size;
+
+    /**
+     * Number of requests finding a fresh response in the cache.
+     */
+    private long hits;
+
+    /**
+     * Number of requests not found in the cache.
+     */
+    private long misses;
+
+    /**
+     * Number of stored responses revalidated with a 304 from the server.
+     */
+    private long revalidations;
+
+    /**
+     * Logging element supplied by commons-logging.
+     */
+    private static Log log = LogFactory.getLog(ResponseCache.class);
+
+    /**
+     * Basic constructor.
+     *
+     * @param maxSize The max number of bytes used by the cache
+     * @param maxEntrySize The max size of a single response
+     */
+    public ResponseCache(long maxSize, int maxEntrySize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = (int) Math.min(maxSize, maxEntrySize);
+        responses = new LinkedHashMap(16, 0.75f, true);
+        variants = new HashMap();
+        size = 0;
+    }
+
+    /**
+     * Finds the response stored for the URL. The response is only
+     * returned if the Vary header allows it to be used for this
+     * request. Responses that are no longer fresh are returned as
+     * well, use CachedResponse.isFresh to check the response.
+     *
+     * @param url The URL we are proxying to
+     * @param request The request
+     * @return The response, null if none is found
+     */
+    public synchronized CachedResponse get(String url, HttpServletRequest request) {
+        Variants urlVariants = (Variants) variants.get(url);
+        CachedResponse response = null;
+        if (urlVariants != null) {
+            String[] values = new String[urlVariants.names.length];
+            for (int i=0; i < values.length; i++) {
+                values[i] = CachedResponse.getVaryValue(request, urlVariants.names[i]);
+            }
+            response = (CachedResponse) responses.get(getKey(url, values));
+        }
+        if (response != null && response.matches(request)) {
+            if (response.isFresh(System.currentTimeMillis())) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return response;
+        } else {
+            misses++;
+            return null;
+        }
+    }
+
+    /**
+     * Stores a response, any previous response for the URL with
+     * the same Vary values is replaced. If the response varies on
+     * other headers than the responses stored for the URL, those
+     * responses are removed. Responses that are neither fresh nor can be
+     * revalidated are ignored. If the cache gets too large the least recently
+     * used responses are removed.
+     *
+     * @param url The URL we are proxying to
+     * @param response The response
+     */
+    public synchronized void put(String url, CachedResponse response) {
+        int entrySize = response.getSize();
+        if (entrySize > maxEntrySize || !isWorthStoring(response)) {
+            return;
+        }
+
+        Variants urlVariants = (Variants) variants.get(url);
+        if (urlVariants != null && !Arrays.equals(urlVariants.names, response.getVaryNames())) {
+            Iterator keys = urlVariants.keys.iterator();
+            while (keys.hasNext()) {
+                CachedResponse old = (CachedResponse) responses.remove(keys.next());
+                size -= old.getSize();
+            }
+            urlVariants = null;
+        }
+        if (urlVariants == null) {
+            urlVariants = new Variants(response.getVaryNames());
+            variants.put(url, urlVariants);
+        }
+
+        String key = getKey(url, response.getVaryValues());
+        CachedResponse old = (CachedResponse) responses.put(key, response);
+        if (old != null) {
+            size -= old.getSize();
+        } else {
+            urlVariants.keys.add(key);
+        }
+        size += entrySize;
+
+        Iterator itr = responses.entrySet().iterator();
+        while (size > maxSize && itr.hasNext()) {
+            Map.Entry eldest = (Map.Entry) itr.next();
+            String eldestKey = (String) eldest.getKey();
+            String eldestUrl = eldestKey.substring(0, eldestKey.indexOf('\n'));
+            Variants eldestVariants = (Variants) variants.get(eldestUrl);
+            eldestVariants.keys.remove(eldestKey);
+            if (eldestVariants.keys.isEmpty()) {
+                variants.remove(eldestUrl);
+            }
+            size -= ((CachedResponse) eldest.getValue()).getSize();
+            itr.remove();
+        }
+        log.debug("Stored " + url + " in cache, cache size is " + size);
+    }
+
+    /**
+     * Makes the key a variant is stored with.
+     *
+     * @param url The URL
+     * @param values The normalized values of the headers in the Vary header
+     * @return The key
+     */
+    private String getKey(String url, String[] values) {
+        StringBuffer key = new StringBuffer(url);
+        key.append('\n');
+        for (int i=0; i < values.length; i++) {
+            if (values[i] != null) {
+                key.append('=').append(values[i]);
+            }
+            key.append('\n');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Checks if the request is allowed to be answered by the cache.
+     * Requests with authorization and requests asking for an
+     * end-to-end reload are sent to the server.
+     *
+     * @param request The request
+     * @return true if the cache can be used
+     */
+    public boolean isCacheableRequest(HttpServletRequest request) {
+        String method = request.getMethod();
+        if (!method.equalsIgnoreCase("GET") && !method.equalsIgnoreCase("HEAD")) {
+            return false;
+        } else if (request.getHeader("authorization") != null) {
+            return false;
+        } else {
+            String cacheControl = request.getHeader("cache-control");
+            String pragma = request.getHeader("pragma");
+            return !hasDirective(cacheControl, "no-cache")
+                    && !hasDirective(cacheControl, "no-store")
+                    && !hasDirective(pragma, "no-cache");
+        }
+    }
+
+    /**
+     * Creates a response that can be stored in the cache. Will check
+     * that the headers allows the response to be stored in a shared
+     * cache and find out for how long the response is fresh. A response
+     * that isn't fresh is still stored if it has an ETag or Last-Modified
+     * header, it can then be revalidated with a conditional GET.
+     *
+     * @param request The request
+     * @param statusCode The status code
+     * @param headers The headers, a list of Header
+     * @param body The body
+     * @return The response, null if the response can't be stored
+     */
+    public CachedResponse createResponse(HttpServletRequest request, int statusCode, List headers, byte[] body) {
+        CachedResponse response = createSharedResponse(request, statusCode, headers, body);
+        if (response != null && isWorthStoring(response)) {
+            return response;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Creates a response that is allowed to be shared between clients.
+     * Unlike createResponse the response is created even if it will
+     * never be fresh, it can still be given to other requests made at
+     * the same time.
+     *
+     * @param request The request
+     * @param statusCode The status code
+     * @param headers The headers, a list of Header
+     * @param body The body
+     * @return The response, null if the response can't be shared
+     */
+    public CachedResponse createSharedResponse(HttpServletRequest request, int statusCode, List headers, byte[] body) {
+        Header[] headerArray = (Header[]) headers.toArray(new Header[headers.size()]);
+        long now = System.currentTimeMillis();
+        if (!isStorable(statusCode, headerArray) || !request.getMethod().equalsIgnoreCase("GET")) {
+            return null;
+        }
+
+        long expires = getExpires(headerArray, now);
+        List varyList = new ArrayList();
+        Header vary = findHeader(headerArray, "vary");
+        if (vary != null) {
+            StringTokenizer tokenizer = new StringTokenizer(vary.getValue(), ",");
+            while (tokenizer.hasMoreTokens()) {
+                varyList.add(tokenizer.nextToken().trim().toLowerCase());
+            }
+        }
+        // A compressed response can only be used by clients accepting the coding
+        if (findHeader(headerArray, "content-encoding") != null && !varyList.contains("accept-encoding")) {
+            varyList.add("accept-encoding");
+        }
+        String[] varyNames = (String[]) varyList.toArray(new String[varyList.size()]);
+
+        return new CachedResponse(statusCode, headerArray, body, now, expires, varyNames, request);
+    }
+
+    /**
+     * Checks if a response is useful to keep in the cache, that is
+     * if it's fresh or can be revalidated.
+     *
+     * @param response The response
+     * @return true if the response should be kept
+     */
+    private boolean isWorthStoring(CachedResponse response) {
+        return response.isFresh(System.currentTimeMillis()) || response.hasValidator();
+    }
+
+    /**
+     * Checks the status code and headers to see if a response can
+     * be stored in a shared cache.
+     *
+     * @param statusCode The status code
+     * @param headers The headers
+     * @return true if the response can be stored
+     */
+    public boolean isStorable(int statusCode, Header[] headers) {
+        if (statusCode != 200 && statusCode != 203 && statusCode != 300
+                && statusCode != 301 && statusCode != 410) {
+            return false;
+        }
+
+        Header cacheControl = findHeader(headers, "cache-control");
+        if (cacheControl != null) {
+            String value = cacheControl.getValue();
+            if (hasDirective(value, "no-store") || hasDirective(value, "private")) {
+                return false;
+            }
+        }
+
+        Header vary = findHeader(headers, "vary");
+        if (vary != null && vary.getValue().trim().equals("*")) {
+            return false;
+        }
+
+        return findHeader(headers, "set-cookie") == null;
+    }
+
+    /**
+     * Refreshes a stored response after the server answered a conditional
+     * GET with 304. The headers from the 304 response are merged with the
+     * stored headers and the freshness is calculated again. The refreshed
+     * response replaces the old one in the cache.
+     *
+     * @param url The URL we are proxying to
+     * @param cached The stored response
+     * @param headers The headers from the 304 response
+     * @return The refreshed response
+     */
+    public CachedResponse refresh(String url, CachedResponse cached, Header[] headers) {
+        long now = System.currentTimeMillis();
+        Header[] merged = cached.mergeHeaders(headers);
+        CachedResponse refreshed = cached.refresh(merged, now, getExpires(merged, now));
+        synchronized (this) {
+            revalidations++;
+        }
+        put(url, refreshed);
+        return refreshed;
+    }
+
+    /**
+     * Finds out when a response stops being fresh. The directives
+     * s-maxage and max-age in Cache-Control are used first, if they
+     * aren't present the Expires header is used. A response with
+     * no-cache is never fresh and has to be revalidated every time.
+     *
+     * @param headers The headers
+     * @param now The current time
+     * @return The time the response expires
+     */
+    private long getExpires(Header[] headers, long now) {
+        Header cacheControl = findHeader(headers, "cache-control");
+        if (cacheControl != null) {
+            if (hasDirective(cacheControl.getValue(), "no-cache")) {
+                return now;
+            }
+            long maxAge = getDirectiveValue(cacheControl.getValue(), "s-maxage");
+            if (maxAge == -1) {
+                maxAge = getDirectiveValue(cacheControl.getValue(), "max-age");
+            }
+            if (maxAge != -1) {
+                return now + maxAge * 1000;
+            }
+        }
+
+        Header expires = findHeader(headers, "expires");
+        if (expires != null) {
+            try {
+                long expiresTime = DateUtil.parseDate(expires.getValue()).getTime();
+                Header date = findHeader(headers, "date");
+                long dateTime = date == null ? now : DateUtil.parseDate(date.getValue()).getTime();
+                return now + (expiresTime - dateTime);
+            } catch (DateParseException e) {
+                return now;
+            }
+        }
+
+        return now;
+    }
+
+    /**
+     * Finds the first header with the name.
+     *
+     * @param headers The headers
+     * @param name The name
+     * @return The header, null if no header is found
+     */
+    private Header findHeader(Header[] headers, String name) {
+        for (int i=0; i < headers.length; i++) {
+            if (headers[i].getName().equalsIgnoreCase(name)) {
+                return headers[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a directive is present in a header like
+     * Cache-Control or Pragma.
+     *
+     * @param header The header value, can be null
+     * @param directive The directive
+     * @return true if the directive is present
+     */
+    private boolean hasDirective(String header, String directive) {
+        if (header != null) {
+            StringTokenizer tokenizer = new StringTokenizer(header, ",");
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken().trim();
+                int equals = token.indexOf('=');
+                String name = equals == -1 ? token : token.substring(0, equals).trim();
+                if (name.equalsIgnoreCase(directive)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number value of a directive like max-age=60.
+     *
+     * @param header The header value
+     * @param directive The directive
+     * @return The value, -1 if the directive isn't present
+     */
+    private long getDirectiveValue(String header, String directive) {
+        StringTokenizer tokenizer = new StringTokenizer(header, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            int equals = token.indexOf('=');
+            if (equals != -1 && token.substring(0, equals).trim().equalsIgnoreCase(directive)) {
+                try {
+                    return Math.max(0, Long.parseLong(token.substring(equals + 1).trim()));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the max size of a single response.
+     *
+     * @return The max size in bytes
+     */
+    public int getMaxEntrySize() {
+        return maxEntrySize;
+    }
+
+    /**
+     * Returns the number of bytes used by the cache.
+     *
+     * @return The size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of requests finding a fresh response in the cache.
+     *
+     * @return The number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of requests not found in the cache.
+     *
+     * @return The number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of stored responses revalidated by the server.
+     *
+     * @return The number of revalidations
+     */
+    public synchronized long getRevalidations() {
+        return revalidations;
+    }
+
+    /**
+     * The variants stored for a URL.
+     */
+    private static class Variants {
+
+        /**
+         * The request headers the variants vary on.
+         */
+        private String[] names;
+
+        /**
+         * The keys of the variants in the responses map.
+         */
+        private List keys;
+
+        /**
+         * Basic constructor.
+         *
+         * @param names The request headers the variants vary on
+         */
+        public Variants(String[] names) {
+            this.names = names;
+            keys = new ArrayList();
+        }
+    }
+}
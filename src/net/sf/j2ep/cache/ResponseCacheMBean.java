@@ -0,0 +1,44 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.cache;
+
+/**
+ * The counters of a ResponseCache shown through JMX.
+ *
+ * @author Anders Nyman
+ */
+public interface ResponseCacheMBean {
+    
+    /**
+     * @return The number of bytes used by the cache
+     */
+    long getSize();
+    
+    /**
+     * @return The number of requests finding a fresh response in the cache
+     */
+    long getHits();
+    
+    /**
+     * @return The number of requests not found in the cache
+     */
+    long getMisses();
+    
+    /**
+     * @return The number of stored responses revalidated by the server
+     */
+    long getRevalidations();
+}
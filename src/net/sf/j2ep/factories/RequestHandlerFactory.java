@@ -48,7 +48,7 @@ public class RequestHandlerFactory {
     /** 
      * List of banned headers that should not be set.
      */
-    private static final String bannedHeaders = "connection,accept-encoding,via,x-forwarded-for,x-forwarded-host,x-forwarded-server";
+    private static final String bannedHeaders = "connection,keep-alive,proxy-connection,te,trailer,upgrade,accept-encoding,via,x-forwarded-for,x-forwarded-host,x-forwarded-server,content-length,transfer-encoding";
     
     static {
         RequestHandlerBase.addBannedHeaders(bannedHeaders);
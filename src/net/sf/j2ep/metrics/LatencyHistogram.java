@@ -0,0 +1,188 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.metrics;
+
+/**
+ * Counts times in buckets growing exponentially, so the latency
+ * distribution is kept in a fixed amount of memory however many
+ * times are recorded. The buckets are the same for all histograms
+ * so they can be summed and exported as Prometheus histograms.
+ * 
+ * The counters of a histogram are only locked for the few
+ * instructions it takes to add a time.
+ *
+ * @author Anders Nyman
+ */
+public class LatencyHistogram implements LatencyHistogramMBean {
+    
+    /** 
+     * The upper bounds of the buckets in milliseconds, a last bucket
+     * holds the times above the last bound.
+     */
+    public static final long[] BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+    
+    /** 
+     * The number of times in each bucket.
+     */
+    private long[] buckets;
+    
+    /** 
+     * The number of times recorded.
+     */
+    private long count;
+    
+    /** 
+     * The number of failures recorded.
+     */
+    private long failures;
+    
+    /** 
+     * The sum of the times.
+     */
+    private long totalTime;
+    
+    /** 
+     * The longest time.
+     */
+    private long max;
+    
+    /**
+     * Creates an empty histogram.
+     */
+    public LatencyHistogram() {
+        buckets = new long[BOUNDS.length + 1];
+    }
+    
+    /**
+     * Records a time.
+     * 
+     * @param millis The time in milliseconds
+     */
+    public void record(long millis) {
+        record(millis, false);
+    }
+    
+    /**
+     * Records a time and if it was a failure. Failures without
+     * a time, where the time is negative, are only counted as
+     * failures.
+     * 
+     * @param millis The time in milliseconds, negative if there is none
+     * @param failed true if it was a failure
+     */
+    public void record(long millis, boolean failed) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        synchronized (this) {
+            if (failed) {
+                failures++;
+            }
+            if (millis >= 0) {
+                buckets[bucket]++;
+                count++;
+                totalTime += millis;
+                if (millis > max) {
+                    max = millis;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the number of times in each bucket, the last
+     * bucket holds the times above the last bound.
+     * 
+     * @return A copy of the counts
+     */
+    public synchronized long[] getBuckets() {
+        long[] copy = new long[buckets.length];
+        System.arraycopy(buckets, 0, copy, 0, buckets.length);
+        return copy;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getCount()
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getFailures()
+     */
+    public synchronized long getFailures() {
+        return failures;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getTotalTime()
+     */
+    public synchronized long getTotalTime() {
+        return totalTime;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getMean()
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) totalTime / count;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getMax()
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getMedian()
+     */
+    public long getMedian() {
+        return getPercentile(0.5);
+    }
+    
+    /**
+     * @see net.sf.j2ep.metrics.LatencyHistogramMBean#getPercentile99()
+     */
+    public long getPercentile99() {
+        return getPercentile(0.99);
+    }
+    
+    /**
+     * Finds the bucket holding a percentile. Times above the last
+     * bound are given as the longest time recorded.
+     * 
+     * @param fraction The percentile as a fraction, e.g. 0.99
+     * @return The upper bound of the bucket, 0 if nothing is recorded
+     */
+    public synchronized long getPercentile(double fraction) {
+        if (count == 0) {
+            return 0;
+        }
+        long wanted = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i=0; i < BOUNDS.length; i++) {
+            seen += buckets[i];
+            if (seen >= wanted) {
+                return Math.min(BOUNDS[i], max);
+            }
+        }
+        return max;
+    }
+}
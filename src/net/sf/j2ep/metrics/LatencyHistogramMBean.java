@@ -0,0 +1,59 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.metrics;
+
+/**
+ * The attributes of a LatencyHistogram shown through JMX.
+ *
+ * @author Anders Nyman
+ */
+public interface LatencyHistogramMBean {
+    
+    /**
+     * @return The number of times recorded
+     */
+    long getCount();
+    
+    /**
+     * @return The number of failures recorded
+     */
+    long getFailures();
+    
+    /**
+     * @return The sum of the times recorded, in milliseconds
+     */
+    long getTotalTime();
+    
+    /**
+     * @return The mean time, in milliseconds
+     */
+    double getMean();
+    
+    /**
+     * @return The longest time recorded, in milliseconds
+     */
+    long getMax();
+    
+    /**
+     * @return The upper bound of the bucket holding the median, in milliseconds
+     */
+    long getMedian();
+    
+    /**
+     * @return The upper bound of the bucket holding the 99th percentile, in milliseconds
+     */
+    long getPercentile99();
+}
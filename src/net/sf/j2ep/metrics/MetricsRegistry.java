@@ -0,0 +1,486 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import net.sf.j2ep.ResponseCompressor;
+import net.sf.j2ep.cache.RequestCoalescer;
+import net.sf.j2ep.cache.ResponseCache;
+import net.sf.j2ep.model.Server;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the latency histograms of the proxy. There is one histogram
+ * for each phase of a request, one for each server requests are
+ * sent to and one for each cluster of servers. The phases are:
+ * <ul>
+ * <li>pool, waiting for a connection to the server</li>
+ * <li>backend, from sending the request until the response headers
+ * are received, the pool time included</li>
+ * <li>transfer, sending the response to the client</li>
+ * </ul>
+ * 
+ * The histograms have millisecond resolution, so the steps that take
+ * less than that, like finding the server and rewriting the URLs, are
+ * measured with the benchmarks in the bench tree instead.
+ * 
+ * A failed request is counted in the histograms of the server and the
+ * cluster it was sent to, also when it's retried on another server.
+ * 
+ * The registry is written in the Prometheus text format by the
+ * MetricsServlet, together with the statistics of the compressor if
+ * responses are compressed and the counters of the response cache and
+ * the request coalescer if they are used. The histograms, the cache and
+ * the coalescer are registered as MBeans if there is an MBeanServer.
+ *
+ * @author Anders Nyman
+ */
+public class MetricsRegistry {
+    
+    /** 
+     * The servlet context attribute the registry is stored in.
+     */
+    public static final String CONTEXT_ATTRIBUTE = "net.sf.j2ep.metrics";
+    
+    /** 
+     * The phases that are timed.
+     */
+    public static final String[] PHASES = {"pool", "backend", "transfer"};
+    
+    /** 
+     * The domain of the MBeans.
+     */
+    private static final String DOMAIN = "net.sf.j2ep";
+    
+    /** 
+     * Logging element supplied by commons-logging.
+     */
+    private static Log log = LogFactory.getLog(MetricsRegistry.class);
+    
+    /** 
+     * The histograms of the phases, never changed after the
+     * registry is created so it's read without locking.
+     */
+    private HashMap phases;
+    
+    /** 
+     * The histograms of the servers, keyed on the server's name.
+     */
+    private HashMap servers;
+    
+    /** 
+     * The histograms of the clusters, keyed on the cluster's name.
+     */
+    private HashMap clusters;
+    
+    /** 
+     * The MBeanServer the histograms are registered in, null if none.
+     */
+    private MBeanServer mbeanServer;
+    
+    /** 
+     * The names of the MBeans registered.
+     */
+    private List mbeanNames;
+    
+    /** 
+     * The compressor whose statistics are written, null if none.
+     */
+    private ResponseCompressor compressor;
+    
+    /** 
+     * The cache whose counters are written, null if none.
+     */
+    private ResponseCache cache;
+    
+    /** 
+     * The coalescer whose counters are written, null if none.
+     */
+    private RequestCoalescer coalescer;
+    
+    /**
+     * Creates a registry.
+     * 
+     * @param jmx true to register the histograms in the MBeanServer, if there is one
+     */
+    public MetricsRegistry(boolean jmx) {
+        servers = new HashMap();
+        clusters = new HashMap();
+        mbeanNames = new ArrayList();
+        if (jmx) {
+            List found = MBeanServerFactory.findMBeanServer(null);
+            mbeanServer = found.isEmpty() ? null : (MBeanServer) found.get(0);
+        }
+        
+        phases = new HashMap();
+        for (int i=0; i < PHASES.length; i++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            phases.put(PHASES[i], histogram);
+            register("Phase", PHASES[i], histogram);
+        }
+    }
+    
+    /**
+     * Records the time of a phase.
+     * 
+     * @param phase The phase, one of PHASES
+     * @param millis The time in milliseconds
+     */
+    public void record(String phase, long millis) {
+        getPhase(phase).record(millis);
+    }
+    
+    /**
+     * Returns the histogram of a phase.
+     * 
+     * @param phase The phase, one of PHASES
+     * @return The histogram
+     */
+    public LatencyHistogram getPhase(String phase) {
+        return (LatencyHistogram) phases.get(phase);
+    }
+    
+    /**
+     * Returns the histogram of a server, creating it the first time.
+     * 
+     * @param server The server
+     * @return The histogram
+     */
+    public LatencyHistogram getServer(Server server) {
+        String name = getName(server);
+        synchronized (servers) {
+            LatencyHistogram histogram = (LatencyHistogram) servers.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                servers.put(name, histogram);
+                register("Server", name, histogram);
+            }
+            return histogram;
+        }
+    }
+    
+    /**
+     * Returns the histogram of the cluster a server is in, creating
+     * it the first time.
+     * 
+     * @param server The server
+     * @return The histogram, null if the server isn't in a cluster
+     */
+    public LatencyHistogram getCluster(Server server) {
+        String name = server.getClusterName();
+        if (name == null) {
+            return null;
+        }
+        synchronized (clusters) {
+            LatencyHistogram histogram = (LatencyHistogram) clusters.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                clusters.put(name, histogram);
+                register("Cluster", name, histogram);
+            }
+            return histogram;
+        }
+    }
+    
+    /**
+     * Sets the compressor whose statistics are written with the
+     * histograms.
+     * 
+     * @param compressor The compressor, null if responses aren't compressed
+     */
+    public void setCompressor(ResponseCompressor compressor) {
+        this.compressor = compressor;
+    }
+    
+    /**
+     * Sets the cache whose counters are written with the
+     * histograms, it is registered as an MBean.
+     * 
+     * @param cache The cache, null if responses aren't cached
+     */
+    public void setCache(ResponseCache cache) {
+        this.cache = cache;
+        if (cache != null) {
+            register("Cache", "responses", cache);
+        }
+    }
+    
+    /**
+     * Sets the coalescer whose counters are written with the
+     * histograms, it is registered as an MBean.
+     * 
+     * @param coalescer The coalescer, null if requests aren't coalesced
+     */
+    public void setCoalescer(RequestCoalescer coalescer) {
+        this.coalescer = coalescer;
+        if (coalescer != null) {
+            register("Coalescer", "requests", coalescer);
+        }
+    }
+    
+    /**
+     * Writes all histograms in the Prometheus text format. Times
+     * are given in seconds.
+     * 
+     * @param out The writer
+     * @throws IOException Is thrown when there is a problem with the writer
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        TreeMap sortedServers;
+        synchronized (servers) {
+            sortedServers = new TreeMap(servers);
+        }
+        TreeMap sortedClusters;
+        synchronized (clusters) {
+            sortedClusters = new TreeMap(clusters);
+        }
+        
+        out.write("# HELP j2ep_phase_seconds Time spent in each phase of proxied requests.\n");
+        out.write("# TYPE j2ep_phase_seconds histogram\n");
+        for (int i=0; i < PHASES.length; i++) {
+            writeHistogram(out, "j2ep_phase_seconds", "phase", PHASES[i], getPhase(PHASES[i]));
+        }
+        
+        writeTargets(out, "server", "Response time of each server.", "Failed requests to each server.", sortedServers);
+        writeTargets(out, "cluster", "Response time of each cluster.", "Failed requests to each cluster.", sortedClusters);
+        
+        if (compressor != null) {
+            writeCompression(out, compressor.getStatistics());
+        }
+        if (cache != null) {
+            writeMetric(out, "j2ep_cache_hits_total", "counter", "Requests answered with a fresh response from the cache.", cache.getHits());
+            writeMetric(out, "j2ep_cache_misses_total", "counter", "Requests without a fresh response in the cache.", cache.getMisses());
+            writeMetric(out, "j2ep_cache_revalidations_total", "counter", "Stored responses revalidated by the server.", cache.getRevalidations());
+            writeMetric(out, "j2ep_cache_size_bytes", "gauge", "Bytes used by the cache.", cache.getSize());
+        }
+        if (coalescer != null) {
+            writeMetric(out, "j2ep_coalescer_leaders_total", "counter", "Requests sent to a server for a flight of coalesced requests.", coalescer.getLeaders());
+            writeMetric(out, "j2ep_coalescer_collapsed_total", "counter", "Requests answered with the response of another request.", coalescer.getCollapsed());
+            writeMetric(out, "j2ep_coalescer_fallbacks_total", "counter", "Requests that waited for another request but had to be sent anyway.", coalescer.getFallbacks());
+        }
+    }
+    
+    /**
+     * Writes the histograms and failure counters of the servers
+     * or the clusters.
+     * 
+     * @param out The writer
+     * @param label The label, server or cluster
+     * @param help The description of the histograms
+     * @param failuresHelp The description of the failure counters
+     * @param histograms The histograms, keyed on name
+     * @throws IOException Is thrown when there is a problem with the writer
+     */
+    private void writeTargets(Writer out, String label, String help, String failuresHelp, Map histograms) throws IOException {
+        String metric = "j2ep_" + label + "_seconds";
+        out.write("# HELP " + metric + " " + help + "\n");
+        out.write("# TYPE " + metric + " histogram\n");
+        Iterator itr = histograms.keySet().iterator();
+        while (itr.hasNext()) {
+            String name = (String) itr.next();
+            writeHistogram(out, metric, label, name, (LatencyHistogram) histograms.get(name));
+        }
+        
+        String failures = "j2ep_" + label + "_failures_total";
+        out.write("# HELP " + failures + " " + failuresHelp + "\n");
+        out.write("# TYPE " + failures + " counter\n");
+        itr = histograms.keySet().iterator();
+        while (itr.hasNext()) {
+            String name = (String) itr.next();
+            LatencyHistogram histogram = (LatencyHistogram) histograms.get(name);
+            out.write(failures + "{" + label + "=\"" + escape(name) + "\"} " + histogram.getFailures() + "\n");
+        }
+    }
+    
+    /**
+     * Writes a counter or gauge without labels.
+     * 
+     * @param out The writer
+     * @param metric The name of the metric
+     * @param type The type of the metric, counter or gauge
+     * @param help The description of the metric
+     * @param value The value
+     * @throws IOException Is thrown when there is a problem with the writer
+     */
+    private void writeMetric(Writer out, String metric, String type, String help, long value) throws IOException {
+        out.write("# HELP " + metric + " " + help + "\n");
+        out.write("# TYPE " + metric + " " + type + "\n");
+        out.write(metric + " " + value + "\n");
+    }
+    
+    /**
+     * Writes the statistics of the compressor.
+     * 
+     * @param out The writer
+     * @param statistics The statistics, keyed on content type
+     * @throws IOException Is thrown when there is a problem with the writer
+     */
+    private void writeCompression(Writer out, Map statistics) throws IOException {
+        TreeMap sorted = new TreeMap(statistics);
+        String[] metrics = {"j2ep_compressed_responses_total", "j2ep_compression_bytes_in_total",
+                "j2ep_compression_bytes_out_total"};
+        String[] help = {"Responses compressed.", "Bytes before compression.",
+                "Bytes after compression."};
+        for (int i=0; i < metrics.length; i++) {
+            out.write("# HELP " + metrics[i] + " " + help[i] + "\n");
+            out.write("# TYPE " + metrics[i] + " counter\n");
+            Iterator itr = sorted.keySet().iterator();
+            while (itr.hasNext()) {
+                String type = (String) itr.next();
+                ResponseCompressor.Statistics counters = (ResponseCompressor.Statistics) sorted.get(type);
+                String value;
+                if (i == 0) {
+                    value = String.valueOf(counters.getResponses());
+                } else if (i == 1) {
+                    value = String.valueOf(counters.getBytesIn());
+                } else {
+                    value = String.valueOf(counters.getBytesOut());
+                }
+                out.write(metrics[i] + "{content_type=\"" + escape(type) + "\"} " + value + "\n");
+            }
+        }
+    }
+    
+    /**
+     * Writes the buckets, sum and count of a histogram.
+     * 
+     * @param out The writer
+     * @param metric The name of the metric
+     * @param label The name of the label
+     * @param value The value of the label
+     * @param histogram The histogram
+     * @throws IOException Is thrown when there is a problem with the writer
+     */
+    private void writeHistogram(Writer out, String metric, String label, String value, LatencyHistogram histogram) throws IOException {
+        long[] buckets;
+        long count;
+        long totalTime;
+        synchronized (histogram) {
+            buckets = histogram.getBuckets();
+            count = histogram.getCount();
+            totalTime = histogram.getTotalTime();
+        }
+        
+        String labels = label + "=\"" + escape(value) + "\"";
+        long cumulative = 0;
+        for (int i=0; i < LatencyHistogram.BOUNDS.length; i++) {
+            cumulative += buckets[i];
+            out.write(metric + "_bucket{" + labels + ",le=\"" + toSeconds(LatencyHistogram.BOUNDS[i]) + "\"} " + cumulative + "\n");
+        }
+        out.write(metric + "_bucket{" + labels + ",le=\"+Inf\"} " + count + "\n");
+        out.write(metric + "_sum{" + labels + "} " + toSeconds(totalTime) + "\n");
+        out.write(metric + "_count{" + labels + "} " + count + "\n");
+    }
+    
+    /**
+     * Unregisters the MBeans.
+     */
+    public void unregister() {
+        if (mbeanServer == null) {
+            return;
+        }
+        synchronized (mbeanNames) {
+            Iterator itr = mbeanNames.iterator();
+            while (itr.hasNext()) {
+                try {
+                    mbeanServer.unregisterMBean((ObjectName) itr.next());
+                } catch (Exception e) {
+                    log.debug("Couldn't unregister MBean", e);
+                }
+            }
+            mbeanNames.clear();
+        }
+    }
+    
+    /**
+     * Registers an MBean, if there is an MBeanServer.
+     * 
+     * @param type The type in the name of the MBean
+     * @param name The name of the MBean
+     * @param mbean The MBean
+     */
+    private void register(String type, String name, Object mbean) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!mbeanServer.isRegistered(objectName)) {
+                mbeanServer.registerMBean(mbean, objectName);
+                synchronized (mbeanNames) {
+                    mbeanNames.add(objectName);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Couldn't register the MBean for " + name, e);
+        }
+    }
+    
+    /**
+     * Makes a name for a server from its domain name and path.
+     * 
+     * @param server The server
+     * @return The name
+     */
+    private String getName(Server server) {
+        return server.getDomainName() + server.getPath();
+    }
+    
+    /**
+     * Converts milliseconds to seconds.
+     * 
+     * @param millis The time in milliseconds
+     * @return The time in seconds
+     */
+    private String toSeconds(long millis) {
+        return String.valueOf(millis / 1000.0);
+    }
+    
+    /**
+     * Escapes a label value for the Prometheus text format.
+     * 
+     * @param value The value
+     * @return The escaped value
+     */
+    private String escape(String value) {
+        StringBuffer escaped = new StringBuffer(value.length());
+        for (int i=0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
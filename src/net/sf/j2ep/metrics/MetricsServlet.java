@@ -0,0 +1,52 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Writes the metrics of the proxy in the Prometheus text format.
+ * The registry is found in the servlet context, where it's put by
+ * the ProxyFilter when metrics are enabled.
+ *
+ * @author Anders Nyman
+ */
+public class MetricsServlet extends HttpServlet {
+    
+    /**
+     * Writes the metrics, or answers 404 if metrics aren't enabled.
+     * 
+     * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
+     */
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        MetricsRegistry registry = (MetricsRegistry) getServletContext().getAttribute(MetricsRegistry.CONTEXT_ATTRIBUTE);
+        if (registry == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Metrics are not enabled");
+        } else {
+            response.setContentType("text/plain; version=0.0.4");
+            response.setHeader("Cache-Control", "no-cache");
+            PrintWriter writer = response.getWriter();
+            registry.writePrometheus(writer);
+            writer.flush();
+        }
+    }
+}
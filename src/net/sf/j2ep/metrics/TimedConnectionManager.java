@@ -0,0 +1,60 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.metrics;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+
+/**
+ * A connection manager recording how long each request waits for
+ * a connection from the pool.
+ *
+ * @author Anders Nyman
+ */
+public class TimedConnectionManager extends MultiThreadedHttpConnectionManager {
+    
+    /** 
+     * The registry the times are recorded in.
+     */
+    private MetricsRegistry registry;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param registry The registry the times are recorded in
+     */
+    public TimedConnectionManager(MetricsRegistry registry) {
+        super();
+        this.registry = registry;
+    }
+    
+    /**
+     * Gets a connection and records the time it took.
+     * 
+     * @see org.apache.commons.httpclient.HttpConnectionManager#getConnectionWithTimeout(org.apache.commons.httpclient.HostConfiguration, long)
+     */
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        long start = System.currentTimeMillis();
+        try {
+            return super.getConnectionWithTimeout(hostConfiguration, timeout);
+        } finally {
+            registry.record("pool", System.currentTimeMillis() - start);
+        }
+    }
+}
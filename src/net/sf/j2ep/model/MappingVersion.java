@@ -0,0 +1,49 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.model;
+
+/**
+ * Counts the changes made to the rules and mappings of the servers.
+ * The ServerChain builds indexes over them and rebuilds the indexes
+ * when the count has changed, so a server or rule changed after the
+ * chain is created is still found.
+ *
+ * @author Anders Nyman
+ */
+public class MappingVersion {
+    
+    /** 
+     * The number of changes made.
+     */
+    private static volatile long version = 0;
+    
+    /**
+     * Marks that a rule or a mapping has changed.
+     */
+    public static synchronized void changed() {
+        version++;
+    }
+    
+    /**
+     * Returns the number of changes made.
+     * 
+     * @return The version
+     */
+    public static long get() {
+        return version;
+    }
+}
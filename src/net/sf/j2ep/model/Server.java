@@ -61,6 +61,41 @@ public interface Server {
      */
     void setConnectionExceptionRecieved(Exception e);
     
+    /**
+     * Returns another server to send the request to when this server
+     * couldn't handle it. The request is only retried when it never
+     * reached this server or when the method can safely be repeated.
+     * 
+     * @param method The method of the request
+     * @param sent true if the request might have reached this server
+     * @param retries The number of times the request has been retried
+     * @return The server to use, null if the request shouldn't be retried
+     */
+    Server getRetryServer(String method, boolean sent, int retries);
+    
+    /**
+     * Called before a request is sent to this server.
+     */
+    void requestStarted();
+    
+    /**
+     * Called when a request to this server is finished and the
+     * response has been sent to the client. Every call to
+     * requestStarted is followed by a call to this method.
+     * 
+     * @param responseTime Milliseconds until the server responded, -1 if there was no response
+     * @param failed true if the server couldn't be reached, timed out or answered with a 5xx status
+     */
+    void requestFinished(long responseTime, boolean failed);
+    
+    /**
+     * Called instead of requestFinished when a request was given up
+     * before it reached this server, for example when no connection
+     * was free in the pool. The request is no longer counted as in
+     * progress but counts neither as a success nor as a failure.
+     */
+    void requestAborted();
+    
     /**
      * Returns the scheme (ie. protocol) for this server or null if the original scheme from the request should be used.
      * @return The scheme ("http" or "https") or null for any scheme
@@ -82,8 +117,31 @@ public interface Server {
      * @return The path
      */
     String getPath();
+    
+    /**
+     * Returns the name of the cluster this server is in.
+     * 
+     * @return The name of the cluster, null if the server isn't in a cluster
+     */
+    String getClusterName();
 
     
+    /**
+     * Returns the max number of connections that can be open to
+     * this server at the same time.
+     * 
+     * @return The max number of connections, 0 if the default is used
+     */
+    int getMaxConnections();
+    
+    /**
+     * Returns the time to wait for data from this server
+     * before giving up.
+     * 
+     * @return The timeout in milliseconds, -1 if the default is used
+     */
+    int getSocketTimeout();
+    
     /**
      * Returns the mapped rule so we can rewrite links.
      * 
@@ -0,0 +1,152 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.requesthandlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A request entity reading the whole body from the client before
+ * it's sent, so it can be sent again if the request is retried.
+ * Small bodies are kept in memory, larger bodies are written to a
+ * temporary file that is streamed with the pooled buffer of the thread
+ * when the body is sent. The output stream of the connection isn't a
+ * channel, so mapping the file wouldn't save a copy, and a mapping
+ * keeps the file from being deleted on some systems until it's
+ * garbage collected. The file is deleted when the entity is released.
+ *
+ * @author Anders Nyman
+ */
+public class BufferedRequestEntity implements RequestEntity {
+    
+    /** 
+     * The body if it's kept in memory.
+     */
+    private byte[] body;
+    
+    /** 
+     * The file with the body if it's too large for the memory.
+     */
+    private File file;
+    
+    /** 
+     * The length of the body.
+     */
+    private long length;
+    
+    /** 
+     * The content type of the body.
+     */
+    private String contentType;
+    
+    /**
+     * Reads the body from the client.
+     * 
+     * @param in The body from the client
+     * @param length The length of the body, -1 if it isn't known
+     * @param contentType The content type of the body
+     * @param memoryLimit The largest body kept in memory
+     * @param directory The directory for the temporary file, null for the default
+     * @throws IOException If the body can't be read or stored
+     */
+    public BufferedRequestEntity(InputStream in, long length, String contentType,
+            int memoryLimit, File directory) throws IOException {
+        this.contentType = contentType;
+        if (length >= 0 && length <= memoryLimit) {
+            ByteArrayOutputStream memory = new ByteArrayOutputStream((int) length);
+            StreamingRequestEntity.copy(in, memory, length);
+            body = memory.toByteArray();
+            this.length = body.length;
+        } else {
+            file = File.createTempFile("j2ep", ".body", directory);
+            OutputStream out = new FileOutputStream(file);
+            try {
+                this.length = StreamingRequestEntity.copy(in, out, length);
+            } catch (IOException e) {
+                out.close();
+                release();
+                throw e;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * @see org.apache.commons.httpclient.methods.RequestEntity#isRepeatable()
+     */
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Writes the body from memory or from the file.
+     * @see org.apache.commons.httpclient.methods.RequestEntity#writeRequest(java.io.OutputStream)
+     */
+    public void writeRequest(OutputStream out) throws IOException {
+        if (body != null) {
+            out.write(body);
+            return;
+        }
+        
+        InputStream in = new FileInputStream(file);
+        try {
+            StreamingRequestEntity.copy(in, out, length);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @see org.apache.commons.httpclient.methods.RequestEntity#getContentLength()
+     */
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * @see org.apache.commons.httpclient.methods.RequestEntity#getContentType()
+     */
+    public String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Checks if the body was written to a file.
+     * 
+     * @return true if the body is in a file
+     */
+    public boolean isOnDisk() {
+        return file != null;
+    }
+    
+    /**
+     * Deletes the temporary file, the entity can't be used after this.
+     */
+    public void release() {
+        body = null;
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
@@ -16,6 +16,7 @@
 
 package net.sf.j2ep.requesthandlers;
 
+import java.io.File;
 import java.io.IOException;
 
 import javax.servlet.http.HttpServletRequest;
@@ -23,16 +24,38 @@ import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
-import org.apache.commons.httpclient.methods.InputStreamRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 
 /**
  * Handler for POST and PUT methods.
+ * 
+ * The body is streamed to the server with the Content-Length sent
+ * by the client. If buffering is turned on the body is read before
+ * it's sent so the request can be retried, large bodies are then
+ * written to a temporary file instead of being kept in memory.
  *
  * @author Anders Nyman
  */
 public class EntityEnclosingRequestHandler extends RequestHandlerBase {
+    
+    /** 
+     * The request attribute a buffered body is stored in, so
+     * that it's reused when the request is retried.
+     */
+    private static final String BUFFERED_BODY = "net.sf.j2ep.bufferedBody";
+    
+    /** 
+     * The largest body kept in memory when buffering, -1 if
+     * the bodies aren't buffered.
+     */
+    private static int memoryLimit = -1;
+    
+    /** 
+     * The directory for bodies too large for the memory.
+     */
+    private static File spillDirectory;
 
     /**
      * Will set the input stream and the Content-Type header to match this request.
@@ -53,14 +76,77 @@ public class EntityEnclosingRequestHandler extends RequestHandlerBase {
         
         setHeaders(method, request);
         
-        InputStreamRequestEntity stream;
-        stream = new InputStreamRequestEntity(request.getInputStream());
-        method.setRequestEntity(stream);
+        RequestEntity entity = (RequestEntity) request.getAttribute(BUFFERED_BODY);
+        if (entity == null) {
+            long length = getContentLength(request);
+            if (memoryLimit >= 0) {
+                entity = new BufferedRequestEntity(request.getInputStream(), length,
+                        request.getContentType(), memoryLimit, spillDirectory);
+                request.setAttribute(BUFFERED_BODY, entity);
+            } else {
+                entity = new StreamingRequestEntity(request.getInputStream(), length, request.getContentType());
+            }
+        }
+        method.setRequestEntity(entity);
         method.setRequestHeader("Content-type", request.getContentType());
         
         return method;
         
     }
-        
+    
+    /**
+     * Reads the Content-Length sent by the client. The header is
+     * parsed instead of using getContentLength so that bodies larger
+     * than 2 GB get their length.
+     * 
+     * @param request The incoming request
+     * @return The length, -1 if it isn't known
+     */
+    private long getContentLength(HttpServletRequest request) {
+        String value = request.getHeader("content-length");
+        if (value == null || request.getHeader("transfer-encoding") != null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Turns on buffering of the bodies. A buffered body can be sent
+     * again if the request is retried on another server.
+     * 
+     * @param limit The largest body kept in memory, -1 to turn off buffering
+     * @param directory The directory for larger bodies, null for the default
+     */
+    public static void setBuffering(int limit, File directory) {
+        memoryLimit = limit;
+        spillDirectory = directory;
+    }
+    
+    /**
+     * Checks if the body of the request has been buffered.
+     * 
+     * @param request The incoming request
+     * @return true if the body can be sent again
+     */
+    public static boolean isBuffered(HttpServletRequest request) {
+        return request.getAttribute(BUFFERED_BODY) != null;
+    }
+    
+    /**
+     * Releases a buffered body, deleting any temporary file.
+     * 
+     * @param request The incoming request
+     */
+    public static void release(HttpServletRequest request) {
+        BufferedRequestEntity entity = (BufferedRequestEntity) request.getAttribute(BUFFERED_BODY);
+        if (entity != null) {
+            request.removeAttribute(BUFFERED_BODY);
+            entity.release();
+        }
+    }
 
 }
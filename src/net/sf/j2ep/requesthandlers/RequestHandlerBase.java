@@ -17,15 +17,14 @@
 package net.sf.j2ep.requesthandlers;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import net.sf.j2ep.HeaderNameSet;
+import net.sf.j2ep.ProxyIdentity;
 import net.sf.j2ep.model.RequestHandler;
 
 import org.apache.commons.httpclient.HttpException;
@@ -45,7 +44,12 @@ public abstract class RequestHandlerBase implements RequestHandler {
      * A set of headers that are not to be set in the request,
      * these headers are for example Connection.
      */
-    private static Set bannedHeaders = new HashSet();
+    private static volatile HeaderNameSet bannedHeaders = new HeaderNameSet("");
+    
+    /** 
+     * Regex matching the parameters of a coding that isn't accepted.
+     */
+    private static Pattern rejectedPattern = Pattern.compile(";\\s*q\\s*=\\s*0(\\.0*)?\\s*");
 
     /**
      * @see net.sf.j2ep.model.RequestHandler#process(javax.servlet.http.HttpServletRequest, java.lang.String)
@@ -59,24 +63,29 @@ public abstract class RequestHandlerBase implements RequestHandler {
     
     /**
      * Will write all request headers stored in the request to the method that
-     * are not in the set of banned headers.
-     * The Accept-Endocing header is also changed to allow compressed content
-     * connection to the server even if the end client doesn't support that. 
+     * are not in the set of banned headers or named in the Connection header.
+     * The Accept-Encoding header is limited to the codings we can decompress,
+     * gzip and deflate, so that compressed content can be rewritten.
      * A Via headers is created as well in compliance with the RFC.
      * 
+     * Checking the names creates no strings, but a request with more than
+     * one Connection header gets its tokens joined into a new string and
+     * a request that already has a Via header gets a new, longer value.
+     * 
      * @param method The HttpMethod used for this connection
      * @param request The incoming request
      * @throws HttpException 
      */
     protected void setHeaders(HttpMethod method, HttpServletRequest request) throws HttpException {
         Enumeration headers = request.getHeaderNames();
-        String connectionToken = request.getHeader("connection");
+        String connectionTokens = HeaderNameSet.join(request.getHeaders("connection"));
+        HeaderNameSet banned = bannedHeaders;
         
         while (headers.hasMoreElements()) {
             String name = (String) headers.nextElement();
-            boolean isToken = (connectionToken != null && name.equalsIgnoreCase(connectionToken));
+            boolean isToken = HeaderNameSet.containsToken(connectionTokens, name);
             
-            if (!isToken && !bannedHeaders.contains(name.toLowerCase())) {
+            if (!isToken && !banned.contains(name)) {
                 Enumeration value = request.getHeaders(name);
                 while (value.hasMoreElements()) {
                     method.addRequestHeader(name, (String) value.nextElement());
@@ -95,31 +104,75 @@ public abstract class RequestHandlerBase implements RequestHandler {
      * @throws HttpException 
      */
     private void setProxySpecificHeaders(HttpMethod method, HttpServletRequest request) throws HttpException {
-        String serverHostName = "jEasyExtensibleProxy";
-        try {
-            serverHostName = InetAddress.getLocalHost().getHostName();   
-        } catch (UnknownHostException e) {
-            log.error("Couldn't get the hostname needed for headers x-forwarded-server and Via", e);
-        }
+        String serverHostName = ProxyIdentity.getHostName();
         
         String originalVia = request.getHeader("via");
-        StringBuffer via = new StringBuffer("");
+        String via = ProxyIdentity.getVia(request.getProtocol());
         if (originalVia != null) {
             if (originalVia.indexOf(serverHostName) != -1) {
                 log.error("This proxy has already handled the request, will abort.");
                 throw new HttpException("Request has a cyclic dependency on this proxy.");
             } else {
-                via.append(originalVia).append(", "); 
+                via = originalVia + ", " + via; 
             }
         }
-        via.append(request.getProtocol()).append(" ").append(serverHostName);
          
-        method.setRequestHeader("via", via.toString());
+        method.setRequestHeader("via", via);
         method.setRequestHeader("x-forwarded-for", request.getRemoteAddr());     
         method.setRequestHeader("x-forwarded-host", request.getServerName());
         method.setRequestHeader("x-forwarded-server", serverHostName);
         
-        method.setRequestHeader("accept-encoding", "");
+        method.setRequestHeader("accept-encoding", getAcceptEncoding(request));
+    }
+    
+    /**
+     * Finds the codings accepted by the client that we can decompress
+     * if the response has to be rewritten. A compressed response can
+     * then be sent to the client as it is when it isn't rewritten.
+     * Also used to pick the coding when the proxy compresses responses.
+     * A coding refused with q=0 is never accepted, * only adds the
+     * codings the header doesn't refuse.
+     * 
+     * @param request The incoming request
+     * @return The Accept-Encoding header to send, empty if no compression is accepted
+     */
+    public static String getAcceptEncoding(HttpServletRequest request) {
+        boolean gzip = false;
+        boolean deflate = false;
+        boolean any = false;
+        boolean gzipRefused = false;
+        boolean deflateRefused = false;
+        Enumeration values = request.getHeaders("accept-encoding");
+        while (values != null && values.hasMoreElements()) {
+            StringTokenizer tokenizer = new StringTokenizer((String) values.nextElement(), ",");
+            while (tokenizer.hasMoreTokens()) {
+                String token = tokenizer.nextToken().trim().toLowerCase();
+                int semicolon = token.indexOf(';');
+                String coding = semicolon == -1 ? token : token.substring(0, semicolon).trim();
+                boolean refused = semicolon != -1 && rejectedPattern.matcher(token.substring(semicolon)).matches();
+                if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                    gzip |= !refused;
+                    gzipRefused |= refused;
+                } else if (coding.equals("deflate")) {
+                    deflate |= !refused;
+                    deflateRefused |= refused;
+                } else if (coding.equals("*")) {
+                    any |= !refused;
+                }
+            }
+        }
+        gzip = (gzip || any) && !gzipRefused;
+        deflate = (deflate || any) && !deflateRefused;
+        
+        if (gzip && deflate) {
+            return "gzip, deflate";
+        } else if (gzip) {
+            return "gzip";
+        } else if (deflate) {
+            return "deflate";
+        } else {
+            return "";
+        }
     }
     
     /**
@@ -127,8 +180,8 @@ public abstract class RequestHandlerBase implements RequestHandler {
      * 
      * @param header The header to add
      */
-    public static void addBannedHeader(String header) {
-        bannedHeaders.add(header);
+    public static synchronized void addBannedHeader(String header) {
+        bannedHeaders = bannedHeaders.add(header);
     }
 
     /**
@@ -141,11 +194,8 @@ public abstract class RequestHandlerBase implements RequestHandler {
      * 
      * @param headers The headers that are banned
      */
-    public static void addBannedHeaders(String headers) {
-        StringTokenizer tokenizer = new StringTokenizer(headers, ",");
-        while (tokenizer.hasMoreTokens()) {
-            bannedHeaders.add(tokenizer.nextToken().trim().toLowerCase());
-        }
+    public static synchronized void addBannedHeaders(String headers) {
+        bannedHeaders = bannedHeaders.add(headers);
     }
 
 }
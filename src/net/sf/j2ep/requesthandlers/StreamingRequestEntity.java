@@ -0,0 +1,119 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.requesthandlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import net.sf.j2ep.BufferPool;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * A request entity streaming the body from the client to the server.
+ * The length is given to the server when the client sent one, so the
+ * body isn't buffered or sent chunked. The body can only be sent once.
+ *
+ * @author Anders Nyman
+ */
+public class StreamingRequestEntity implements RequestEntity {
+    
+    /** 
+     * The body from the client.
+     */
+    private InputStream in;
+    
+    /** 
+     * The length of the body, -1 if it isn't known.
+     */
+    private long length;
+    
+    /** 
+     * The content type of the body.
+     */
+    private String contentType;
+    
+    /**
+     * Basic constructor.
+     * 
+     * @param in The body from the client
+     * @param length The length of the body, -1 if it isn't known
+     * @param contentType The content type of the body
+     */
+    public StreamingRequestEntity(InputStream in, long length, String contentType) {
+        this.in = in;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    /**
+     * The body is read from the client so it can't be sent again.
+     * @see org.apache.commons.httpclient.methods.RequestEntity#isRepeatable()
+     */
+    public boolean isRepeatable() {
+        return false;
+    }
+
+    /**
+     * Copies the body to the server.
+     * @see org.apache.commons.httpclient.methods.RequestEntity#writeRequest(java.io.OutputStream)
+     */
+    public void writeRequest(OutputStream out) throws IOException {
+        copy(in, out, length);
+    }
+
+    /**
+     * @see org.apache.commons.httpclient.methods.RequestEntity#getContentLength()
+     */
+    public long getContentLength() {
+        return length;
+    }
+
+    /**
+     * @see org.apache.commons.httpclient.methods.RequestEntity#getContentType()
+     */
+    public String getContentType() {
+        return contentType;
+    }
+    
+    /**
+     * Copies a stream using the buffer of the thread.
+     * 
+     * @param in The stream to read
+     * @param out The stream to write
+     * @param length The number of bytes to copy, -1 to copy until the end of the stream
+     * @return The number of bytes copied
+     * @throws IOException If the stream ends before length bytes are copied
+     */
+    static long copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = BufferPool.getBuffer();
+        long copied = 0;
+        while (length < 0 || copied < length) {
+            int max = length < 0 ? buffer.length : (int) Math.min(buffer.length, length - copied);
+            int read = in.read(buffer, 0, max);
+            if (read == -1) {
+                if (length >= 0) {
+                    throw new IOException("The body ended after " + copied + " of " + length + " bytes");
+                }
+                break;
+            }
+            out.write(buffer, 0, read);
+            copied += read;
+        }
+        return copied;
+    }
+}
@@ -19,18 +19,17 @@ package net.sf.j2ep.responsehandlers;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.j2ep.BufferPool;
+import net.sf.j2ep.HeaderNameSet;
+import net.sf.j2ep.ProxyIdentity;
 import net.sf.j2ep.model.ResponseHandler;
-import net.sf.j2ep.requesthandlers.RequestHandlerBase;
 
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.logging.LogFactory;
 
 /**
  * Basic implementation of a Response Handler. This class
@@ -45,6 +44,13 @@ public abstract class ResponseHandlerBase implements ResponseHandler{
      */
     protected HttpMethod method;
     
+    /** 
+     * Headers that are not sent to the client, the hop-by-hop
+     * headers and Content-Length which is set by the container.
+     */
+    private static final HeaderNameSet bannedHeaders = new HeaderNameSet(
+            "connection,keep-alive,proxy-connection,trailer,transfer-encoding,upgrade,content-length");
+    
     /**
      * Basic constructor only setting the method.
      * 
@@ -77,7 +83,8 @@ public abstract class ResponseHandlerBase implements ResponseHandler{
     
     /**
      * Writes the entire stream from the method to the response
-     * stream.
+     * stream. The copy is made with the thread's buffer from the
+     * BufferPool.
      * 
      * @param response Response to send data to
      * @throws IOException An IOException is thrown when we are having problems with reading the streams
@@ -87,9 +94,9 @@ public abstract class ResponseHandlerBase implements ResponseHandler{
         OutputStream responseStream = response.getOutputStream();
         
         if (streamFromServer != null) {
-            byte[] buffer = new byte[1024];
+            byte[] buffer = BufferPool.getBuffer();
             int read = streamFromServer.read(buffer);
-            while (read > 0) {
+            while (read != -1) {
                 responseStream.write(buffer, 0, read);
                 read = streamFromServer.read(buffer);
             } 
@@ -101,21 +108,23 @@ public abstract class ResponseHandlerBase implements ResponseHandler{
     
     /**
      * Will write all response headers received in the method to the response.
-     * One header, connection, is however omitted since we will only want the 
+     * The hop-by-hop headers, such as connection, and the headers named in the
+     * Connection header are however omitted since we will only want the 
      * client to keep his connection to the proxy not to the backing server.
+     * Like for requests, several Connection headers are joined into a new
+     * string and a Via value from the server is extended with ours.
      * 
      * @param response The response that will have headers written to it
      */
     protected void setHeaders(HttpServletResponse response) {
         Header[] headers = method.getResponseHeaders();
+        String connectionTokens = getConnectionTokens(headers);
         
         for (int i=0; i < headers.length; i++) {
             Header header = headers[i];
             String name = header.getName();
-            boolean contentLength = name.equalsIgnoreCase("content-length");
-            boolean connection = name.equalsIgnoreCase("connection");
             
-            if (!contentLength && !connection) {
+            if (!bannedHeaders.contains(name) && !HeaderNameSet.containsToken(connectionTokens, name)) {
                 response.addHeader(name, header.getValue());
             } 
         }
@@ -123,25 +132,33 @@ public abstract class ResponseHandlerBase implements ResponseHandler{
         setViaHeader(response);
     }
 
+    /**
+     * Finds the names listed in the Connection headers.
+     * 
+     * @param headers The response headers
+     * @return The names, comma separated, null if there is no Connection header
+     */
+    private String getConnectionTokens(Header[] headers) {
+        String tokens = null;
+        for (int i=0; i < headers.length; i++) {
+            if (headers[i].getName().equalsIgnoreCase("connection")) {
+                tokens = tokens == null ? headers[i].getValue() : tokens + "," + headers[i].getValue();
+            }
+        }
+        return tokens;
+    }
+
     /**
      * Will set the via header with this proxies data to the response.
      * @param response The response we set the header for
      */
     private void setViaHeader(HttpServletResponse response) {
-        String serverHostName = "jEasyReverseProxy";
-        try {
-            serverHostName = InetAddress.getLocalHost().getHostName();   
-        } catch (UnknownHostException e) {
-            LogFactory.getLog(RequestHandlerBase.class).error("Couldn't get the hostname needed for header Via", e);
-        }
-        
         Header originalVia = method.getResponseHeader("via");
-        StringBuffer via = new StringBuffer("");
+        String via = ProxyIdentity.getVia(method.getStatusLine().getHttpVersion());
         if (originalVia != null) {
-            via.append(originalVia.getValue()).append(", ");
+            via = originalVia.getValue() + ", " + via;
         }
-        via.append(method.getStatusLine().getHttpVersion()).append(" ").append(serverHostName);
          
-        response.setHeader("via", via.toString());
+        response.setHeader("via", via);
     }
 }
@@ -18,6 +18,8 @@ package net.sf.j2ep.rules;
 
 import javax.servlet.http.HttpServletRequest;
 
+import net.sf.j2ep.model.MappingVersion;
+
 /**
  * A rule that will check the start of the URI for a specifed
  * starting directory/directories. If the directory is at the start this
@@ -53,6 +55,7 @@ public class DirectoryRule extends BaseRule {
                 directory += "/";
             }
             this.directory = directory;
+            MappingVersion.changed();
         }
     }
 
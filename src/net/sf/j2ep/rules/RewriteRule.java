@@ -21,6 +21,8 @@ import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import net.sf.j2ep.model.MappingVersion;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -39,6 +41,12 @@ public class RewriteRule extends BaseRule {
      */
     private Pattern matchPattern;
     
+    /** 
+     * The URI matched when the pattern is a plain string,
+     * otherwise null.
+     */
+    private String exactMatch;
+    
     /** 
      * The string we rewrite to.
      */
@@ -129,7 +137,34 @@ public class RewriteRule extends BaseRule {
             throw new IllegalArgumentException("From pattern cannot be null.");
         } else {
             matchPattern = Pattern.compile(regex);
+            exactMatch = isLiteral(regex) ? regex : null;
+            MappingVersion.changed();
+        }
+    }
+    
+    /**
+     * Returns the only URI this rule matches, this is the case
+     * when the from pattern doesn't have any special characters.
+     * 
+     * @return The URI, null if the rule can match more than one URI
+     */
+    public String getExactMatch() {
+        return exactMatch;
+    }
+    
+    /**
+     * Checks if a regex only matches the string itself.
+     * 
+     * @param regex The regex
+     * @return true if there are no special characters in the regex
+     */
+    private boolean isLiteral(String regex) {
+        for (int i=0; i < regex.length(); i++) {
+            if ("\\^$.|?*+()[]{}".indexOf(regex.charAt(i)) != -1) {
+                return false;
+            }
         }
+        return true;
     }
     
     /**
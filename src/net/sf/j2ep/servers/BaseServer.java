@@ -19,6 +19,7 @@ package net.sf.j2ep.servers;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import net.sf.j2ep.model.MappingVersion;
 import net.sf.j2ep.model.Server;
 
 /**
@@ -109,6 +110,14 @@ public class BaseServer extends ServerContainerBase implements Server {
     public String getPath() {
         return path;
     }
+    
+    /**
+     * A base server is never in a cluster.
+     * @see net.sf.j2ep.model.Server#getClusterName()
+     */
+    public String getClusterName() {
+        return null;
+    }
 
     /**
      * @see net.sf.j2ep.model.ServerContainer#getServerMapped(java.lang.String)
@@ -122,6 +131,16 @@ public class BaseServer extends ServerContainerBase implements Server {
         }
     }
     
+    /**
+     * Returns if absolute links mapped for this server
+     * are rewritten.
+     * 
+     * @return true if we are rewriting
+     */
+    public boolean isRewriting() {
+        return isRewriting;
+    }
+    
     /**
      * Set if this server wants absolute links mapped
      * for this server to be rewritten.
@@ -131,6 +150,7 @@ public class BaseServer extends ServerContainerBase implements Server {
     public void setIsRewriting(String rewrite) {
         if (rewrite != null && rewrite.equals("true")) {
             isRewriting = true;
+            MappingVersion.changed();
         }
     }   
     
@@ -154,6 +174,7 @@ public class BaseServer extends ServerContainerBase implements Server {
                     "The hostAndPort string cannot be null.");
         } else {
             this.domainName = domainName;
+            MappingVersion.changed();
         }
     }
     
@@ -167,6 +188,7 @@ public class BaseServer extends ServerContainerBase implements Server {
         } else {
             this.path = path;
         }
+        MappingVersion.changed();
     }
 
     /**
@@ -174,4 +196,33 @@ public class BaseServer extends ServerContainerBase implements Server {
      */
     public void setConnectionExceptionRecieved(Exception e) {
     }
+    
+    /**
+     * There is no other server to retry on.
+     * @see net.sf.j2ep.model.Server#getRetryServer(java.lang.String, boolean, int)
+     */
+    public Server getRetryServer(String method, boolean sent, int retries) {
+        return null;
+    }
+    
+    /**
+     * Will not do any handling
+     * @see net.sf.j2ep.model.Server#requestStarted()
+     */
+    public void requestStarted() {
+    }
+    
+    /**
+     * Will not do any handling
+     * @see net.sf.j2ep.model.Server#requestFinished(long, boolean)
+     */
+    public void requestFinished(long responseTime, boolean failed) {
+    }
+    
+    /**
+     * Will not do any handling
+     * @see net.sf.j2ep.model.Server#requestAborted()
+     */
+    public void requestAborted() {
+    }
 }
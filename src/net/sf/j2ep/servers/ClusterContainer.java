@@ -16,8 +16,13 @@
 
 package net.sf.j2ep.servers;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.StringTokenizer;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -26,6 +31,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import net.sf.j2ep.model.MappingVersion;
 import net.sf.j2ep.model.Rule;
 import net.sf.j2ep.model.Server;
 
@@ -49,16 +55,105 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
      */
     protected HashMap servers;
     
+    /** 
+     * The servers in the order they were added. The array is
+     * replaced when a server is added, never changed.
+     */
+    private volatile ClusteredServer[] serverArray;
+    
+    /** 
+     * Time in milliseconds it takes for an old response time to
+     * lose most of its influence on the average response time.
+     */
+    private long decayTime;
+    
+    /** 
+     * Number of failed requests in a row before a server is ejected,
+     * 0 if servers are never ejected.
+     */
+    private int ejectThreshold;
+    
+    /** 
+     * Time in milliseconds a server is ejected the first time.
+     */
+    private long ejectTime;
+    
+    /** 
+     * The longest time in milliseconds a server is ejected.
+     */
+    private long maxEjectTime;
+    
+    /** 
+     * The methods retried after the request has been sent, in upper case.
+     */
+    private Set retryMethods;
+    
+    /** 
+     * The max number of times a request is retried.
+     */
+    private int maxRetries;
+    
+    /** 
+     * The part of the requests that may be retried.
+     */
+    private double retryBudget;
+    
+    /** 
+     * Number of requests counted for the retry budget.
+     */
+    private int budgetRequests;
+    
+    /** 
+     * Number of retries counted for the retry budget.
+     */
+    private int budgetRetries;
+    
+    /** 
+     * The time the counting for the retry budget started.
+     */
+    private long budgetStart;
+    
+    /** 
+     * Time in milliseconds the requests and retries are counted
+     * before the counting starts over.
+     */
+    private static final long BUDGET_PERIOD = 10000;
+    
+    /** 
+     * Number of retries allowed in each period even if there
+     * has been few requests.
+     */
+    private static final int MIN_RETRIES = 10;
+    
     /** 
      * Class that will check if our servers are online or offline.
      */
     private ServerStatusChecker statusChecker;
     
+    /** 
+     * The name of this cluster, null until it's set or made from
+     * the servers.
+     */
+    private volatile String name;
+    
+    /** 
+     * true if the name was set, false if it's made from the servers.
+     */
+    private boolean named;
+    
     /**
      * Basic constructor
      */
     public ClusterContainer() {
         servers = new HashMap();
+        serverArray = new ClusteredServer[0];
+        decayTime = 10000;
+        ejectThreshold = 5;
+        ejectTime = 1000;
+        maxEjectTime = 60000;
+        setRetryMethods("GET,HEAD,OPTIONS");
+        maxRetries = 1;
+        retryBudget = 0.2;
         statusChecker = new ServerStatusChecker(this, 5*60*1000);
         statusChecker.start();
         log = LogFactory.getLog(ClusterContainer.class);
@@ -75,7 +170,7 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
     /**
      * Returns the next server in out cluster.
      * Is used when we can't get a server from the requests session.
-     * @return The next server
+     * @return The next server, null if the cluster has no servers
      */
     protected abstract ClusteredServer getNextServer();
     
@@ -88,6 +183,7 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
      * @see net.sf.j2ep.model.ServerContainer#getServer(javax.servlet.http.HttpServletRequest)
      */
     public Server getServer(HttpServletRequest request) {
+        countRequest();
         String serverId = getServerIdFromCookie(request.getCookies());
         ClusteredServer server = (ClusteredServer) servers.get(serverId);
         if (server == null || !server.online()) {
@@ -96,7 +192,9 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
             log.debug("Server found in session");
         }
         
-        if (server.online()) {
+        if (server == null) {
+            log.error("There are no servers in this cluster");
+        } else if (server.online()) {
             log.debug("Using id " + server.getServerId() + " for this request"); 
         } else {
             log.error("All the servers in this cluster are offline. Using id " + server.getServerId() + ", will probably not work");
@@ -160,6 +258,301 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
         return match;
     }
     
+    /**
+     * Returns the servers in this cluster.
+     * 
+     * @return The servers, a collection of Server
+     */
+    public Collection getServers() {
+        return Collections.unmodifiableCollection(servers.values());
+    }
+    
+    /**
+     * Returns the servers in this cluster in the order they were
+     * added. The array must not be changed.
+     * 
+     * @return The servers
+     */
+    protected ClusteredServer[] getServerArray() {
+        return serverArray;
+    }
+    
+    /**
+     * Returns the name of this cluster, used in the metrics. If
+     * no name is set the name is made from the domain names and
+     * paths of the servers.
+     * 
+     * @return The name
+     */
+    public String getName() {
+        String current = name;
+        if (current == null) {
+            ClusteredServer[] array = serverArray;
+            StringBuffer buffer = new StringBuffer();
+            for (int i=0; i < array.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                buffer.append(array[i].getDomainName()).append(array[i].getPath());
+            }
+            current = buffer.toString();
+            name = current;
+        }
+        return current;
+    }
+    
+    /**
+     * Sets the name of this cluster.
+     * 
+     * @param name The name
+     */
+    public synchronized void setName(String name) {
+        this.name = name;
+        named = name != null;
+    }
+    
+    /**
+     * Returns the decay time for the average response times.
+     * 
+     * @return The decay time in milliseconds
+     */
+    public long getDecayTime() {
+        return decayTime;
+    }
+    
+    /**
+     * Sets the time it takes for an old response time to lose
+     * most of its influence on the average response time of a
+     * server. A shorter time makes the average follow changes faster.
+     * 
+     * @param decayTime The decay time in milliseconds
+     */
+    public void setDecayTime(long decayTime) {
+        if (decayTime <= 0) {
+            throw new IllegalArgumentException("The decay time has to be positive");
+        }
+        this.decayTime = decayTime;
+    }
+    
+    /**
+     * Returns the number of failed requests in a row before
+     * a server is ejected.
+     * 
+     * @return The number of requests, 0 if servers are never ejected
+     */
+    public int getEjectThreshold() {
+        return ejectThreshold;
+    }
+    
+    /**
+     * Sets the number of failed requests in a row before a server
+     * is ejected from the cluster. A request has failed when the
+     * server couldn't be reached, timed out or answered with a 5xx
+     * status.
+     * 
+     * @param ejectThreshold The number of requests, 0 to never eject servers
+     */
+    public void setEjectThreshold(int ejectThreshold) {
+        if (ejectThreshold < 0) {
+            throw new IllegalArgumentException("The eject threshold can't be negative");
+        }
+        this.ejectThreshold = ejectThreshold;
+    }
+    
+    /**
+     * Sets the time a server is ejected the first time. When a
+     * server fails again after being let back the time is doubled,
+     * up to the max eject time.
+     * 
+     * @param ejectTime The time in milliseconds
+     */
+    public void setEjectTime(long ejectTime) {
+        if (ejectTime <= 0) {
+            throw new IllegalArgumentException("The eject time has to be positive");
+        }
+        this.ejectTime = ejectTime;
+    }
+    
+    /**
+     * Sets the longest time a server is ejected.
+     * 
+     * @param maxEjectTime The time in milliseconds
+     */
+    public void setMaxEjectTime(long maxEjectTime) {
+        if (maxEjectTime <= 0) {
+            throw new IllegalArgumentException("The max eject time has to be positive");
+        }
+        this.maxEjectTime = maxEjectTime;
+    }
+    
+    /**
+     * Sets the methods that are retried on another server even if the
+     * request might have reached the first server, for instance when
+     * the connection was closed without a response. Requests that
+     * never reached the server are retried whatever the method.
+     * 
+     * @param retryMethods The methods separated by commas, e.g. "GET,HEAD,PUT"
+     */
+    public void setRetryMethods(String retryMethods) {
+        Set methods = new HashSet();
+        StringTokenizer tokenizer = new StringTokenizer(retryMethods, ", ");
+        while (tokenizer.hasMoreTokens()) {
+            methods.add(tokenizer.nextToken().toUpperCase());
+        }
+        this.retryMethods = methods;
+    }
+    
+    /**
+     * Sets the max number of times a request is retried on
+     * another server.
+     * 
+     * @param maxRetries The number of retries, 0 to never retry
+     */
+    public void setMaxRetries(int maxRetries) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("The max retries can't be negative");
+        }
+        this.maxRetries = maxRetries;
+    }
+    
+    /**
+     * Sets how large part of the requests may be retried, so that
+     * a failing cluster isn't flooded with retries. A few retries
+     * are always allowed.
+     * 
+     * @param retryBudget The part of the requests, 0.2 is a fifth
+     */
+    public void setRetryBudget(double retryBudget) {
+        if (retryBudget < 0) {
+            throw new IllegalArgumentException("The retry budget can't be negative");
+        }
+        this.retryBudget = retryBudget;
+    }
+    
+    /**
+     * Finds another server to send a request to when a server
+     * failed. The request is only retried if the budget allows it.
+     * 
+     * @param failed The server that failed
+     * @param method The method of the request
+     * @param sent true if the request might have reached the server
+     * @param retries The number of times the request has been retried
+     * @return The server to use, null if the request shouldn't be retried
+     */
+    protected Server getRetryServer(ClusteredServer failed, String method, boolean sent, int retries) {
+        if (retries >= maxRetries || (sent && !retryMethods.contains(method.toUpperCase()))) {
+            return null;
+        }
+        
+        ClusteredServer[] current = getServerArray();
+        for (int i=0; i < current.length; i++) {
+            ClusteredServer server = getNextServer();
+            if (server != failed && server.online()) {
+                if (useRetry()) {
+                    log.debug("Retrying request on id " + server.getServerId());
+                    return server;
+                } else {
+                    log.warn("The retry budget is used up, not retrying request");
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Counts a request for the retry budget.
+     */
+    private synchronized void countRequest() {
+        startBudgetPeriod();
+        budgetRequests++;
+    }
+    
+    /**
+     * Counts a retry if the budget allows it.
+     * 
+     * @return true if the request can be retried
+     */
+    private synchronized boolean useRetry() {
+        startBudgetPeriod();
+        if (budgetRetries >= Math.max(MIN_RETRIES, budgetRequests * retryBudget)) {
+            return false;
+        }
+        budgetRetries++;
+        return true;
+    }
+    
+    /**
+     * Starts counting requests and retries again when
+     * the period is over.
+     */
+    private void startBudgetPeriod() {
+        long now = System.currentTimeMillis();
+        if (now - budgetStart >= BUDGET_PERIOD) {
+            budgetStart = now;
+            budgetRequests = 0;
+            budgetRetries = 0;
+        }
+    }
+    
+    /**
+     * Sets the time between the checks of the servers status.
+     * 
+     * @param checkInterval The time in milliseconds
+     */
+    public void setCheckInterval(long checkInterval) {
+        statusChecker.setPollingTime(checkInterval);
+    }
+    
+    /**
+     * Sets the path requested when checking the servers status,
+     * relative to each server's path.
+     * 
+     * @param checkPath The path, starting with /
+     */
+    public void setCheckPath(String checkPath) {
+        statusChecker.setPath(checkPath);
+    }
+    
+    /**
+     * Sets the status codes a server may answer the check with,
+     * for instance "200,3xx". By default any code but 5xx is accepted.
+     * 
+     * @param checkExpectedStatus The codes
+     */
+    public void setCheckExpectedStatus(String checkExpectedStatus) {
+        statusChecker.setExpectedStatus(checkExpectedStatus);
+    }
+    
+    /**
+     * Sets the number of passed checks in a row needed before
+     * an offline server is used again.
+     * 
+     * @param checkRise The number of checks
+     */
+    public void setCheckRise(int checkRise) {
+        statusChecker.setRise(checkRise);
+    }
+    
+    /**
+     * Sets the number of failed checks in a row needed before
+     * a server is taken offline.
+     * 
+     * @param checkFall The number of checks
+     */
+    public void setCheckFall(int checkFall) {
+        statusChecker.setFall(checkFall);
+    }
+    
+    /**
+     * Sets the connect and read timeout of the checks.
+     * 
+     * @param checkTimeout The timeout in milliseconds
+     */
+    public void setCheckTimeout(int checkTimeout) {
+        statusChecker.setTimeout(checkTimeout);
+    }
+    
     /**
      * Sets the server to offline status.
      * Will only handle servers that are ClusteredServers
@@ -188,7 +581,20 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
      * @param domainName The domain name for the new server
      * @param directory The director for the new server.
      */
-    public synchronized void addServer(String domainName, String directory) {
+    public void addServer(String domainName, String directory) {
+        addServer(domainName, directory, null);
+    }
+    
+    /**
+     * Will create a new ClusteredServer with a weight and add it
+     * to the hash map. The weight decides how large part of the
+     * requests the server gets compared to the other servers.
+     * 
+     * @param domainName The domain name for the new server
+     * @param directory The director for the new server.
+     * @param weight The weight, null for the default weight 1
+     */
+    public synchronized void addServer(String domainName, String directory, String weight) {
         if (domainName == null) {
             throw new IllegalArgumentException("The domainName cannot be null");
         }
@@ -197,11 +603,37 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
         }
         
         ClusteredServer server = createNewServer(domainName, directory);
+        if (weight != null) {
+            try {
+                server.setWeight(Integer.parseInt(weight.trim()));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("The weight has to be a number");
+            }
+        }
         servers.put(server.getServerId(), server);
+        ClusteredServer[] newArray = new ClusteredServer[serverArray.length + 1];
+        System.arraycopy(serverArray, 0, newArray, 0, serverArray.length);
+        newArray[serverArray.length] = server;
+        serverArray = newArray;
+        if (!named) {
+            name = null;
+        }
+        serverAdded(server);
+        MappingVersion.changed();
         statusChecker.addServer(server);
         log.debug("Added server " + domainName + directory + " to the cluster on id " + server.getServerId());
     }
     
+    /**
+     * Called when a server has been added to the cluster, can be
+     * used by subclasses that keep their own structures of the
+     * servers.
+     * 
+     * @param server The added server
+     */
+    protected void serverAdded(ClusteredServer server) {
+    }
+    
     /**
      * A server in the cluster. Will have access to the encapsulating Cluster
      * so that we can use its methods to get the rule and such.
@@ -230,6 +662,42 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
          */
         private boolean online;
         
+        /** 
+         * The weight of this server
+         */
+        private int weight;
+        
+        /** 
+         * The number of requests in progress to this server.
+         */
+        private int activeRequests;
+        
+        /** 
+         * The average response time in milliseconds.
+         */
+        private double averageResponseTime;
+        
+        /** 
+         * The time the average response time was last updated.
+         */
+        private long lastUpdate;
+        
+        /** 
+         * Number of failed requests in a row.
+         */
+        private int failures;
+        
+        /** 
+         * Number of times this server has been ejected since
+         * its last successful request.
+         */
+        private int ejections;
+        
+        /** 
+         * The time this server is ejected until.
+         */
+        private volatile long ejectedUntil;
+        
         /**
          * Basic constructor that sets the domain name and directory.
          * 
@@ -241,6 +709,7 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
             this.path = path;
             this.serverId = serverId;
             this.online = true;
+            this.weight = 1;
         }
 
         /**
@@ -269,7 +738,99 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
          * @see net.sf.j2ep.model.Server#setConnectionExceptionRecieved(java.lang.Exception)
          */
         public void setConnectionExceptionRecieved(Exception e) {
-            ClusterContainer.this.statusChecker.interrupt();
+            ClusterContainer.this.statusChecker.checkNow();
+        }
+
+        /**
+         * Asks the cluster for another server.
+         * @see net.sf.j2ep.model.Server#getRetryServer(java.lang.String, boolean, int)
+         */
+        public Server getRetryServer(String method, boolean sent, int retries) {
+            return ClusterContainer.this.getRetryServer(this, method, sent, retries);
+        }
+
+        /**
+         * Counts the request as being in progress.
+         * @see net.sf.j2ep.model.Server#requestStarted()
+         */
+        public synchronized void requestStarted() {
+            activeRequests++;
+        }
+        
+        /**
+         * Updates the average response time. The average is a peak
+         * exponentially weighted moving average, a response time
+         * higher than the average replaces it at once while lower
+         * response times bring the average down over the decay time.
+         * 
+         * Failed requests in a row are counted and when they reach the
+         * eject threshold the server is ejected from the cluster. An
+         * ejected server is let back when the eject time has passed,
+         * if it fails again it is ejected for twice as long.
+         * @see net.sf.j2ep.model.Server#requestFinished(long, boolean)
+         */
+        public synchronized void requestFinished(long responseTime, boolean failed) {
+            activeRequests--;
+            if (!failed) {
+                failures = 0;
+                ejections = 0;
+            } else {
+                failures++;
+                int threshold = ClusterContainer.this.getEjectThreshold();
+                long now = System.currentTimeMillis();
+                if (threshold > 0 && failures >= threshold && now >= ejectedUntil) {
+                    eject(now);
+                }
+            }
+            if (responseTime >= 0) {
+                long now = System.currentTimeMillis();
+                if (responseTime > averageResponseTime) {
+                    averageResponseTime = responseTime;
+                } else {
+                    double elapsed = Math.max(0, now - lastUpdate);
+                    double factor = Math.exp(-elapsed / ClusterContainer.this.getDecayTime());
+                    averageResponseTime = averageResponseTime * factor + responseTime * (1 - factor);
+                }
+                lastUpdate = now;
+            }
+        }
+        
+        /**
+         * Stops counting the request as in progress, the failure
+         * count and the average response time are left as they are.
+         * @see net.sf.j2ep.model.Server#requestAborted()
+         */
+        public synchronized void requestAborted() {
+            activeRequests--;
+        }
+        
+        /**
+         * Ejects this server, the time doubles each time the
+         * server is ejected without a successful request between.
+         * @param now The current time
+         */
+        private void eject(long now) {
+            long time = Math.min(ejectTime << Math.min(ejections, 30), maxEjectTime);
+            ejectedUntil = now + time;
+            ejections++;
+            log.warn("Ejecting server " + domainName + path + " for " + time + " ms after " + failures + " failed requests");
+            ClusterContainer.this.statusChecker.checkNow();
+        }
+        
+        /**
+         * Returns the number of requests in progress to this server.
+         * @return The number of requests
+         */
+        public synchronized int getActiveRequests() {
+            return activeRequests;
+        }
+        
+        /**
+         * Returns the average response time of this server.
+         * @return The average in milliseconds
+         */
+        public synchronized double getAverageResponseTime() {
+            return averageResponseTime;
         }
 
         /**
@@ -294,11 +855,19 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
         }
         
         /**
-         * Returns the online status of this server
+         * @see net.sf.j2ep.model.Server#getClusterName()
+         */
+        public String getClusterName() {
+            return ClusterContainer.this.getName();
+        }
+        
+        /**
+         * Returns the online status of this server, a server that
+         * has been ejected is offline until the eject time has passed.
          * @return true if the server is online, otherwise false
          */
         public boolean online() {
-            return online;
+            return online && System.currentTimeMillis() >= ejectedUntil;
         }
         
         /**
@@ -317,6 +886,42 @@ public abstract class ClusterContainer extends ServerContainerBase implements Se
             return ClusterContainer.this.getRule();
         }
         
+        /**
+         * Uses the setting of the cluster, the limit is
+         * for each server in the cluster.
+         * @see net.sf.j2ep.model.Server#getMaxConnections()
+         */
+        public int getMaxConnections() {
+            return ClusterContainer.this.getMaxConnections();
+        }
+        
+        /**
+         * @see net.sf.j2ep.model.Server#getSocketTimeout()
+         */
+        public int getSocketTimeout() {
+            return ClusterContainer.this.getSocketTimeout();
+        }
+        
+        /**
+         * Returns the weight of this server, used to decide how
+         * large part of the requests this server gets.
+         * @return The weight
+         */
+        public int getWeight() {
+            return weight;
+        }
+        
+        /**
+         * Sets the weight of this server.
+         * @param weight The weight, has to be at least 1
+         */
+        public void setWeight(int weight) {
+            if (weight < 1) {
+                throw new IllegalArgumentException("The weight has to be at least 1");
+            }
+            this.weight = weight;
+        }
+        
         /**
          * Returns this servers ID.
          * @return The server ID
@@ -0,0 +1,438 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.servers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.SimpleHttpConnectionManager;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Makes the checks for all ServerStatusCheckers. There is one
+ * scheduler for the whole application, so the number of threads
+ * doesn't grow with the number of clusters.
+ * 
+ * The checks are keyed on URL, a server present in several
+ * clusters is only checked once and the result is given to every
+ * checker. The server is checked as often as the checker with the
+ * shortest polling time wants. The checks are made in parallel by
+ * a small number of probe threads, a new probe is started when a
+ * target is queued and every probe is busy, so a server that doesn't
+ * answer won't delay the checks of the other servers.
+ * 
+ * The filters using the scheduler acquire it when they are initialized
+ * and release it when they are destroyed. It's shut down when the last
+ * one is released and isn't started again until it's acquired, so a
+ * server checked after the application is stopped doesn't leave a new
+ * thread behind, while destroying one filter doesn't stop the checks
+ * of the others.
+ *
+ * @author Anders Nyman
+ */
+public class HealthCheckScheduler extends Thread {
+    
+    /** 
+     * The max number of servers checked at the same time.
+     */
+    private static final int MAX_PROBES = 4;
+    
+    /** 
+     * The scheduler in use, null until it's needed.
+     */
+    private static HealthCheckScheduler instance;
+    
+    /** 
+     * Marks that the scheduler is shut down and shouldn't be started.
+     */
+    private static boolean shutDown = false;
+    
+    /** 
+     * The number of filters that have acquired the scheduler.
+     */
+    private static int users = 0;
+    
+    /** 
+     * The URLs checked, mapped to their Target.
+     */
+    private HashMap targets;
+    
+    /** 
+     * Targets waiting for a probe thread.
+     */
+    private LinkedList queue;
+    
+    /** 
+     * The probe threads, started when they are needed.
+     */
+    private List probes;
+    
+    /** 
+     * The number of probe threads checking a target.
+     */
+    private int busyProbes;
+    
+    /** 
+     * Marks if the scheduler is running.
+     */
+    private boolean running;
+    
+    /** 
+     * Logging element supplied by commons-logging.
+     */
+    private static Log log = LogFactory.getLog(HealthCheckScheduler.class);
+    
+    /**
+     * Returns the scheduler, starting it if needed.
+     * 
+     * @return The scheduler, null if it's shut down
+     */
+    public static synchronized HealthCheckScheduler getInstance() {
+        if (shutDown) {
+            return null;
+        } else if (instance == null) {
+            instance = new HealthCheckScheduler();
+            instance.start();
+        }
+        return instance;
+    }
+    
+    /**
+     * Stops the scheduler and its probe threads. All servers
+     * stop being checked and no checks are made until the scheduler
+     * is acquired again, whoever has acquired it.
+     */
+    public static synchronized void shutdown() {
+        shutDown = true;
+        if (instance != null) {
+            instance.stopChecks();
+            instance = null;
+        }
+    }
+    
+    /**
+     * Marks that a filter uses the scheduler and lets it be started
+     * again after a shutdown. Called when the filters are initialized,
+     * so a proxy that is destroyed and initialized again by the
+     * container checks its servers.
+     */
+    public static synchronized void acquire() {
+        users++;
+        shutDown = false;
+    }
+    
+    /**
+     * Marks that a filter no longer uses the scheduler. When no
+     * filter uses it the scheduler is shut down.
+     */
+    public static synchronized void release() {
+        if (users > 0) {
+            users--;
+        }
+        if (users == 0) {
+            shutdown();
+        }
+    }
+    
+    /**
+     * Basic constructor.
+     */
+    private HealthCheckScheduler() {
+        super("HealthCheckScheduler");
+        setPriority(Thread.NORM_PRIORITY-1);
+        setDaemon(true);
+        targets = new HashMap();
+        queue = new LinkedList();
+        probes = new ArrayList();
+        running = true;
+    }
+    
+    /**
+     * Adds a server to be checked and makes the next check of
+     * its URL happen at once, unless a check is already on its
+     * way. Adding a server already checked only makes the check
+     * happen at once.
+     * 
+     * @param status The status of the server
+     */
+    synchronized void add(ServerStatusChecker.ServerStatus status) {
+        Target target = (Target) targets.get(status.getURL());
+        if (target == null) {
+            target = new Target(status.getURL());
+            targets.put(target.url, target);
+        }
+        if (!target.statuses.contains(status)) {
+            target.statuses.add(status);
+        }
+        if (!target.queued) {
+            target.nextCheck = 0;
+            notifyAll();
+        }
+    }
+    
+    /**
+     * Stops checking a server.
+     * 
+     * @param status The status of the server
+     */
+    synchronized void remove(ServerStatusChecker.ServerStatus status) {
+        Target target = (Target) targets.get(status.getURL());
+        if (target != null) {
+            target.statuses.remove(status);
+            if (target.statuses.isEmpty()) {
+                targets.remove(target.url);
+            }
+        }
+    }
+    
+    /**
+     * Queues the targets that are due to be checked and waits
+     * until the next one is.
+     * @see java.lang.Runnable#run()
+     */
+    public synchronized void run() {
+        while (running) {
+            long now = System.currentTimeMillis();
+            long wait = 60000;
+            Iterator itr = targets.values().iterator();
+            while (itr.hasNext()) {
+                Target target = (Target) itr.next();
+                if (target.queued) {
+                    continue;
+                } else if (target.nextCheck <= now) {
+                    target.queued = true;
+                    queue.add(target);
+                } else {
+                    wait = Math.min(wait, target.nextCheck - now);
+                }
+            }
+            
+            if (!queue.isEmpty()) {
+                while (probes.size() - busyProbes < queue.size() && probes.size() < MAX_PROBES) {
+                    Probe probe = new Probe();
+                    probes.add(probe);
+                    probe.start();
+                }
+                notifyAll();
+            }
+            
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Stops the scheduler and the probe threads.
+     */
+    private synchronized void stopChecks() {
+        running = false;
+        targets.clear();
+        queue.clear();
+        notifyAll();
+    }
+    
+    /**
+     * Takes the next target to check, waiting for one if needed.
+     * 
+     * @return The target, null if the scheduler is stopped
+     * @throws InterruptedException If the thread is interrupted
+     */
+    private synchronized Target nextTarget() throws InterruptedException {
+        while (running && queue.isEmpty()) {
+            wait();
+        }
+        if (!running) {
+            return null;
+        }
+        busyProbes++;
+        return (Target) queue.removeFirst();
+    }
+    
+    /**
+     * Schedules the next check of a target.
+     * 
+     * @param target The target just checked
+     */
+    private synchronized void checked(Target target) {
+        long interval = Long.MAX_VALUE;
+        for (int i=0; i < target.statuses.size(); i++) {
+            ServerStatusChecker.ServerStatus status = (ServerStatusChecker.ServerStatus) target.statuses.get(i);
+            interval = Math.min(interval, status.getPollingTime());
+        }
+        busyProbes--;
+        target.queued = false;
+        target.nextCheck = System.currentTimeMillis() + interval;
+        notifyAll();
+    }
+    
+    /**
+     * A URL to check and the servers interested in the result.
+     */
+    private static class Target {
+        
+        /** 
+         * The URL checked.
+         */
+        private String url;
+        
+        /** 
+         * The statuses updated with the result, guarded by the scheduler.
+         */
+        private List statuses;
+        
+        /** 
+         * The time of the next check, 0 to check at once.
+         */
+        private long nextCheck;
+        
+        /** 
+         * Marks if a check is waiting or running.
+         */
+        private boolean queued;
+        
+        /**
+         * Basic constructor.
+         * 
+         * @param url The URL checked
+         */
+        public Target(String url) {
+            this.url = url;
+            statuses = new ArrayList();
+            nextCheck = 0;
+            queued = false;
+        }
+    }
+    
+    /**
+     * A thread making the queued checks. Each probe has its own
+     * client so the timeouts can be set for each check.
+     */
+    private class Probe extends Thread {
+        
+        /** 
+         * Client used to make the connections.
+         */
+        private HttpClient httpClient;
+        
+        /**
+         * Creates a daemon thread.
+         */
+        public Probe() {
+            super("HealthCheckProbe");
+            setPriority(Thread.NORM_PRIORITY-1);
+            setDaemon(true);
+            httpClient = new HttpClient(new SimpleHttpConnectionManager());
+            httpClient.getParams().setBooleanParameter(HttpClientParams.USE_EXPECT_CONTINUE, false);
+            httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+            httpClient.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, new DefaultHttpMethodRetryHandler(0, false));
+        }
+        
+        /**
+         * Takes the next target from the queue and checks it.
+         * @see java.lang.Runnable#run()
+         */
+        public void run() {
+            try {
+                for (Target target = nextTarget(); target != null; target = nextTarget()) {
+                    check(target);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                ((SimpleHttpConnectionManager) httpClient.getHttpConnectionManager()).closeIdleConnections(0);
+            }
+        }
+        
+        /**
+         * Makes a request to the target's URL and gives the
+         * result to every server status interested, including
+         * those added while the request was made. The next check
+         * is scheduled even if a status or its listener fails,
+         * otherwise the target would never be checked again.
+         * 
+         * @param target The target
+         */
+        private void check(Target target) {
+            try {
+                Object[] statuses;
+                int timeout = Integer.MAX_VALUE;
+                synchronized (HealthCheckScheduler.this) {
+                    statuses = target.statuses.toArray();
+                }
+                for (int i=0; i < statuses.length; i++) {
+                    timeout = Math.min(timeout, ((ServerStatusChecker.ServerStatus) statuses[i]).getTimeout());
+                }
+                
+                int statusCode = request(target.url, timeout);
+                synchronized (HealthCheckScheduler.this) {
+                    statuses = target.statuses.toArray();
+                }
+                for (int i=0; i < statuses.length; i++) {
+                    try {
+                        ((ServerStatusChecker.ServerStatus) statuses[i]).checked(statusCode);
+                    } catch (RuntimeException e) {
+                        log.error("Handling the check of " + target.url + " failed", e);
+                    }
+                }
+            } finally {
+                checked(target);
+            }
+        }
+        
+        /**
+         * Makes the request.
+         * 
+         * @param url The URL to request
+         * @param timeout The connect and read timeout
+         * @return The status code, -1 if there was no response
+         */
+        private int request(String url, int timeout) {
+            HttpConnectionManagerParams params = httpClient.getHttpConnectionManager().getParams();
+            params.setConnectionTimeout(timeout);
+            params.setSoTimeout(timeout);
+            
+            GetMethod get = null;
+            try {
+                get = new GetMethod(url);
+                get.setFollowRedirects(false);
+                httpClient.executeMethod(get);
+                return get.getStatusCode();
+            } catch (Exception e) {
+                log.debug("Check of " + url + " failed", e);
+                return -1;
+            } finally {
+                if (get != null) {
+                    get.releaseConnection();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.servers;
+
+import java.util.Random;
+
+/**
+ * A cluster preferring the servers that respond fastest. Two
+ * online servers are picked at random and the request is sent to
+ * the one with the lowest cost, the cost being the average response
+ * time multiplied with the number of requests in progress plus one.
+ *
+ * Comparing two random servers instead of all servers keeps a
+ * single fast server from getting all requests at once while the
+ * slow servers still get few requests. The average response time
+ * follows the peaks so a server that suddenly becomes slow is avoided
+ * at once. How fast the average goes down again is set with the
+ * decayTime attribute.
+ *
+ * @author Anders Nyman
+ */
+public class LatencyAwareCluster extends ClusterContainer {
+
+    /**
+     * The current number of servers, only used at when the servers are added to
+     * the hash map. It is assumed that this variable is only modified in a
+     * single threaded environment.
+     */
+    private int numberOfServers;
+
+    /**
+     * Used to pick the servers to compare.
+     */
+    private Random random;
+
+    /**
+     * Creates a new latency aware cluster
+     */
+    public LatencyAwareCluster() {
+        super();
+        numberOfServers = 0;
+        random = new Random();
+    }
+
+    /**
+     * Picks two online servers at random and returns the one with
+     * the lowest cost. If all servers are offline a server is
+     * returned anyway.
+     *
+     * @see net.sf.j2ep.servers.ClusterContainer#getNextServer()
+     */
+    protected ClusteredServer getNextServer() {
+        ClusteredServer[] current = getServerArray();
+        if (current.length == 0) {
+            return null;
+        }
+        int first = random.nextInt(current.length);
+        ClusteredServer a = findOnline(current, first);
+        if (a == null) {
+            return current[first];
+        }
+
+        int second = random.nextInt(current.length);
+        if (second == first && current.length > 1) {
+            second = (second + 1) % current.length;
+        }
+        ClusteredServer b = findOnline(current, second);
+        if (b == null || b == a) {
+            return a;
+        } else {
+            return getCost(a) <= getCost(b) ? a : b;
+        }
+    }
+
+    /**
+     * Finds the first online server starting at a position.
+     *
+     * @param current The servers
+     * @param start The position to start at
+     * @return The server, null if all servers are offline
+     */
+    private ClusteredServer findOnline(ClusteredServer[] current, int start) {
+        for (int i=0; i < current.length; i++) {
+            ClusteredServer server = current[(start + i) % current.length];
+            if (server.online()) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the cost of sending a request to the server.
+     *
+     * @param server The server
+     * @return The cost
+     */
+    private double getCost(ClusteredServer server) {
+        double cost = server.getAverageResponseTime() * (server.getActiveRequests() + 1);
+        return cost / server.getWeight();
+    }
+
+    /**
+     * @see net.sf.j2ep.servers.ClusterContainer#createNewServer(java.lang.String, java.lang.String)
+     */
+    protected ClusteredServer createNewServer(String domainName, String directory) {
+        String id = "server" + numberOfServers;
+        numberOfServers++;
+        ClusteredServer server = new ClusteredServer(domainName, directory, id);
+        return server;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.servers;
+
+/**
+ * A cluster sending each request to the server with the fewest
+ * requests in progress. The number of requests is divided by the
+ * server's weight so a server with weight 2 is given twice as many
+ * concurrent requests. When servers are equally loaded they are
+ * used in turn.
+ *
+ * @author Anders Nyman
+ */
+public class LeastConnectionsCluster extends ClusterContainer {
+
+    /**
+     * The current number of servers, only used at when the servers are added to
+     * the hash map. It is assumed that this variable is only modified in a
+     * single threaded environment.
+     */
+    private int numberOfServers;
+
+    /**
+     * The position to start looking from, moved for each request so
+     * that equally loaded servers are used in turn.
+     */
+    private int startPosition;
+
+    /**
+     * Creates a new least connections cluster
+     */
+    public LeastConnectionsCluster() {
+        super();
+        numberOfServers = 0;
+        startPosition = 0;
+    }
+
+    /**
+     * Returns the online server with the fewest requests in
+     * progress compared to its weight. If all servers are offline
+     * a server is returned anyway.
+     *
+     * @see net.sf.j2ep.servers.ClusterContainer#getNextServer()
+     */
+    protected ClusteredServer getNextServer() {
+        ClusteredServer[] current = getServerArray();
+        if (current.length == 0) {
+            return null;
+        }
+        int start = nextStart(current.length);
+        ClusteredServer best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i=0; i < current.length; i++) {
+            ClusteredServer server = current[(start + i) % current.length];
+            double load = (double) server.getActiveRequests() / server.getWeight();
+            if (server.online() && load < bestLoad) {
+                best = server;
+                bestLoad = load;
+            }
+        }
+        return best == null ? current[start] : best;
+    }
+
+    /**
+     * Moves the start position.
+     *
+     * @param length The number of servers
+     * @return The position to start looking from
+     */
+    private synchronized int nextStart(int length) {
+        startPosition = (startPosition + 1) % length;
+        return startPosition;
+    }
+
+    /**
+     * @see net.sf.j2ep.servers.ClusterContainer#createNewServer(java.lang.String, java.lang.String)
+     */
+    protected ClusteredServer createNewServer(String domainName, String directory) {
+        String id = "server" + numberOfServers;
+        numberOfServers++;
+        ClusteredServer server = new ClusteredServer(domainName, directory, id);
+        return server;
+    }
+}
@@ -16,10 +16,14 @@
 
 package net.sf.j2ep.servers;
 
-
 /**
  * A cluster using round-robin to get the next server in the
- * cluster.
+ * cluster. Servers can be given weights, a server with weight 2
+ * gets twice as many requests as a server with weight 1.
+ * 
+ * The order the servers are used in is calculated when the servers
+ * are added and kept in an array that is never changed, only replaced.
+ * Choosing a server only needs to move a counter.
  *
  * @author Anders Nyman
  */
@@ -33,17 +37,24 @@ public class RoundRobinCluster extends ClusterContainer {
     private int numberOfServers;
     
     /**
-     * The currentServer we are using.
+     * The order the servers are used in, each server is in 
+     * the array as many times as its weight.
+     */
+    private volatile ClusteredServer[] schedule;
+    
+    /**
+     * The position in the schedule of the last server used.
      */
-    private int currentServerNumber;
+    private int currentPosition;
     
     /**
      * Creates a new round-robin cluster
      */
     public RoundRobinCluster() {
         super();
-        currentServerNumber = 0;
         numberOfServers = 0;
+        currentPosition = 0;
+        schedule = new ClusteredServer[0];
     }
     
     /**
@@ -51,19 +62,97 @@ public class RoundRobinCluster extends ClusterContainer {
      * using round-robin and checking that the server is marked
      * as online.
      *  
-     * @return The next server
+     * @return The next server, null if there are no servers
      */
     protected ClusteredServer getNextServer() {
-        ClusteredServer server;
-        int start = currentServerNumber;
-        int current = start;
-        do {
-            current = (current + 1) % numberOfServers;
-            server = (ClusteredServer) servers.get("server" + current); 
-        } while (!server.online() && start != current);
+        ClusteredServer[] current = schedule;
+        if (current.length == 0) {
+            return null;
+        }
+        int start = nextPosition(current.length);
+        for (int i=0; i < current.length; i++) {
+            ClusteredServer server = current[(start + i) % current.length];
+            if (server.online()) {
+                return server;
+            }
+        }
+        return current[start];
+    }
+    
+    /**
+     * Moves the counter to the next position in the schedule.
+     * 
+     * @param length The length of the schedule
+     * @return The next position
+     */
+    private synchronized int nextPosition(int length) {
+        currentPosition = (currentPosition + 1) % length;
+        return currentPosition;
+    }
+    
+    /**
+     * Calculates a new schedule including the added server.
+     * 
+     * @see net.sf.j2ep.servers.ClusterContainer#serverAdded(net.sf.j2ep.servers.ClusterContainer.ClusteredServer)
+     */
+    protected void serverAdded(ClusteredServer server) {
+        schedule = createSchedule(getServerArray());
+    }
+    
+    /**
+     * Creates the order the servers will be used in. The weights are
+     * divided by their greatest common divisor and the servers are
+     * spread out over the schedule using smooth weighted round-robin,
+     * weights 5, 1, 1 gives the order a a b a c a a and not
+     * a a a a a b c.
+     * 
+     * @param servers The servers
+     * @return The schedule
+     */
+    private ClusteredServer[] createSchedule(ClusteredServer[] servers) {
+        int[] weights = new int[servers.length];
+        int divisor = 0;
+        for (int i=0; i < weights.length; i++) {
+            weights[i] = servers[i].getWeight();
+            divisor = greatestCommonDivisor(divisor, weights[i]);
+        }
         
-        currentServerNumber = current;
-        return server;
+        int total = 0;
+        for (int i=0; i < weights.length; i++) {
+            weights[i] /= divisor;
+            total += weights[i];
+        }
+        
+        ClusteredServer[] newSchedule = new ClusteredServer[total];
+        int[] current = new int[weights.length];
+        for (int position=0; position < total; position++) {
+            int best = 0;
+            for (int i=0; i < weights.length; i++) {
+                current[i] += weights[i];
+                if (current[i] > current[best]) {
+                    best = i;
+                }
+            }
+            current[best] -= total;
+            newSchedule[position] = servers[best];
+        }
+        return newSchedule;
+    }
+    
+    /**
+     * Calculates the greatest common divisor.
+     * 
+     * @param a A number
+     * @param b A number
+     * @return The greatest common divisor of a and b
+     */
+    private int greatestCommonDivisor(int a, int b) {
+        while (b != 0) {
+            int rest = a % b;
+            a = b;
+            b = rest;
+        }
+        return a;
     }
     
     /**
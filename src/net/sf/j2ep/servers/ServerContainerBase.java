@@ -16,6 +16,7 @@
 
 package net.sf.j2ep.servers;
 
+import net.sf.j2ep.model.MappingVersion;
 import net.sf.j2ep.model.Rule;
 import net.sf.j2ep.model.ServerContainer;
 
@@ -31,6 +32,16 @@ public abstract class ServerContainerBase implements ServerContainer {
      * The rule we are mapped to.
      */
     private Rule rule;
+    
+    /** 
+     * The max number of connections to the server, 0 for the default.
+     */
+    private int maxConnections = 0;
+    
+    /** 
+     * The socket timeout for the server, -1 for the default.
+     */
+    private int socketTimeout = -1;
 
     /**
      * @see net.sf.j2ep.model.ServerContainer#getRule()
@@ -44,6 +55,41 @@ public abstract class ServerContainerBase implements ServerContainer {
      */
     public void setRule(Rule rule) {
         this.rule = rule;
+        MappingVersion.changed();
+    }
+    
+    /**
+     * @see net.sf.j2ep.model.Server#getMaxConnections()
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    /**
+     * Sets the max number of connections that can be open
+     * to the server at the same time.
+     * 
+     * @param maxConnections The max number of connections
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+    
+    /**
+     * @see net.sf.j2ep.model.Server#getSocketTimeout()
+     */
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+    
+    /**
+     * Sets the time in milliseconds to wait for data
+     * from the server, 0 means wait forever.
+     * 
+     * @param socketTimeout The timeout
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
     }
 
 }
@@ -16,15 +16,12 @@
 
 package net.sf.j2ep.servers;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
 
 import net.sf.j2ep.model.Server;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.cookie.CookiePolicy;
-import org.apache.commons.httpclient.methods.GetMethod;
-import org.apache.commons.httpclient.params.HttpClientParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -32,25 +29,26 @@ import org.apache.commons.logging.LogFactory;
  * A class that will check if servers are online and
  * notify a listener when servers goes down and comes
  * back online again.
+ * 
+ * The checks are made by the HealthCheckScheduler shared by all
+ * checkers, this class decides what a check should look like and
+ * what the result means. A server has to pass a number of checks
+ * in a row (rise) before it's considered online and fail a number
+ * of checks in a row (fall) before it's considered offline.
  *
  * @author Anders Nyman
  */
-public class ServerStatusChecker extends Thread {
-    
-    /** 
-     * The online servers.
-     */
-    private LinkedList online;
+public class ServerStatusChecker {
     
     /** 
-     * The offline servers.
+     * The status of each server, a list of ServerStatus.
      */
-    private LinkedList offline;
+    private List statuses;
     
     /** 
-     * Client used to make the connections.
+     * Marks if the servers are being checked.
      */
-    private HttpClient httpClient;
+    private boolean started;
     
     /** 
      * The listener we notify when a servers status changes.
@@ -60,7 +58,33 @@ public class ServerStatusChecker extends Thread {
     /** 
      * The time we wait between checking the servers status.
      */
-    private long pollingTime;
+    private volatile long pollingTime;
+    
+    /** 
+     * The path requested on the servers, relative to the server's path.
+     */
+    private volatile String path;
+    
+    /** 
+     * The status codes a server may answer with, null if any
+     * code but 5xx is accepted.
+     */
+    private volatile String expectedStatus;
+    
+    /** 
+     * Number of passed checks in a row needed to go online.
+     */
+    private volatile int rise;
+    
+    /** 
+     * Number of failed checks in a row needed to go offline.
+     */
+    private volatile int fall;
+    
+    /** 
+     * The connect and read timeout of the checks.
+     */
+    private volatile int timeout;
     
     /** 
      * Logging element supplied by commons-logging.
@@ -77,89 +101,59 @@ public class ServerStatusChecker extends Thread {
      */
     public ServerStatusChecker(ServerStatusListener listener, long pollingTime) {
         this.listener = listener;
-        this.pollingTime = Math.max(30*1000, pollingTime);
-        setPriority(Thread.NORM_PRIORITY-1);
-        setDaemon(true);
-        
-        online = new LinkedList();
-        offline = new LinkedList();
-        httpClient = new HttpClient(); 
-        httpClient.getParams().setBooleanParameter(HttpClientParams.USE_EXPECT_CONTINUE, false);
-        httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+        setPollingTime(pollingTime);
+        statuses = new ArrayList();
+        started = false;
+        path = "/";
+        expectedStatus = null;
+        rise = 1;
+        fall = 1;
+        timeout = 5000;
     }
     
     /**
-     * Runs the tests
-     * @see java.lang.Runnable#run()
-     */
-    public void run() {
-        for(;;) {
-            checkOnlineServers();
-            checkOfflineServers();
-            try {
-                sleep(pollingTime);
-            } catch (InterruptedException ie) {
-                
+     * Starts checking the servers.
+     */
+    public void start() {
+        synchronized (statuses) {
+            started = true;
+            HealthCheckScheduler scheduler = HealthCheckScheduler.getInstance();
+            for (int i=0; scheduler != null && i < statuses.size(); i++) {
+                scheduler.add((ServerStatus) statuses.get(i));
             }
         }
     }
     
     /**
-     * Checks all the servers marked as being online
-     * if they still are online.
-     */
-    private synchronized void checkOnlineServers() {
-        Iterator itr;
-        itr = online.listIterator();
-        while (itr.hasNext()) {
-            Server server = (Server) itr.next();
-            String url = getServerURL(server);
-            GetMethod get = new GetMethod(url);
-            get.setFollowRedirects(false);
-            
-            try {
-                httpClient.executeMethod(get);
-                if (!okServerResponse(get.getStatusCode())) {
-                    offline.add(server);
-                    itr.remove();
-                    log.debug("Server going OFFLINE! " + getServerURL(server));
-                    listener.serverOffline(server);
-                }
-            } catch (Exception e) { 
-                offline.add(server);
-                itr.remove();
-                log.debug("Server going OFFLINE! " + getServerURL(server));
-                listener.serverOffline(server);
-            } finally {
-                get.releaseConnection();
+     * Stops checking the servers.
+     */
+    public void stop() {
+        synchronized (statuses) {
+            started = false;
+            HealthCheckScheduler scheduler = HealthCheckScheduler.getInstance();
+            for (int i=0; scheduler != null && i < statuses.size(); i++) {
+                scheduler.remove((ServerStatus) statuses.get(i));
             }
         }
     }
-
+    
     /**
-     * Checks if the offline servers has come back online
-     * again.
-     */
-    private synchronized void checkOfflineServers() {
-        Iterator itr = offline.listIterator();
-        while (itr.hasNext()) {
-            Server server = (Server) itr.next();
-            String url = getServerURL(server);
-            GetMethod get = new GetMethod(url);
-            get.setFollowRedirects(false);
-            
-            try {
-                httpClient.executeMethod(get);
-                if (okServerResponse(get.getStatusCode())) {
-                    online.add(server);
-                    itr.remove();
-                    log.debug("Server back online " + getServerURL(server));
-                    listener.serverOnline(server); 
+     * Checks all servers at once instead of waiting for the
+     * next scheduled check.
+     */
+    public void checkNow() {
+        synchronized (statuses) {
+            if (started) {
+                HealthCheckScheduler scheduler = HealthCheckScheduler.getInstance();
+                for (int i=0; scheduler != null && i < statuses.size(); i++) {
+                    ServerStatus status = (ServerStatus) statuses.get(i);
+                    String url = getServerURL(status.server);
+                    if (!url.equals(status.url)) {
+                        scheduler.remove(status);
+                        status.url = url;
+                    }
+                    scheduler.add(status);
                 }
-            } catch (Exception e) {
-                listener.serverOffline(server);
-            } finally {
-                get.releaseConnection();
             }
         }
     }
@@ -170,7 +164,7 @@ public class ServerStatusChecker extends Thread {
      * @return The URL
      */
     private String getServerURL(Server server) {
-        String url = "http://" + server.getDomainName() + server.getPath() + "/";
+        String url = "http://" + server.getDomainName() + server.getPath() + path;
         return url;
     }
     
@@ -182,19 +176,216 @@ public class ServerStatusChecker extends Thread {
      * @param statusCode The status code received
      * @return true if the server if online, otherwise false
      */
-    private boolean okServerResponse(int statusCode) {
-        return !(statusCode/100 == 5);
+    private boolean isExpectedStatus(int statusCode) {
+        String expected = expectedStatus;
+        if (expected == null) {
+            return !(statusCode/100 == 5);
+        }
+        
+        StringTokenizer tokenizer = new StringTokenizer(expected, ", ");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken();
+            if (token.toLowerCase().endsWith("xx")) {
+                if (token.substring(0, token.length()-2).equals(String.valueOf(statusCode/100))) {
+                    return true;
+                }
+            } else if (token.equals(String.valueOf(statusCode))) {
+                return true;
+            }
+        }
+        return false;
     }
  
     /**
      * Adds a server that we will check for it's status.
-     * The server is added to the offline list and will first
-     * come online when we have managed to make a connection
-     * to it.
+     * The server will be marked online or offline when
+     * the first check is done.
      * 
      * @param server The server to add
      */
-    public synchronized void addServer(Server server) {
-        offline.add(server);
+    public void addServer(Server server) {
+        synchronized (statuses) {
+            ServerStatus status = new ServerStatus(server, getServerURL(server));
+            statuses.add(status);
+            HealthCheckScheduler scheduler = HealthCheckScheduler.getInstance();
+            if (started && scheduler != null) {
+                scheduler.add(status);
+            }
+        }
+    }
+    
+    /**
+     * Sets the time we wait between checks, at least one second.
+     * 
+     * @param pollingTime The time in milliseconds
+     */
+    public void setPollingTime(long pollingTime) {
+        this.pollingTime = Math.max(1000, pollingTime);
+    }
+    
+    /**
+     * Sets the path requested on the servers. The path is
+     * added to the server's own path.
+     * 
+     * @param path The path, starting with /
+     */
+    public void setPath(String path) {
+        if (path == null || !path.startsWith("/")) {
+            throw new IllegalArgumentException("The path has to start with /");
+        }
+        this.path = path;
+        checkNow();
+    }
+    
+    /**
+     * Sets the status codes a server may answer with to be
+     * online. The codes are separated with commas, a whole class
+     * of codes can be given as 2xx.
+     * 
+     * @param expectedStatus The codes, null to accept any code but 5xx
+     */
+    public void setExpectedStatus(String expectedStatus) {
+        this.expectedStatus = expectedStatus;
+    }
+    
+    /**
+     * Sets the number of passed checks in a row needed
+     * before a server is considered online.
+     * 
+     * @param rise The number of checks
+     */
+    public void setRise(int rise) {
+        this.rise = Math.max(1, rise);
+    }
+    
+    /**
+     * Sets the number of failed checks in a row needed
+     * before a server is considered offline.
+     * 
+     * @param fall The number of checks
+     */
+    public void setFall(int fall) {
+        this.fall = Math.max(1, fall);
+    }
+    
+    /**
+     * Sets the timeout for connecting to a server and
+     * for waiting on its response.
+     * 
+     * @param timeout The timeout in milliseconds
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+    
+    /**
+     * The status of a server.
+     */
+    class ServerStatus {
+        
+        /** 
+         * The server.
+         */
+        private Server server;
+        
+        /** 
+         * The URL checked, guarded by the list of statuses.
+         */
+        private String url;
+        
+        /** 
+         * The status, null until the first check is done.
+         */
+        private Boolean online;
+        
+        /** 
+         * Number of passed checks in a row.
+         */
+        private int passed;
+        
+        /** 
+         * Number of failed checks in a row.
+         */
+        private int failed;
+        
+        /**
+         * Basic constructor.
+         * 
+         * @param server The server
+         * @param url The URL checked
+         */
+        public ServerStatus(Server server, String url) {
+            this.server = server;
+            this.url = url;
+            online = null;
+        }
+        
+        /**
+         * Returns the URL checked for this server.
+         * @return The URL
+         */
+        public String getURL() {
+            return url;
+        }
+        
+        /**
+         * Returns the time wanted between the checks.
+         * @return The time in milliseconds
+         */
+        public long getPollingTime() {
+            return pollingTime;
+        }
+        
+        /**
+         * Returns the timeout of the checks.
+         * @return The timeout in milliseconds
+         */
+        public int getTimeout() {
+            return timeout;
+        }
+        
+        /**
+         * Counts the result of a check and notifies the listener
+         * if the server goes offline or comes online. The first
+         * check always decides the status, after that rise and
+         * fall are used.
+         * 
+         * @param statusCode The status code received, -1 if there was no response
+         */
+        public void checked(int statusCode) {
+            Boolean change = update(statusCode != -1 && isExpectedStatus(statusCode));
+            if (change == Boolean.TRUE) {
+                log.debug("Server back online " + url);
+                listener.serverOnline(server);
+            } else if (change == Boolean.FALSE) {
+                log.debug("Server going OFFLINE! " + url);
+                listener.serverOffline(server);
+            }
+        }
+        
+        /**
+         * Counts the result of a check.
+         * 
+         * @param passed Marks if the check passed
+         * @return TRUE if the server came online, FALSE if it went offline, otherwise null
+         */
+        private synchronized Boolean update(boolean passed) {
+            if (passed) {
+                this.passed++;
+                failed = 0;
+                if (online != Boolean.TRUE && (online == null || this.passed >= rise)) {
+                    online = Boolean.TRUE;
+                    return online;
+                }
+            } else {
+                failed++;
+                this.passed = 0;
+                if (online != Boolean.FALSE && (online == null || failed >= fall)) {
+                    online = Boolean.FALSE;
+                    return online;
+                }
+            }
+            return null;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.BufferPool;
+
+public class BufferPoolTest extends TestCase {
+
+    protected void tearDown() {
+        BufferPool.setBufferSize(BufferPool.DEFAULT_SIZE);
+    }
+
+    public void testReuse() throws Exception {
+        byte[] buffer = BufferPool.getBuffer();
+        assertEquals("Default size", BufferPool.DEFAULT_SIZE, buffer.length);
+        assertSame("Thread should get the same buffer", buffer, BufferPool.getBuffer());
+
+        final byte[][] other = new byte[1][];
+        Thread thread = new Thread() {
+            public void run() {
+                other[0] = BufferPool.getBuffer();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame("Other thread should get its own buffer", buffer, other[0]);
+    }
+
+    public void testSize() {
+        BufferPool.setBufferSize(128*1024);
+        assertEquals("New size", 128*1024, BufferPool.getBuffer().length);
+        try {
+            BufferPool.setBufferSize(0);
+            fail("Size has to be positive");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.ProxyFilter;
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.rules.AcceptEverythingRule;
+import net.sf.j2ep.servers.LatencyAwareCluster;
+import net.sf.j2ep.servers.LeastConnectionsCluster;
+
+public class ClusterStrategyTest extends TestCase {
+
+    public void testLeastConnections() {
+        TestLeastConnectionsCluster cluster = new TestLeastConnectionsCluster();
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b", "2");
+        cluster.addServer("localhost:3", "/c");
+        Server a = find(cluster.getServers().iterator(), "/a");
+        Server b = find(cluster.getServers().iterator(), "/b");
+        Server c = find(cluster.getServers().iterator(), "/c");
+
+        Set used = new HashSet();
+        for (int i=0; i < 3; i++) {
+            used.add(cluster.next());
+        }
+        assertEquals("Idle servers should be used in turn", 3, used.size());
+
+        a.requestStarted();
+        b.requestStarted();
+        assertSame("Server without requests", c, cluster.next());
+        c.requestStarted();
+        assertSame("Server with higher weight", b, cluster.next());
+
+        cluster.takeOffline(b);
+        b.requestFinished(10, false);
+        assertFalse("Offline server shouldn't be used", cluster.next() == b);
+    }
+
+    public void testLatencyAware() {
+        TestLatencyAwareCluster cluster = new TestLatencyAwareCluster();
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b");
+        Server a = find(cluster.getServers().iterator(), "/a");
+        Server b = find(cluster.getServers().iterator(), "/b");
+
+        a.requestStarted();
+        a.requestFinished(100, false);
+        b.requestStarted();
+        b.requestFinished(10, false);
+        for (int i=0; i < 10; i++) {
+            assertSame("Faster server", b, cluster.next());
+        }
+
+        for (int i=0; i < 10; i++) {
+            b.requestStarted();
+        }
+        assertSame("Fast server with many requests", a, cluster.next());
+    }
+
+    public void testPeakAverage() throws Exception {
+        TestLatencyAwareCluster cluster = new TestLatencyAwareCluster();
+        cluster.setDecayTime(1);
+        cluster.addServer("localhost:1", "/a");
+        Server a = (Server) cluster.getServers().iterator().next();
+
+        a.requestStarted();
+        a.requestFinished(10, false);
+        a.requestStarted();
+        a.requestFinished(100, false);
+        assertEquals("Peak should be used at once", 100, cluster.getAverage(a), 0.01);
+
+        Thread.sleep(50);
+        a.requestStarted();
+        a.requestFinished(20, false);
+        assertEquals("Old peak should have decayed", 20, cluster.getAverage(a), 0.01);
+    }
+
+    public void testEjection() throws Exception {
+        TestLeastConnectionsCluster cluster = new TestLeastConnectionsCluster();
+        cluster.setEjectThreshold(2);
+        cluster.setEjectTime(500);
+        cluster.addServer("localhost:1", "/a");
+        Server a = (Server) cluster.getServers().iterator().next();
+
+        failRequests(a, 1);
+        assertTrue("One failure isn't enough", cluster.isOnline(a));
+        failRequests(a, 1);
+        assertFalse("Should be ejected", cluster.isOnline(a));
+
+        Thread.sleep(600);
+        assertTrue("Should be back after the eject time", cluster.isOnline(a));
+        failRequests(a, 1);
+        assertFalse("Should be ejected again at once", cluster.isOnline(a));
+        Thread.sleep(600);
+        assertFalse("Second ejection should be longer", cluster.isOnline(a));
+        Thread.sleep(500);
+        assertTrue("Should be back after twice the eject time", cluster.isOnline(a));
+
+        a.requestStarted();
+        a.requestFinished(10, false);
+        failRequests(a, 1);
+        assertTrue("A successful request resets the count", cluster.isOnline(a));
+    }
+
+    public void testRetry() {
+        TestLeastConnectionsCluster cluster = new TestLeastConnectionsCluster();
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b");
+        Server a = find(cluster.getServers().iterator(), "/a");
+        Server b = find(cluster.getServers().iterator(), "/b");
+
+        assertSame("GET is retried", b, a.getRetryServer("GET", true, 0));
+        assertNull("POST isn't retried when sent", a.getRetryServer("POST", true, 0));
+        assertSame("POST is retried when not sent", b, a.getRetryServer("POST", false, 0));
+        assertNull("Only one retry by default", a.getRetryServer("GET", false, 1));
+
+        cluster.setRetryMethods("GET,PUT");
+        assertSame("PUT is retried when configured", b, a.getRetryServer("put", true, 0));
+
+        cluster.takeOffline(b);
+        assertNull("No other server online", a.getRetryServer("GET", false, 0));
+    }
+
+    public void testRetryBudget() {
+        TestLeastConnectionsCluster cluster = new TestLeastConnectionsCluster();
+        cluster.setRetryBudget(0);
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b");
+        Server a = find(cluster.getServers().iterator(), "/a");
+
+        int retries = 0;
+        while (retries < 100 && a.getRetryServer("GET", false, 0) != null) {
+            retries++;
+        }
+        assertEquals("Only the minimum number of retries", 10, retries);
+    }
+
+    public void testPoolTimeout() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final List accepted = Collections.synchronizedList(new ArrayList());
+        final List proxied = Collections.synchronizedList(new ArrayList());
+        Thread acceptor = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        accepted.add(socket);
+                        new Thread() {
+                            public void run() {
+                                try {
+                                    String line = new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                                    if (line != null && line.startsWith("GET /page")) {
+                                        proxied.add(line);
+                                    }
+                                } catch (IOException e) {
+                                }
+                            }
+                        }.start();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        };
+        acceptor.start();
+
+        TestLeastConnectionsCluster cluster = new TestLeastConnectionsCluster();
+        cluster.setEjectThreshold(2);
+        cluster.setRule(new AcceptEverythingRule());
+        cluster.addServer("localhost:" + serverSocket.getLocalPort(), "");
+        final Server server = (Server) cluster.getServers().iterator().next();
+
+        MockFilterConfig config = new MockFilterConfig();
+        config.setInitParameter("maxConnectionsPerHost", "1");
+        config.setInitParameter("connectionManagerTimeout", "100");
+        config.setInitParameter("socketTimeout", "10000");
+        final ProxyFilter filter = new ProxyFilter();
+        filter.init(config);
+        try {
+            Thread holder = new Thread() {
+                public void run() {
+                    try {
+                        filter.doFilter(new ProxiedRequest(server), new MockHttpServletResponse(), null);
+                    } catch (Exception e) {
+                    }
+                }
+            };
+            holder.start();
+            while (proxied.isEmpty()) {
+                Thread.sleep(10);
+            }
+
+            failRequests(server, 1);
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            filter.doFilter(new ProxiedRequest(server), response, null);
+            assertEquals("No free connection", 503, response.getStatus());
+            assertEquals("Only the holding request is in progress", 1, cluster.getActive(server));
+
+            failRequests(server, 1);
+            assertFalse("Pool timeout shouldn't reset the failures", cluster.isOnline(server));
+
+            serverSocket.close();
+            for (int i=0; i < accepted.size(); i++) {
+                ((Socket) accepted.get(i)).close();
+            }
+            holder.join();
+        } finally {
+            serverSocket.close();
+            filter.destroy();
+        }
+    }
+
+    private void failRequests(Server server, int requests) {
+        for (int i=0; i < requests; i++) {
+            server.requestStarted();
+            server.requestFinished(-1, true);
+        }
+    }
+
+    private Server find(Iterator itr, String path) {
+        while (itr.hasNext()) {
+            Server server = (Server) itr.next();
+            if (server.getPath().equals(path)) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The status checker would take the test servers offline since
+     * they don't exist, so its notifications are ignored.
+     */
+    private static class TestLeastConnectionsCluster extends LeastConnectionsCluster {
+
+        public Server next() {
+            return getNextServer();
+        }
+
+        public void serverOffline(Server server) {
+        }
+
+        public boolean isOnline(Server server) {
+            return ((ClusteredServer) server).online();
+        }
+
+        public void takeOffline(Server server) {
+            super.serverOffline(server);
+        }
+
+        public int getActive(Server server) {
+            return ((ClusteredServer) server).getActiveRequests();
+        }
+    }
+
+    private static class ProxiedRequest extends MockHttpServletRequest {
+
+        private Server server;
+
+        public ProxiedRequest(Server server) {
+            this.server = server;
+        }
+
+        public Object getAttribute(String name) {
+            return name.equals("proxyServer") ? server : null;
+        }
+
+        public String getMethod() {
+            return "GET";
+        }
+
+        public String getRequestURI() {
+            return "/page";
+        }
+
+        public String getScheme() {
+            return "http";
+        }
+
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        public String getServerName() {
+            return "localhost";
+        }
+
+        public String getRemoteAddr() {
+            return "127.0.0.1";
+        }
+
+        public Enumeration getHeaderNames() {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+
+        public Enumeration getHeaders(String name) {
+            return Collections.enumeration(Collections.EMPTY_LIST);
+        }
+    }
+
+    private static class TestLatencyAwareCluster extends LatencyAwareCluster {
+
+        public Server next() {
+            return getNextServer();
+        }
+
+        public double getAverage(Server server) {
+            return ((ClusteredServer) server).getAverageResponseTime();
+        }
+
+        public void serverOffline(Server server) {
+        }
+    }
+
+}
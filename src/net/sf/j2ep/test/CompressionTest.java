@@ -0,0 +1,205 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Vector;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.CompressingResponseWrapper;
+import net.sf.j2ep.ResponseCompressor;
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.UrlRewritingResponseWrapper;
+import net.sf.j2ep.requesthandlers.RequestHandlerBase;
+import net.sf.j2ep.servers.BaseServer;
+
+public class CompressionTest extends TestCase {
+
+    private ResponseCompressor compressor;
+    private byte[] page;
+
+    protected void setUp() throws Exception {
+        compressor = new ResponseCompressor(new String[] {"text/html", "application/*"}, 1000, 6);
+        StringBuffer content = new StringBuffer();
+        for (int i=0; i < 1000; i++) {
+            content.append("<p>Paragraph ").append(i).append("</p>\n");
+        }
+        page = content.toString().getBytes("ISO-8859-1");
+    }
+
+    public void testGzip() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest("gzip, deflate"), response), "text/html; charset=UTF-8", page, 100);
+
+        assertEquals("Content-Encoding", "gzip", response.getHeader("content-encoding"));
+        assertEquals("Vary", "Accept-Encoding", response.getHeader("vary"));
+        assertTrue("Body should be smaller", response.getBody().length < page.length / 2);
+        assertEquals("Body", new String(page), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+
+        ResponseCompressor.Statistics statistics = compressor.getStatistics("text/html");
+        assertEquals("Responses counted", 1, statistics.getResponses());
+        assertEquals("Bytes in counted", page.length, statistics.getBytesIn());
+        assertEquals("Bytes out counted", response.getBody().length, statistics.getBytesOut());
+    }
+
+    public void testDeflate() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest("deflate, gzip;q=0"), response), "application/json", page, 1);
+
+        assertEquals("Content-Encoding", "deflate", response.getHeader("content-encoding"));
+        assertEquals("Body", new String(page), read(new InflaterInputStream(new ByteArrayInputStream(response.getBody()))));
+    }
+
+    public void testNotCompressed() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest("gzip"), response), "text/html", new byte[999], 100);
+        assertNull("Small body shouldn't be compressed", response.getHeader("content-encoding"));
+        assertEquals("Small body", 999, response.getBody().length);
+
+        response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest("gzip"), response), "image/png", page, 100);
+        assertNull("Content type shouldn't be compressed", response.getHeader("content-encoding"));
+        assertNull("No Vary for types not compressed", response.getHeader("vary"));
+
+        response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest(null), response), "text/html", page, 100);
+        assertNull("Client without gzip", response.getHeader("content-encoding"));
+        assertEquals("Vary is needed anyway", "Accept-Encoding", response.getHeader("vary"));
+        assertEquals("Uncompressed body", page.length, response.getBody().length);
+
+        response = new MockHttpServletResponse();
+        CompressingResponseWrapper wrapper = compressor.wrap(new TestRequest("gzip"), response);
+        wrapper.addHeader("Content-Encoding", "br");
+        send(wrapper, "text/html", page, 100);
+        assertEquals("Encoded body shouldn't be compressed again", "br", response.getHeader("content-encoding"));
+        assertEquals("Encoded body", page.length, response.getBody().length);
+    }
+
+    public void testAcceptEncoding() {
+        assertEquals("Wildcard", "gzip, deflate", RequestHandlerBase.getAcceptEncoding(new TestRequest("*")));
+        assertEquals("Refused before wildcard", "deflate", RequestHandlerBase.getAcceptEncoding(new TestRequest("gzip;q=0, *")));
+        assertEquals("Refused after wildcard", "gzip", RequestHandlerBase.getAcceptEncoding(new TestRequest("*, deflate;q=0")));
+        assertEquals("All refused", "", RequestHandlerBase.getAcceptEncoding(new TestRequest("x-gzip;q=0, deflate;q=0.0, *")));
+        assertEquals("Refused wildcard", "gzip", RequestHandlerBase.getAcceptEncoding(new TestRequest("gzip, *;q=0")));
+    }
+
+    public void testRewritten() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CompressingResponseWrapper compressing = compressor.wrap(new TestRequest("gzip"), response);
+        UrlRewritingResponseWrapper rewriting = new UrlRewritingResponseWrapper(compressing, new BaseServer(),
+                "proxy:80", "/ctx", new ServerChain(new ArrayList()));
+        rewriting.addHeader("Content-Type", "text/html");
+        rewriting.getOutputStream().write(page);
+        rewriting.processStream();
+        compressing.release();
+        assertEquals("Compressed after rewriting", "gzip", response.getHeader("content-encoding"));
+        assertEquals("Body", new String(page), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzipStream = new GZIPOutputStream(gzipped);
+        gzipStream.write(page);
+        gzipStream.close();
+        response = new MockHttpServletResponse();
+        compressing = compressor.wrap(new TestRequest("gzip"), response);
+        rewriting = new UrlRewritingResponseWrapper(compressing, new BaseServer(),
+                "proxy:80", "/ctx", new ServerChain(new ArrayList()));
+        rewriting.addHeader("Content-Type", "text/html");
+        rewriting.addHeader("Content-Encoding", "gzip");
+        rewriting.getOutputStream().write(gzipped.toByteArray());
+        rewriting.processStream();
+        compressing.release();
+        assertEquals("Body compressed once", new String(page), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+    }
+
+    public void testWeakETag() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CompressingResponseWrapper wrapper = compressor.wrap(new TestRequest("gzip"), response);
+        wrapper.addHeader("ETag", "\"abc\"");
+        send(wrapper, "text/html", page, 100);
+        assertEquals("ETag", "W/\"abc\"", response.getHeader("etag"));
+    }
+
+    public void testSingleBytes() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        CompressingResponseWrapper wrapper = compressor.wrap(new TestRequest("gzip"), response);
+        wrapper.addHeader("Content-Type", "text/html");
+        OutputStream out = wrapper.getOutputStream();
+        for (int i=0; i < page.length; i++) {
+            out.write(page[i]);
+        }
+        out.close();
+        wrapper.release();
+        assertEquals("Body", new String(page), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+    }
+
+    public void testDestroy() throws IOException {
+        send(compressor.wrap(new TestRequest("gzip"), new MockHttpServletResponse()), "text/html", page, 100);
+        compressor.destroy();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        send(compressor.wrap(new TestRequest("gzip"), response), "text/html", page, 100);
+        assertEquals("Body after destroy", new String(page), read(new GZIPInputStream(new ByteArrayInputStream(response.getBody()))));
+    }
+
+    private void send(CompressingResponseWrapper wrapper, String contentType, byte[] body, int part) throws IOException {
+        wrapper.addHeader("Content-Type", contentType);
+        OutputStream out = wrapper.getOutputStream();
+        for (int i=0; i < body.length; i += part) {
+            out.write(body, i, Math.min(part, body.length - i));
+        }
+        out.flush();
+        out.close();
+        wrapper.release();
+    }
+
+    private String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read = in.read(buffer);
+        while (read != -1) {
+            out.write(buffer, 0, read);
+            read = in.read(buffer);
+        }
+        return new String(out.toByteArray());
+    }
+
+    private static class TestRequest extends MockHttpServletRequest {
+
+        private String acceptEncoding;
+
+        public TestRequest(String acceptEncoding) {
+            this.acceptEncoding = acceptEncoding;
+        }
+
+        public Enumeration getHeaders(String name) {
+            Vector values = new Vector();
+            if (name.equalsIgnoreCase("accept-encoding") && acceptEncoding != null) {
+                values.add(acceptEncoding);
+            }
+            return values.elements();
+        }
+    }
+
+}
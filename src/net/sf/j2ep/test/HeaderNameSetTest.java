@@ -0,0 +1,125 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.HeaderNameSet;
+import net.sf.j2ep.factories.RequestHandlerFactory;
+import net.sf.j2ep.model.AllowedMethodHandler;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+public class HeaderNameSetTest extends TestCase {
+
+    public void testContains() {
+        HeaderNameSet set = new HeaderNameSet("Connection, via,x-forwarded-for");
+        assertTrue("Same case", set.contains("via"));
+        assertTrue("Other case", set.contains("CONNECTION"));
+        assertTrue("Mixed case", set.contains("X-Forwarded-For"));
+        assertFalse("Not in the set", set.contains("Accept"));
+        assertFalse("Prefix of a name", set.contains("Connect"));
+
+        HeaderNameSet larger = set.add("Upgrade");
+        assertTrue("Added name", larger.contains("upgrade"));
+        assertTrue("Old names kept", larger.contains("via"));
+        assertFalse("The old set isn't changed", set.contains("upgrade"));
+
+        StringBuffer names = new StringBuffer();
+        for (int i=0; i < 100; i++) {
+            names.append("X-Header-").append(i).append(',');
+        }
+        larger = larger.add(names.toString());
+        for (int i=0; i < 100; i++) {
+            assertTrue("Many names", larger.contains("x-header-" + i));
+        }
+        assertFalse("Many names", larger.contains("x-header-100"));
+    }
+
+    public void testContainsToken() {
+        assertTrue("First token", HeaderNameSet.containsToken("Keep-Alive, X-Secret", "keep-alive"));
+        assertTrue("Later token", HeaderNameSet.containsToken("Keep-Alive, X-Secret ,Foo", "x-secret"));
+        assertFalse("Part of a token", HeaderNameSet.containsToken("Keep-Alive, X-Secret", "alive"));
+        assertFalse("No list", HeaderNameSet.containsToken(null, "close"));
+    }
+
+    public void testRequestHeaders() throws Exception {
+        AllowedMethodHandler.setAllowedMethods("GET");
+        TestRequest request = new TestRequest();
+        request.add("Accept", "text/html");
+        request.add("Cookie", "a=1");
+        request.add("Cookie", "b=2");
+        request.add("Connection", "keep-alive, X-Hop");
+        request.add("Connection", "X-Other-Hop");
+        request.add("Keep-Alive", "300");
+        request.add("X-Hop", "1");
+        request.add("X-Other-Hop", "2");
+        request.add("Upgrade", "websocket");
+        request.add("Via", "HTTP/1.0 fakeserver.com");
+
+        HttpMethod method = RequestHandlerFactory.createRequestMethod("GET").process(request, "http://localhost/");
+        assertEquals("Accept is copied", "text/html", method.getRequestHeader("accept").getValue());
+        assertEquals("Both cookies are copied", 2, method.getRequestHeaders("cookie").length);
+        assertNull("Connection isn't copied", method.getRequestHeader("connection"));
+        assertNull("Keep-Alive isn't copied", method.getRequestHeader("keep-alive"));
+        assertNull("Upgrade isn't copied", method.getRequestHeader("upgrade"));
+        assertNull("First Connection token isn't copied", method.getRequestHeader("x-hop"));
+        assertNull("Second Connection header isn't copied", method.getRequestHeader("x-other-hop"));
+        assertTrue("Via is extended", method.getRequestHeader("via").getValue().startsWith("HTTP/1.0 fakeserver.com, HTTP/1.1 "));
+    }
+
+    private static class TestRequest extends MockHttpServletRequest {
+
+        private LinkedHashMap headers = new LinkedHashMap();
+
+        public void add(String name, String value) {
+            List values = (List) headers.get(name.toLowerCase());
+            if (values == null) {
+                values = new ArrayList();
+                headers.put(name.toLowerCase(), values);
+            }
+            values.add(value);
+        }
+
+        public String getMethod() {
+            return "GET";
+        }
+
+        public String getProtocol() {
+            return "HTTP/1.1";
+        }
+
+        public String getHeader(String name) {
+            List values = (List) headers.get(name.toLowerCase());
+            return values == null ? null : (String) values.get(0);
+        }
+
+        public Enumeration getHeaders(String name) {
+            List values = (List) headers.get(name.toLowerCase());
+            return Collections.enumeration(values == null ? new ArrayList() : values);
+        }
+
+        public Enumeration getHeaderNames() {
+            return Collections.enumeration(headers.keySet());
+        }
+    }
+
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedList;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.servers.BaseServer;
+import net.sf.j2ep.servers.HealthCheckScheduler;
+import net.sf.j2ep.servers.ServerStatusChecker;
+import net.sf.j2ep.servers.ServerStatusListener;
+
+public class HealthCheckTest extends TestCase {
+
+    private ServerStatusChecker statusChecker;
+    private TestStatusListener listener;
+    private StubServer stub;
+
+    protected void setUp() throws Exception {
+        HealthCheckScheduler.acquire();
+        listener = new TestStatusListener();
+        statusChecker = new ServerStatusChecker(listener, 1000);
+        statusChecker.setTimeout(500);
+        stub = new StubServer();
+        stub.start();
+    }
+
+    protected void tearDown() throws Exception {
+        statusChecker.stop();
+        HealthCheckScheduler.release();
+        stub.close();
+    }
+
+    public void testExpectedStatus() throws Exception {
+        statusChecker.setExpectedStatus("200,3xx");
+        Server server = createServer();
+        statusChecker.addServer(server);
+        statusChecker.start();
+        assertEquals("First check decides", "online", listener.next());
+
+        stub.status = 404;
+        statusChecker.checkNow();
+        assertEquals("404 isn't expected", "offline", listener.next());
+
+        stub.status = 302;
+        statusChecker.checkNow();
+        assertEquals("3xx is expected", "online", listener.next());
+    }
+
+    public void testRiseAndFall() throws Exception {
+        statusChecker.setRise(2);
+        statusChecker.setFall(2);
+        statusChecker.addServer(createServer());
+        statusChecker.start();
+        assertEquals("First check decides", "online", listener.next());
+
+        stub.status = 500;
+        statusChecker.checkNow();
+        waitForChecks(stub.requests + 1);
+        assertEquals("One failed check isn't enough", 0, listener.events.size());
+        statusChecker.checkNow();
+        assertEquals("Two failed checks", "offline", listener.next());
+
+        stub.status = 200;
+        statusChecker.checkNow();
+        waitForChecks(stub.requests + 1);
+        assertEquals("One passed check isn't enough", 0, listener.events.size());
+        statusChecker.checkNow();
+        assertEquals("Two passed checks", "online", listener.next());
+    }
+
+    public void testParallel() throws Exception {
+        ServerSocket silent = new ServerSocket(0);
+        silent.setSoTimeout(5000);
+        Socket probe = null;
+        try {
+            statusChecker.setTimeout(3000);
+            BaseServer slow = new BaseServer();
+            slow.setDomainName("localhost:" + silent.getLocalPort());
+            slow.setPath("");
+            statusChecker.addServer(slow);
+            statusChecker.start();
+            probe = silent.accept();
+
+            long start = System.currentTimeMillis();
+            statusChecker.addServer(createServer());
+            assertEquals("The answering server is done first", "online", listener.next());
+            assertTrue("Shouldn't wait for the silent server", System.currentTimeMillis() - start < 2000);
+            assertEquals("The silent server times out", "offline", listener.next());
+        } finally {
+            if (probe != null) {
+                probe.close();
+            }
+            silent.close();
+        }
+    }
+
+    public void testSharedChecks() throws Exception {
+        stub.delay = 300;
+        TestStatusListener otherListener = new TestStatusListener();
+        ServerStatusChecker otherChecker = new ServerStatusChecker(otherListener, 1000);
+        try {
+            statusChecker.addServer(createServer());
+            otherChecker.addServer(createServer());
+            statusChecker.start();
+            otherChecker.start();
+
+            assertEquals("First checker", "online", listener.next());
+            assertEquals("Second checker", "online", otherListener.next());
+            assertEquals("The server should be checked once", 1, stub.requests);
+        } finally {
+            otherChecker.stop();
+        }
+    }
+
+    public void testFailingListener() throws Exception {
+        FailingStatusListener failing = new FailingStatusListener();
+        ServerStatusChecker failingChecker = new ServerStatusChecker(failing, 1000);
+        try {
+            failingChecker.addServer(createServer());
+            failingChecker.start();
+            assertEquals("First check decides", "online", failing.next());
+
+            stub.status = 500;
+            failingChecker.checkNow();
+            assertEquals("Checks go on after a failing listener", "offline", failing.next());
+        } finally {
+            failingChecker.stop();
+        }
+    }
+
+    public void testShutdown() throws Exception {
+        HealthCheckScheduler.shutdown();
+        statusChecker.addServer(createServer());
+        statusChecker.start();
+        statusChecker.checkNow();
+        assertNull("No scheduler after shutdown", HealthCheckScheduler.getInstance());
+        Thread.sleep(200);
+        assertEquals("No checks after shutdown", 0, stub.requests);
+
+        HealthCheckScheduler.acquire();
+        statusChecker.start();
+        assertEquals("Checked when acquired again", "online", listener.next());
+        HealthCheckScheduler.release();
+    }
+
+    public void testRelease() throws Exception {
+        HealthCheckScheduler.acquire();
+        HealthCheckScheduler.release();
+        assertNotNull("Running while acquired by another filter", HealthCheckScheduler.getInstance());
+
+        statusChecker.addServer(createServer());
+        statusChecker.start();
+        assertEquals("Checked while acquired", "online", listener.next());
+
+        HealthCheckScheduler.release();
+        assertNull("Shut down when released by the last filter", HealthCheckScheduler.getInstance());
+        HealthCheckScheduler.acquire();
+    }
+
+    private Server createServer() {
+        BaseServer server = new BaseServer();
+        server.setDomainName("localhost:" + stub.getPort());
+        server.setPath("/app");
+        return server;
+    }
+
+    private void waitForChecks(int requests) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+        while (stub.requests < requests && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+    }
+
+    private static class TestStatusListener implements ServerStatusListener {
+
+        private LinkedList events = new LinkedList();
+
+        public synchronized void serverOnline(Server server) {
+            events.add("online");
+            notifyAll();
+        }
+
+        public synchronized void serverOffline(Server server) {
+            events.add("offline");
+            notifyAll();
+        }
+
+        public synchronized String next() throws InterruptedException {
+            long end = System.currentTimeMillis() + 5000;
+            while (events.isEmpty() && System.currentTimeMillis() < end) {
+                wait(100);
+            }
+            return events.isEmpty() ? null : (String) events.removeFirst();
+        }
+    }
+
+    /**
+     * A listener throwing an exception the first time a server
+     * comes online.
+     */
+    private static class FailingStatusListener extends TestStatusListener {
+
+        private boolean failed = false;
+
+        public synchronized void serverOnline(Server server) {
+            super.serverOnline(server);
+            if (!failed) {
+                failed = true;
+                throw new IllegalStateException("Listener failure");
+            }
+        }
+    }
+
+    /**
+     * A server answering every request with the current status code.
+     */
+    private static class StubServer extends Thread {
+
+        private ServerSocket socket;
+        private volatile int status = 200;
+        private volatile int requests = 0;
+        private volatile long delay = 0;
+
+        public StubServer() throws IOException {
+            socket = new ServerSocket(0);
+            setDaemon(true);
+        }
+
+        public int getPort() {
+            return socket.getLocalPort();
+        }
+
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        public void run() {
+            try {
+                for (;;) {
+                    Socket client = socket.accept();
+                    try {
+                        InputStream in = client.getInputStream();
+                        int last = 0;
+                        int read;
+                        while ((read = in.read()) != -1) {
+                            last = (last << 8 | read) & 0xffffffff;
+                            if (last == 0x0d0a0d0a) {
+                                break;
+                            }
+                        }
+                        requests++;
+                        if (delay > 0) {
+                            Thread.sleep(delay);
+                        }
+                        OutputStream out = client.getOutputStream();
+                        out.write(("HTTP/1.1 " + status + " Stub\r\nContent-Length: 0\r\n"
+                                + "Connection: close\r\n\r\n").getBytes());
+                        out.flush();
+                    } finally {
+                        client.close();
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.HostRequestLimiter;
+
+public class HostRequestLimiterTest extends TestCase {
+
+    public void testLimit() {
+        HostRequestLimiter limiter = new HostRequestLimiter(2, 1);
+        for (int i=0; i < 3; i++) {
+            assertTrue("Connections and waiting requests", limiter.acquire("slow:80", 0));
+        }
+        assertFalse("Host is full", limiter.acquire("slow:80", 0));
+        assertTrue("Other hosts aren't affected", limiter.acquire("fast:80", 0));
+
+        limiter.release("slow:80");
+        assertTrue("Released request makes room", limiter.acquire("slow:80", 0));
+        assertEquals("Requests held", 3, limiter.getRequests("slow:80"));
+    }
+
+    public void testServerLimit() {
+        HostRequestLimiter limiter = new HostRequestLimiter(20, 0);
+        assertTrue("Server's own max connections", limiter.acquire("host:80", 1));
+        assertFalse("Server's own max connections", limiter.acquire("host:80", 1));
+    }
+
+}
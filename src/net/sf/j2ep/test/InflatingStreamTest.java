@@ -0,0 +1,92 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.InflatingOutputStream;
+
+public class InflatingStreamTest extends TestCase {
+
+    private String content;
+
+    protected void setUp() {
+        StringBuffer page = new StringBuffer();
+        for (int i=0; i < 2000; i++) {
+            page.append("<a href=\"/page").append(i).append(".html\">Page ").append(i).append("</a>\n");
+        }
+        content = page.toString();
+    }
+
+    public void testGzip() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(content.getBytes("ISO-8859-1"));
+        gzip.close();
+
+        assertEquals("Written at once", content, inflate(compressed.toByteArray(), true, 100000));
+        assertEquals("Written byte by byte", content, inflate(compressed.toByteArray(), true, 1));
+    }
+
+    public void testDeflate() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream deflate = new DeflaterOutputStream(compressed);
+        deflate.write(content.getBytes("ISO-8859-1"));
+        deflate.close();
+
+        assertEquals("Written in parts", content, inflate(compressed.toByteArray(), false, 7));
+    }
+
+    public void testGzipHeaderFields() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(new byte[] {0x1f, (byte) 0x8b, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 0});
+        compressed.write(new byte[] {3, 0, 'x', 'y', 'z'});
+        compressed.write("name.html\0".getBytes("ISO-8859-1"));
+        compressed.write("comment\0".getBytes("ISO-8859-1"));
+        compressed.write(new byte[] {0, 0});
+        DeflaterOutputStream deflate = new DeflaterOutputStream(compressed, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        deflate.write(content.getBytes("ISO-8859-1"));
+        deflate.finish();
+        compressed.write(new byte[8]);
+
+        assertEquals("Optional fields should be skipped", content, inflate(compressed.toByteArray(), true, 3));
+    }
+
+    public void testNotGzip() {
+        try {
+            inflate(content.getBytes(), true, 100);
+            fail("Content that isn't gzip should fail");
+        } catch (IOException e) {
+        }
+    }
+
+    private String inflate(byte[] compressed, boolean gzip, int part) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InflatingOutputStream stream = new InflatingOutputStream(out, gzip);
+        for (int i=0; i < compressed.length; i += part) {
+            stream.write(compressed, i, Math.min(part, compressed.length - i));
+        }
+        stream.close();
+        return new String(out.toByteArray(), "ISO-8859-1");
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.LinkScanner;
+
+public class LinkScannerTest extends TestCase {
+    
+    /** 
+     * The regex previously used by UrlRewritingOutputStream.
+     */
+    private static Pattern linkPattern = Pattern.compile("\\b(href=|src=|action=|url\\()([\"\'])(([^/]+://)([^/<>]+))?([^\"\'>]*)[\"\']", Pattern.CASE_INSENSITIVE | Pattern.CANON_EQ);
+    
+    private LinkScanner scanner;
+
+    protected void setUp() throws Exception {
+        scanner = new LinkScanner();
+    }
+    
+    public void testSimpleLinks() throws UnsupportedEncodingException {
+        assertSameLinks("<a href=\"/index.html\">");
+        assertSameLinks("<A HREF='/index.html'>");
+        assertSameLinks("<img src=\"http://www.server.com/img/a.gif\"/>");
+        assertSameLinks("<form action=\"/post.jsp\" method=\"post\">");
+        assertSameLinks("body { background: url('/img/bg.png') }");
+        assertSameLinks("<a href=\"http://www.server.com\">");
+        assertSameLinks("<a href=\"\">");
+        assertSameLinks("<a href=relative.html>");
+        assertSameLinks("<a xhref=\"/index.html\">");
+        assertSameLinks("<a _href=\"/index.html\">");
+        assertSameLinks("<a href=\"/index.html>");
+        assertSameLinks("<a href=\"/index.html");
+        assertSameLinks("href=\"/a.html\"");
+    }
+    
+    public void testStrangeLinks() throws UnsupportedEncodingException {
+        assertSameLinks("<img src=\"a.gif\" alt=\"x\" longdesc=\"http://www.server.com/desc\">");
+        assertSameLinks("<a href='http://host\" title=\"x'>");
+        assertSameLinks("<a href=\"http://host<b>\">");
+        assertSameLinks("<a href=\"://host/\">");
+        assertSameLinks("<a href=\"x://\">");
+        assertSameLinks("<a href=\"mailto:me@server.com\">");
+        assertSameLinks("<a href=\"javascript:void('/x')\">");
+        assertSameLinks("src=src=\"/a\"href='/b'");
+        assertSameLinks("url(\"/a\")url('http://h/b')");
+    }
+    
+    public void testRandomData() throws UnsupportedEncodingException {
+        String[] parts = {"href=", "HrEf=", "src=", "action=", "url(", "\"", "'", "/", "//", "://", "http", "host", 
+                ":", "<", ">", " ", "a", "_", "x.html", "\n", "="};
+        Random random = new Random(4711);
+        for (int i=0; i < 5000; i++) {
+            StringBuffer data = new StringBuffer();
+            int length = random.nextInt(30);
+            for (int j=0; j < length; j++) {
+                data.append(parts[random.nextInt(parts.length)]);
+            }
+            assertSameLinks(data.toString());
+        }
+    }
+    
+    /**
+     * Checks that the scanner finds the same links as the regex.
+     */
+    private void assertSameLinks(String page) throws UnsupportedEncodingException {
+        byte[] data = page.getBytes("ISO-8859-1");
+        Matcher matcher = linkPattern.matcher(page);
+        int from = 0;
+        
+        while (matcher.find()) {
+            assertTrue("Should find link in " + page, scanner.find(data, from, data.length, data.length));
+            assertEquals("Start of link in " + page, matcher.start(), scanner.start());
+            assertEquals("End of link in " + page, matcher.end(), scanner.end());
+            assertEquals("Quote in " + page, matcher.start(2), scanner.quote());
+            assertEquals("Absolute link in " + page, matcher.group(4) != null, scanner.isAbsolute());
+            if (scanner.isAbsolute()) {
+                assertEquals("Host in " + page, matcher.start(5), scanner.hostStart());
+            }
+            assertEquals("Link in " + page, matcher.start(6), scanner.linkStart());
+            assertEquals("Link in " + page, matcher.end(6), scanner.linkEnd());
+            from = scanner.end();
+        }
+        assertFalse("Should not find more links in " + page, scanner.find(data, from, data.length, data.length));
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.CompressingResponseWrapper;
+import net.sf.j2ep.ResponseCompressor;
+import net.sf.j2ep.cache.RequestCoalescer;
+import net.sf.j2ep.cache.ResponseCache;
+import net.sf.j2ep.metrics.LatencyHistogram;
+import net.sf.j2ep.metrics.MetricsRegistry;
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.servers.BaseServer;
+import net.sf.j2ep.servers.RoundRobinCluster;
+
+public class MetricsTest extends TestCase {
+
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i=0; i < 98; i++) {
+            histogram.record(3);
+        }
+        histogram.record(40);
+        histogram.record(70000);
+        histogram.record(-1, true);
+
+        assertEquals("Count", 100, histogram.getCount());
+        assertEquals("Failures", 1, histogram.getFailures());
+        assertEquals("Max", 70000, histogram.getMax());
+        assertEquals("Median is the bucket's bound", 5, histogram.getMedian());
+        assertEquals("99th percentile", 50, histogram.getPercentile99());
+        assertEquals("Top percentile above the last bound", 70000, histogram.getPercentile(1));
+        assertEquals("Bucket up to 5 ms", 98, histogram.getBuckets()[2]);
+    }
+
+    public void testPrometheus() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry(false);
+        registry.record("pool", 0);
+        registry.record("backend", 120);
+        registry.getServer(server("localhost:8080", "/app")).record(120, false);
+        registry.getServer(server("localhost:8080", "/app")).record(-1, true);
+
+        StringWriter out = new StringWriter();
+        registry.writePrometheus(out);
+        String text = out.toString();
+        assertTrue("Phase bucket", text.indexOf("j2ep_phase_seconds_bucket{phase=\"pool\",le=\"0.001\"} 1\n") != -1);
+        assertTrue("Phase below bound", text.indexOf("j2ep_phase_seconds_bucket{phase=\"backend\",le=\"0.1\"} 0\n") != -1);
+        assertTrue("Phase above bound", text.indexOf("j2ep_phase_seconds_bucket{phase=\"backend\",le=\"0.25\"} 1\n") != -1);
+        assertTrue("Phase sum", text.indexOf("j2ep_phase_seconds_sum{phase=\"backend\"} 0.12\n") != -1);
+        assertTrue("Server count", text.indexOf("j2ep_server_seconds_count{server=\"localhost:8080/app\"} 1\n") != -1);
+        assertTrue("Server failures", text.indexOf("j2ep_server_failures_total{server=\"localhost:8080/app\"} 1\n") != -1);
+        assertTrue("No cluster of a base server", registry.getCluster(server("localhost:8080", "/app")) == null);
+        assertTrue("No sub-millisecond phases", text.indexOf("phase=\"rules\"") == -1);
+        
+        RoundRobinCluster cluster = new RoundRobinCluster();
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b");
+        Iterator itr = cluster.getServers().iterator();
+        while (itr.hasNext()) {
+            Server clustered = (Server) itr.next();
+            registry.getCluster(clustered).record(-1, true);
+        }
+        cluster.setName("backends");
+        registry.getCluster((Server) cluster.getServers().iterator().next()).record(20, false);
+        
+        out = new StringWriter();
+        registry.writePrometheus(out);
+        text = out.toString();
+        assertTrue("Cluster named after its servers", text.indexOf("j2ep_cluster_failures_total{cluster=\"localhost:1/a,localhost:2/b\"} 2\n") != -1);
+        assertTrue("Named cluster", text.indexOf("j2ep_cluster_seconds_count{cluster=\"backends\"} 1\n") != -1);
+        assertTrue("Named cluster failures", text.indexOf("j2ep_cluster_failures_total{cluster=\"backends\"} 0\n") != -1);
+        assertTrue("No compression metrics", text.indexOf("j2ep_compress") == -1);
+
+
+        ResponseCompressor compressor = new ResponseCompressor(new String[] {"text/html"}, 0, 6);
+        CompressingResponseWrapper response = compressor.wrap(new GzipRequest(), new MockHttpServletResponse());
+        response.setContentType("text/html");
+        OutputStream stream = response.getOutputStream();
+        stream.write(new byte[1000]);
+        stream.close();
+        registry.setCompressor(compressor);
+
+        out = new StringWriter();
+        registry.writePrometheus(out);
+        text = out.toString();
+        assertTrue("Compressed responses", text.indexOf("j2ep_compressed_responses_total{content_type=\"text/html\"} 1\n") != -1);
+        assertTrue("Bytes in", text.indexOf("j2ep_compression_bytes_in_total{content_type=\"text/html\"} 1000\n") != -1);
+        assertTrue("No coalescer metrics", text.indexOf("j2ep_coalescer") == -1);
+        assertTrue("No cache metrics", text.indexOf("j2ep_cache") == -1);
+
+        ResponseCache cache = new ResponseCache(10000, 1000);
+        cache.get("http://server/a", new GzipRequest());
+        registry.setCache(cache);
+
+        RequestCoalescer coalescer = new RequestCoalescer(0);
+        RequestCoalescer.Flight flight = coalescer.join("http://server/a");
+        coalescer.await(coalescer.join("http://server/a"), new GzipRequest());
+        coalescer.complete(flight);
+        registry.setCoalescer(coalescer);
+
+        out = new StringWriter();
+        registry.writePrometheus(out);
+        text = out.toString();
+        assertTrue("Leaders", text.indexOf("j2ep_coalescer_leaders_total 1\n") != -1);
+        assertTrue("Collapsed", text.indexOf("j2ep_coalescer_collapsed_total 0\n") != -1);
+        assertTrue("Fallbacks", text.indexOf("j2ep_coalescer_fallbacks_total 1\n") != -1);
+        assertTrue("Cache misses", text.indexOf("j2ep_cache_misses_total 1\n") != -1);
+        assertTrue("Cache hits", text.indexOf("j2ep_cache_hits_total 0\n") != -1);
+        assertTrue("Cache size", text.indexOf("# TYPE j2ep_cache_size_bytes gauge\n") != -1);
+    }
+
+    public void testJmx() throws Exception {
+        MBeanServer mbeanServer = MBeanServerFactory.createMBeanServer();
+        try {
+            MetricsRegistry registry = new MetricsRegistry(true);
+            registry.getServer(server("localhost:8080", "/app")).record(10, false);
+            ObjectName name = new ObjectName("net.sf.j2ep:type=Server,name=" + ObjectName.quote("localhost:8080/app"));
+            assertEquals("Count through JMX", new Long(1), mbeanServer.getAttribute(name, "Count"));
+            assertTrue("Phases registered", mbeanServer.isRegistered(new ObjectName("net.sf.j2ep:type=Phase,name=\"backend\"")));
+
+            RequestCoalescer coalescer = new RequestCoalescer(1000);
+            coalescer.join("http://server/a");
+            registry.setCoalescer(coalescer);
+            ObjectName coalescerName = new ObjectName("net.sf.j2ep:type=Coalescer,name=\"requests\"");
+            assertEquals("Coalescer through JMX", new Long(1), mbeanServer.getAttribute(coalescerName, "Leaders"));
+
+            ResponseCache cache = new ResponseCache(10000, 1000);
+            cache.get("http://server/a", new GzipRequest());
+            registry.setCache(cache);
+            ObjectName cacheName = new ObjectName("net.sf.j2ep:type=Cache,name=\"responses\"");
+            assertEquals("Cache through JMX", new Long(1), mbeanServer.getAttribute(cacheName, "Misses"));
+
+            registry.unregister();
+            assertFalse("Unregistered", mbeanServer.isRegistered(name));
+            assertFalse("Coalescer unregistered", mbeanServer.isRegistered(coalescerName));
+            assertFalse("Cache unregistered", mbeanServer.isRegistered(cacheName));
+        } finally {
+            MBeanServerFactory.releaseMBeanServer(mbeanServer);
+        }
+    }
+
+    private BaseServer server(String domainName, String path) {
+        BaseServer server = new BaseServer();
+        server.setDomainName(domainName);
+        server.setPath(path);
+        return server;
+    }
+
+    private static class GzipRequest extends MockHttpServletRequest {
+
+        public Enumeration getHeaders(String name) {
+            return Collections.enumeration(Collections.singletonList("gzip"));
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+
+public class MockFilterConfig implements FilterConfig {
+
+    private Properties parameters = new Properties();
+
+    public void setInitParameter(String name, String value) {
+        parameters.setProperty(name, value);
+    }
+
+    public String getFilterName() {
+        return "mock";
+    }
+
+    /**
+     * Returns a context answering null to everything.
+     */
+    public ServletContext getServletContext() {
+        return (ServletContext) Proxy.newProxyInstance(ServletContext.class.getClassLoader(),
+                new Class[] {ServletContext.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+    }
+
+    public String getInitParameter(String name) {
+        return parameters.getProperty(name);
+    }
+
+    public Enumeration getInitParameterNames() {
+        return parameters.propertyNames();
+    }
+}
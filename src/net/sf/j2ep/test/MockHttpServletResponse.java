@@ -0,0 +1,196 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+public class MockHttpServletResponse implements HttpServletResponse {
+
+    private HashMap headers = new HashMap();
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private int status = 200;
+
+    public List getHeaders(String name) {
+        List values = (List) headers.get(name.toLowerCase());
+        return values == null ? new ArrayList() : values;
+    }
+
+    public String getHeader(String name) {
+        List values = getHeaders(name);
+        return values.isEmpty() ? null : (String) values.get(0);
+    }
+
+    public byte[] getBody() {
+        return body.toByteArray();
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void addCookie(Cookie arg0) {
+    }
+
+    public boolean containsHeader(String name) {
+        return headers.containsKey(name.toLowerCase());
+    }
+
+    public String encodeURL(String url) {
+        return url;
+    }
+
+    public String encodeRedirectURL(String url) {
+        return url;
+    }
+
+    /**
+     * @deprecated Use encodeURL
+     */
+    public String encodeUrl(String url) {
+        return encodeURL(url);
+    }
+
+    /**
+     * @deprecated Use encodeRedirectURL
+     */
+    public String encodeRedirectUrl(String url) {
+        return encodeRedirectURL(url);
+    }
+
+    public void sendError(int sc, String arg1) throws IOException {
+        status = sc;
+    }
+
+    public void sendError(int sc) throws IOException {
+        status = sc;
+    }
+
+    public void sendRedirect(String arg0) throws IOException {
+        status = 302;
+    }
+
+    public void setDateHeader(String name, long value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addDateHeader(String name, long value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setHeader(String name, String value) {
+        headers.remove(name.toLowerCase());
+        addHeader(name, value);
+    }
+
+    public void addHeader(String name, String value) {
+        List values = (List) headers.get(name.toLowerCase());
+        if (values == null) {
+            values = new ArrayList();
+            headers.put(name.toLowerCase(), values);
+        }
+        values.add(value);
+    }
+
+    public void setIntHeader(String name, int value) {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value) {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void setStatus(int sc) {
+        status = sc;
+    }
+
+    /**
+     * @deprecated Use setStatus(int)
+     */
+    public void setStatus(int sc, String arg1) {
+        setStatus(sc);
+    }
+
+    public String getCharacterEncoding() {
+        return "ISO-8859-1";
+    }
+
+    public String getContentType() {
+        return getHeader("content-type");
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException {
+        return new ServletOutputStream() {
+            public void write(int b) {
+                body.write(b);
+            }
+        };
+    }
+
+    public PrintWriter getWriter() throws IOException {
+        return new PrintWriter(getOutputStream());
+    }
+
+    public void setCharacterEncoding(String arg0) {
+    }
+
+    public void setContentLength(int length) {
+        setIntHeader("Content-Length", length);
+    }
+
+    public void setContentType(String type) {
+        setHeader("Content-Type", type);
+    }
+
+    public void setBufferSize(int arg0) {
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public void flushBuffer() throws IOException {
+    }
+
+    public void resetBuffer() {
+        body.reset();
+    }
+
+    public boolean isCommitted() {
+        return false;
+    }
+
+    public void reset() {
+        headers.clear();
+        body.reset();
+    }
+
+    public void setLocale(Locale arg0) {
+    }
+
+    public Locale getLocale() {
+        return null;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.net.InetAddress;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.ProxyIdentity;
+
+public class ProxyIdentityTest extends TestCase {
+
+    protected void tearDown() {
+        ProxyIdentity.setHostName(null);
+    }
+
+    public void testConfiguredName() {
+        ProxyIdentity.setHostName(" proxy.example.com ");
+        assertEquals("Configured name", "proxy.example.com", ProxyIdentity.getHostName());
+        assertEquals("Via for HTTP/1.1", "HTTP/1.1 proxy.example.com", ProxyIdentity.getVia("HTTP/1.1"));
+        assertEquals("Via for HTTP/1.0", "HTTP/1.0 proxy.example.com", ProxyIdentity.getVia("HTTP/1.0"));
+        assertEquals("Via for other protocols", "HTTP/2.0 proxy.example.com", ProxyIdentity.getVia("HTTP/2.0"));
+        assertSame("Via should be built once", ProxyIdentity.getVia("HTTP/1.1"), ProxyIdentity.getVia("HTTP/1.1"));
+    }
+
+    public void testLookedUpName() throws Exception {
+        ProxyIdentity.setHostName(null);
+        assertEquals("Name of the local host", InetAddress.getLocalHost().getHostName(), ProxyIdentity.getHostName());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.cache.CachedResponse;
+import net.sf.j2ep.cache.RequestCoalescer;
+import net.sf.j2ep.cache.ResponseCache;
+
+import org.apache.commons.httpclient.Header;
+
+public class RequestCoalescerTest extends TestCase {
+
+    private RequestCoalescer coalescer;
+    private ResponseCache cache;
+
+    protected void setUp() throws Exception {
+        coalescer = new RequestCoalescer(5000);
+        cache = new ResponseCache(10000, 5000);
+    }
+
+    public void testCollapse() throws Exception {
+        RequestCoalescer.Flight flight = coalescer.join("http://server/a");
+        assertTrue("First thread should lead", flight.isLeader());
+
+        Follower[] followers = new Follower[5];
+        for (int i=0; i < followers.length; i++) {
+            followers[i] = new Follower("http://server/a", request("sv"));
+            followers[i].start();
+        }
+
+        while (!allJoined(followers)) {
+            Thread.sleep(10);
+        }
+        CachedResponse response = response("Accept-Language");
+        flight.setResponse(response);
+        coalescer.complete(flight);
+
+        for (int i=0; i < followers.length; i++) {
+            followers[i].join();
+            assertFalse("Follower shouldn't lead", followers[i].leader);
+            assertSame("Follower should get the leader's response", response, followers[i].response);
+        }
+        assertEquals("One request to the server", 1, coalescer.getLeaders());
+        assertEquals("All followers collapsed", 5, coalescer.getCollapsed());
+        assertTrue("A new flight should be started", coalescer.join("http://server/a").isLeader());
+    }
+
+    public void testVary() throws Exception {
+        RequestCoalescer.Flight flight = coalescer.join("http://server/a");
+        Follower follower = new Follower("http://server/a", request("en"));
+        follower.start();
+        while (!allJoined(new Follower[] {follower})) {
+            Thread.sleep(10);
+        }
+        flight.setResponse(response("Accept-Language"));
+        coalescer.complete(flight);
+        follower.join();
+
+        assertNull("Other language can't use the response", follower.response);
+        assertEquals("Fallback should be counted", 1, coalescer.getFallbacks());
+    }
+
+    public void testFailedLeader() throws Exception {
+        RequestCoalescer.Flight flight = coalescer.join("http://server/a");
+        Follower follower = new Follower("http://server/a", request("sv"));
+        follower.start();
+        while (!allJoined(new Follower[] {follower})) {
+            Thread.sleep(10);
+        }
+        coalescer.complete(flight);
+        follower.join();
+
+        assertNull("No response without a result from the leader", follower.response);
+    }
+
+    public void testTimeout() throws Exception {
+        coalescer = new RequestCoalescer(50);
+        coalescer.join("http://server/a");
+        Follower follower = new Follower("http://server/a", request("sv"));
+        follower.start();
+        follower.join();
+
+        assertNull("Follower should give up", follower.response);
+        assertEquals("Fallback should be counted", 1, coalescer.getFallbacks());
+    }
+
+    public void testInterrupted() throws Exception {
+        RequestCoalescer.Flight flight = coalescer.join("http://server/a");
+        Thread.currentThread().interrupt();
+        long start = System.currentTimeMillis();
+        try {
+            coalescer.await(flight, request("sv"));
+            fail("Interrupted wait should fail");
+        } catch (InterruptedException e) {
+            assertTrue("Shouldn't wait for the timeout", System.currentTimeMillis() - start < 5000);
+        }
+        assertEquals("Interrupted request isn't a fallback", 0, coalescer.getFallbacks());
+        coalescer.complete(flight);
+    }
+
+    private boolean allJoined(Follower[] followers) {
+        for (int i=0; i < followers.length; i++) {
+            if (!followers[i].joined) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private CachedResponse response(String vary) {
+        List headers = new ArrayList();
+        headers.add(new Header("Cache-Control", "max-age=60"));
+        headers.add(new Header("Vary", vary));
+        return cache.createResponse(request("sv"), 200, headers, new byte[10]);
+    }
+
+    private HttpServletRequest request(final String language) {
+        return new MockHttpServletRequest() {
+            public String getMethod() {
+                return "GET";
+            }
+            public String getHeader(String name) {
+                return name.equalsIgnoreCase("Accept-Language") ? language : null;
+            }
+        };
+    }
+
+    private class Follower extends Thread {
+
+        private String url;
+        private HttpServletRequest request;
+        private volatile boolean joined;
+        private boolean leader;
+        private CachedResponse response;
+
+        public Follower(String url, HttpServletRequest request) {
+            this.url = url;
+            this.request = request;
+        }
+
+        public void run() {
+            RequestCoalescer.Flight flight = coalescer.join(url);
+            leader = flight.isLeader();
+            joined = true;
+            try {
+                response = coalescer.await(flight, request);
+            } catch (InterruptedException e) {
+                response = null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.j2ep.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.requesthandlers.BufferedRequestEntity;
+import net.sf.j2ep.requesthandlers.StreamingRequestEntity;
+
+public class RequestEntityTest extends TestCase {
+
+    private byte[] body;
+
+    protected void setUp() throws Exception {
+        body = new byte[200000];
+        for (int i=0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+    }
+
+    public void testStreaming() throws IOException {
+        StreamingRequestEntity entity = new StreamingRequestEntity(new ByteArrayInputStream(body), body.length, "text/plain");
+        assertEquals("Length should be passed on", body.length, entity.getContentLength());
+        assertFalse("Stream can't be repeated", entity.isRepeatable());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeRequest(out);
+        assertTrue("Body should be copied", Arrays.equals(body, out.toByteArray()));
+    }
+
+    public void testStreamingTooShort() {
+        StreamingRequestEntity entity = new StreamingRequestEntity(new ByteArrayInputStream(body), body.length + 1, "text/plain");
+        try {
+            entity.writeRequest(new ByteArrayOutputStream());
+            fail("A body shorter than its length should fail");
+        } catch (IOException e) {
+        }
+    }
+
+    public void testBufferedInMemory() throws IOException {
+        BufferedRequestEntity entity = new BufferedRequestEntity(new ByteArrayInputStream(body), body.length, "text/plain", body.length, null);
+        assertFalse("Body should be kept in memory", entity.isOnDisk());
+        assertRepeated(entity);
+        entity.release();
+    }
+
+    public void testBufferedOnDisk() throws IOException {
+        File directory = File.createTempFile("j2ep", ".test");
+        directory.delete();
+        directory.mkdir();
+        try {
+            BufferedRequestEntity entity = new BufferedRequestEntity(new ByteArrayInputStream(body), -1, "text/plain", 1000, directory);
+            assertTrue("Body should be written to disk", entity.isOnDisk());
+            assertEquals("Length should be counted", body.length, entity.getContentLength());
+            assertRepeated(entity);
+            entity.release();
+            assertFalse("Entity should forget the file", entity.isOnDisk());
+            assertEquals("File should be deleted after it was sent", 0, directory.list().length);
+        } finally {
+            directory.delete();
+        }
+    }
+
+    private void assertRepeated(BufferedRequestEntity entity) throws IOException {
+        assertTrue("Buffered body can be repeated", entity.isRepeatable());
+        for (int i=0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            entity.writeRequest(out);
+            assertTrue("Body should be the same each time", Arrays.equals(body, out.toByteArray()));
+        }
+    }
+
+}
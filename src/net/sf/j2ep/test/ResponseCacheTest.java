@@ -0,0 +1,192 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.cache.CachedResponse;
+import net.sf.j2ep.cache.ResponseCache;
+
+import org.apache.commons.httpclient.Header;
+
+public class ResponseCacheTest extends TestCase {
+    
+    private ResponseCache cache;
+
+    protected void setUp() throws Exception {
+        cache = new ResponseCache(10000, 5000);
+    }
+    
+    public void testStorable() {
+        assertNotNull("Response with max-age should be stored", 
+                cache.createResponse(new TestRequest("GET"), 200, headers("Cache-Control", "public, max-age=60"), new byte[10]));
+        assertNull("Response with no-store shouldn't be stored", 
+                cache.createResponse(new TestRequest("GET"), 200, headers("Cache-Control", "no-store, max-age=60"), new byte[10]));
+        assertNull("Private response shouldn't be stored", 
+                cache.createResponse(new TestRequest("GET"), 200, headers("Cache-Control", "private, max-age=60"), new byte[10]));
+        assertNull("Response without expiration shouldn't be stored", 
+                cache.createResponse(new TestRequest("GET"), 200, headers("Content-Type", "text/html"), new byte[10]));
+        assertNull("Error response shouldn't be stored", 
+                cache.createResponse(new TestRequest("GET"), 500, headers("Cache-Control", "max-age=60"), new byte[10]));
+        assertNull("Response to POST shouldn't be stored", 
+                cache.createResponse(new TestRequest("POST"), 200, headers("Cache-Control", "max-age=60"), new byte[10]));
+        
+        List expires = headers("Date", "Sun, 06 Nov 1994 08:49:37 GMT");
+        expires.add(new Header("Expires", "Sun, 06 Nov 1994 08:50:37 GMT"));
+        CachedResponse response = cache.createResponse(new TestRequest("GET"), 200, expires, new byte[10]);
+        assertNotNull("Response with Expires should be stored", response);
+        assertTrue("Response should be fresh", response.isFresh(System.currentTimeMillis()));
+        assertFalse("Response should expire after a minute", response.isFresh(System.currentTimeMillis() + 61000));
+    }
+    
+    public void testCacheableRequest() {
+        assertTrue("GET can use the cache", cache.isCacheableRequest(new TestRequest("GET")));
+        assertTrue("HEAD can use the cache", cache.isCacheableRequest(new TestRequest("HEAD")));
+        assertFalse("POST can't use the cache", cache.isCacheableRequest(new TestRequest("POST")));
+        assertFalse("Authorized request can't use the cache", cache.isCacheableRequest(new TestRequest("GET").header("Authorization", "Basic xyz")));
+        assertFalse("Reload can't use the cache", cache.isCacheableRequest(new TestRequest("GET").header("Pragma", "no-cache")));
+    }
+    
+    public void testVary() {
+        List headers = headers("Cache-Control", "max-age=60");
+        headers.add(new Header("Vary", "Accept-Language"));
+        TestRequest swedish = new TestRequest("GET").header("Accept-Language", "sv");
+        cache.put("http://server/a", cache.createResponse(swedish, 200, headers, new byte[10]));
+        
+        assertNotNull("Same language should use cache", cache.get("http://server/a", new TestRequest("GET").header("Accept-Language", "sv")));
+        assertNull("Other language shouldn't use cache", cache.get("http://server/a", new TestRequest("GET").header("Accept-Language", "en")));
+    }
+    
+    public void testVariants() {
+        List headers = headers("Cache-Control", "max-age=60");
+        headers.add(new Header("Vary", "Accept-Encoding"));
+        TestRequest gzip = new TestRequest("GET").header("Accept-Encoding", "gzip, deflate");
+        TestRequest identity = new TestRequest("GET");
+        CachedResponse gzipped = cache.createResponse(gzip, 200, headers, new byte[10]);
+        CachedResponse plain = cache.createResponse(identity, 200, headers, new byte[20]);
+        cache.put("http://server/a", gzipped);
+        cache.put("http://server/a", plain);
+
+        assertEquals("Both variants stored", gzipped.getSize() + plain.getSize(), cache.getSize());
+        assertEquals("Gzip variant", 10, cache.get("http://server/a", new TestRequest("GET").header("Accept-Encoding", "deflate,gzip;q=0.8")).getBody().length);
+        assertEquals("Identity variant", 20, cache.get("http://server/a", new TestRequest("GET").header("Accept-Encoding", "br")).getBody().length);
+
+        CachedResponse unvaried = cache.createResponse(identity, 200, headers("Cache-Control", "max-age=60"), new byte[5]);
+        cache.put("http://server/a", unvaried);
+        assertEquals("Variants removed when Vary changes", unvaried.getSize(), cache.getSize());
+        assertEquals("Response without Vary", 5, cache.get("http://server/a", gzip).getBody().length);
+    }
+
+    public void testEviction() {
+        TestRequest request = new TestRequest("GET");
+        cache.put("http://server/1", cache.createResponse(request, 200, headers("Cache-Control", "max-age=60"), new byte[4000]));
+        cache.put("http://server/2", cache.createResponse(request, 200, headers("Cache-Control", "max-age=60"), new byte[4000]));
+        assertNotNull("First response should be in cache", cache.get("http://server/1", request));
+        
+        cache.put("http://server/3", cache.createResponse(request, 200, headers("Cache-Control", "max-age=60"), new byte[4000]));
+        assertNotNull("Recently used response should be kept", cache.get("http://server/1", request));
+        assertNull("Least recently used response should be removed", cache.get("http://server/2", request));
+        assertNotNull("New response should be stored", cache.get("http://server/3", request));
+        assertTrue("Cache should not use more than max size", cache.getSize() <= 10000);
+        
+        cache.put("http://server/4", cache.createResponse(request, 200, headers("Cache-Control", "max-age=60"), new byte[6000]));
+        assertNull("Too large response shouldn't be stored", cache.get("http://server/4", request));
+    }
+    
+    public void testRevalidation() {
+        List headers = headers("Cache-Control", "no-cache");
+        headers.add(new Header("ETag", "\"v1\""));
+        headers.add(new Header("Content-Length", "10"));
+        CachedResponse response = cache.createResponse(new TestRequest("GET"), 200, headers, new byte[10]);
+        assertNotNull("Response with ETag should be stored", response);
+        assertFalse("Response with no-cache should never be fresh", response.isFresh(System.currentTimeMillis()));
+        assertTrue("Response should have a validator", response.hasValidator());
+        cache.put("http://server/r", response);
+        
+        Header[] notModified = new Header[] {
+                new Header("Cache-Control", "max-age=60"),
+                new Header("ETag", "\"v2\""),
+                new Header("Content-Length", "0") };
+        CachedResponse refreshed = cache.refresh("http://server/r", response, notModified);
+        assertTrue("Refreshed response should be fresh", refreshed.isFresh(System.currentTimeMillis()));
+        assertEquals("ETag should be updated", "\"v2\"", refreshed.getHeader("etag").getValue());
+        assertEquals("Content-Length shouldn't be updated", "10", refreshed.getHeader("content-length").getValue());
+        assertSame("Body should be kept", response.getBody(), refreshed.getBody());
+        assertSame("Refreshed response should be in the cache", refreshed, cache.get("http://server/r", new TestRequest("GET")));
+        assertEquals("Revalidation should be counted", 1, cache.getRevalidations());
+    }
+    
+    public void testNotModified() {
+        List headers = headers("Cache-Control", "max-age=60");
+        headers.add(new Header("ETag", "W/\"abc\""));
+        headers.add(new Header("Last-Modified", "Sun, 06 Nov 1994 08:49:37 GMT"));
+        CachedResponse response = cache.createResponse(new TestRequest("GET"), 200, headers, new byte[10]);
+        
+        assertTrue("Matching ETag", response.isNotModified(new TestRequest("GET").header("If-None-Match", "\"xyz\", \"abc\"")));
+        assertTrue("Wildcard", response.isNotModified(new TestRequest("GET").header("If-None-Match", "*")));
+        assertFalse("Other ETag", response.isNotModified(new TestRequest("GET").header("If-None-Match", "\"xyz\"")));
+        assertTrue("Same date", response.isNotModified(new TestRequest("GET").header("If-Modified-Since", "Sun, 06 Nov 1994 08:49:37 GMT")));
+        assertFalse("Earlier date", response.isNotModified(new TestRequest("GET").header("If-Modified-Since", "Sun, 06 Nov 1994 08:00:00 GMT")));
+        assertFalse("If-None-Match is used before If-Modified-Since", response.isNotModified(new TestRequest("GET")
+                .header("If-None-Match", "\"xyz\"").header("If-Modified-Since", "Sun, 06 Nov 1994 08:49:37 GMT")));
+        assertFalse("Unconditional request", response.isNotModified(new TestRequest("GET")));
+    }
+    
+    private List headers(String name, String value) {
+        List headers = new ArrayList();
+        headers.add(new Header(name, value));
+        return headers;
+    }
+    
+    private static class TestRequest extends MockHttpServletRequest {
+        
+        private String method;
+        private HashMap headers;
+        
+        public TestRequest(String method) {
+            this.method = method;
+            headers = new HashMap();
+        }
+        
+        public TestRequest header(String name, String value) {
+            headers.put(name.toLowerCase(), value);
+            return this;
+        }
+        
+        public String getMethod() {
+            return method;
+        }
+        
+        public String getHeader(String name) {
+            return (String) headers.get(name.toLowerCase());
+        }
+
+        public Enumeration getHeaders(String name) {
+            Vector values = new Vector();
+            if (headers.containsKey(name.toLowerCase())) {
+                values.add(headers.get(name.toLowerCase()));
+            }
+            return values.elements();
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.servers.RoundRobinCluster;
+
+public class RoundRobinClusterTest extends TestCase {
+
+    private TestCluster cluster;
+
+    protected void setUp() throws Exception {
+        cluster = new TestCluster();
+    }
+
+    public void testRoundRobin() {
+        cluster.addServer("localhost:1", "/a");
+        cluster.addServer("localhost:2", "/b");
+        cluster.addServer("localhost:3", "/c");
+        markOffline();
+
+        String first = cluster.next().getDomainName();
+        assertFalse("Next server should be another one", first.equals(cluster.next().getDomainName()));
+        cluster.next();
+        assertEquals("Should be back at the first server", first, cluster.next().getDomainName());
+    }
+
+    public void testEmpty() {
+        assertNull("No server in an empty cluster", cluster.next());
+        assertNull("No server for a request", cluster.getServer(new MockHttpServletRequest() {}));
+    }
+
+    public void testWeights() {
+        cluster.addServer("localhost:1", "/a", "5");
+        cluster.addServer("localhost:2", "/b", null);
+        cluster.addServer("localhost:3", "/c", "1");
+        markOffline();
+
+        StringBuffer order = new StringBuffer();
+        for (int i=0; i < 14; i++) {
+            order.append(cluster.next().getPath());
+        }
+        assertTrue("Servers should be spread out", order.indexOf("/a/a/b/a/c/a/a") != -1);
+
+        HashMap counts = count(7000);
+        assertEquals("Weight 5", 5000, ((int[]) counts.get("/a"))[0]);
+        assertEquals("Weight 1", 1000, ((int[]) counts.get("/b"))[0]);
+        assertEquals("Weight 1", 1000, ((int[]) counts.get("/c"))[0]);
+    }
+
+    public void testConcurrent() throws Exception {
+        cluster.addServer("localhost:1", "/a", "2");
+        cluster.addServer("localhost:2", "/b", "1");
+        cluster.addServer("localhost:3", "/c", "1");
+        markOffline();
+
+        Counter[] counters = new Counter[8];
+        for (int i=0; i < counters.length; i++) {
+            counters[i] = new Counter(10000);
+            counters[i].start();
+        }
+
+        HashMap total = new HashMap();
+        for (int i=0; i < counters.length; i++) {
+            counters[i].join();
+            Iterator itr = counters[i].counts.keySet().iterator();
+            while (itr.hasNext()) {
+                String path = (String) itr.next();
+                int[] count = (int[]) total.get(path);
+                if (count == null) {
+                    count = new int[1];
+                    total.put(path, count);
+                }
+                count[0] += ((int[]) counters[i].counts.get(path))[0];
+            }
+        }
+
+        assertEquals("No request should be lost", 40000, ((int[]) total.get("/a"))[0]);
+        assertEquals("No request should be lost", 20000, ((int[]) total.get("/b"))[0]);
+        assertEquals("No request should be lost", 20000, ((int[]) total.get("/c"))[0]);
+    }
+
+    /**
+     * The status checker of the cluster can only take these servers
+     * offline, so all of them are marked offline before the test to
+     * keep the checker from changing the distribution.
+     */
+    private void markOffline() {
+        Iterator itr = cluster.getServers().iterator();
+        while (itr.hasNext()) {
+            cluster.serverOffline((Server) itr.next());
+        }
+    }
+
+    private HashMap count(int requests) {
+        HashMap counts = new HashMap();
+        for (int i=0; i < requests; i++) {
+            String path = cluster.next().getPath();
+            int[] count = (int[]) counts.get(path);
+            if (count == null) {
+                count = new int[1];
+                counts.put(path, count);
+            }
+            count[0]++;
+        }
+        return counts;
+    }
+
+    private class Counter extends Thread {
+
+        private int requests;
+        private HashMap counts;
+
+        public Counter(int requests) {
+            this.requests = requests;
+        }
+
+        public void run() {
+            counts = count(requests);
+        }
+    }
+
+    private static class TestCluster extends RoundRobinCluster {
+
+        public Server next() {
+            return getNextServer();
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import javax.servlet.http.HttpServletRequest;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.model.Rule;
+import net.sf.j2ep.model.Server;
+import net.sf.j2ep.model.ServerContainer;
+import net.sf.j2ep.rules.AcceptEverythingRule;
+import net.sf.j2ep.rules.DirectoryRule;
+import net.sf.j2ep.rules.RewriteRule;
+import net.sf.j2ep.servers.BaseServer;
+import net.sf.j2ep.servers.ServerContainerBase;
+
+public class ServerChainTest extends TestCase {
+
+    private static final String[] DIRECTORIES = {"/", "/a", "/a/b", "/a/b/c", "/b", "/b/a", "/c", "/a/c"};
+    private static final String[] PATHS = {"", "/", "/a", "/a/", "/a/b", "/a/b/", "/a/b/c/d", "/b/a/x", "/c/", "/ab/", "/a/c"};
+
+    public void testFirstMatch() {
+        List servers = new LinkedList();
+        servers.add(server(directory("/a/b")));
+        servers.add(server(directory("/a")));
+        servers.add(server(regex("/a/b/.*")));
+        servers.add(server(directory("/a/b/c")));
+        ServerChain chain = new ServerChain(servers);
+
+        assertSame("First directory should be used", servers.get(0), chain.evaluate(request("/a/b/c/x", null)));
+        assertSame("Shorter directory before longer", servers.get(1), chain.evaluate(request("/a/x", null)));
+        assertNull("No rule matches", chain.evaluate(request("/b/x", null)));
+    }
+
+    public void testExactMatch() {
+        List servers = new LinkedList();
+        servers.add(server(regex("/page")));
+        servers.add(server(regex("/list\\?page=1")));
+        servers.add(server(new AcceptEverythingRule()));
+        ServerChain chain = new ServerChain(servers);
+
+        assertSame("Exact URI", servers.get(0), chain.evaluate(request("/page", null)));
+        assertSame("Query string is part of the URI", servers.get(1), chain.evaluate(request("/list", "page=1")));
+        assertSame("Other URIs fall through", servers.get(2), chain.evaluate(request("/pages", null)));
+    }
+
+    public void testAddServer() {
+        ServerChain chain = new ServerChain(new LinkedList());
+        assertNull("Empty chain", chain.evaluate(request("/a/x", null)));
+        BaseServer server = server(directory("/a"));
+        chain.addServer(server);
+        assertSame("Added server should be found", server, chain.evaluate(request("/a/x", null)));
+    }
+
+    public void testChanged() {
+        List servers = new LinkedList();
+        DirectoryRule rule = (DirectoryRule) directory("/a");
+        BaseServer server = server(rule);
+        server.setPath("/app");
+        server.setIsRewriting("true");
+        servers.add(server);
+        ServerChain chain = new ServerChain(servers);
+        assertSame("Mapped before the change", server, chain.getServerMapped("www.server.com/app/page"));
+
+        server.setDomainName("www.other.com");
+        assertNull("Old domain isn't mapped", chain.getServerMapped("www.server.com/app/page"));
+        assertSame("New domain is mapped", server, chain.getServerMapped("www.other.com/app/page"));
+
+        rule.setDirectory("/b");
+        assertNull("Old directory doesn't match", chain.evaluate(request("/a/x", null)));
+        assertSame("New directory matches", server, chain.evaluate(request("/b/x", null)));
+
+        servers.add(server(directory("/c")));
+        assertNull("The chain keeps its own list", chain.evaluate(request("/c/x", null)));
+    }
+
+    public void testRandom() {
+        Random random = new Random(1);
+        for (int run=0; run < 200; run++) {
+            List servers = new LinkedList();
+            int count = 1 + random.nextInt(12);
+            for (int i=0; i < count; i++) {
+                int type = random.nextInt(10);
+                if (type < 6) {
+                    servers.add(server(directory(DIRECTORIES[random.nextInt(DIRECTORIES.length)])));
+                } else if (type < 8) {
+                    servers.add(server(regex(PATHS[random.nextInt(PATHS.length)])));
+                } else if (type < 9) {
+                    servers.add(server(regex("/a.*")));
+                } else {
+                    servers.add(server(new AcceptEverythingRule()));
+                }
+            }
+            ServerChain chain = new ServerChain(servers);
+
+            for (int i=0; i < PATHS.length; i++) {
+                HttpServletRequest request = request(PATHS[i], null);
+                assertSame("Index should give the same server as a linear search for " + PATHS[i],
+                        linearSearch(servers, request), chain.evaluate(request));
+            }
+        }
+    }
+
+    public void testServerMapped() {
+        List servers = new LinkedList();
+        servers.add(server("www.a.com", "/app", true));
+        servers.add(server("www.a.com", "", true));
+        servers.add(server("www.b.com", "/app", false));
+        servers.add(server("www.a.com", "/app/sub", true));
+        ServerChain chain = new ServerChain(servers);
+
+        assertSame("First mapping should be used", servers.get(0), chain.getServerMapped("www.a.com/app/sub/page"));
+        assertSame("Root mapping", servers.get(1), chain.getServerMapped("www.a.com/other"));
+        assertNull("Server isn't rewriting", chain.getServerMapped("www.b.com/app/page"));
+        assertNull("Path has to end with /", chain.getServerMapped("www.a.com"));
+        assertNull("Unknown domain", chain.getServerMapped("www.c.com/app/"));
+    }
+
+    public void testServerMappedRandom() {
+        Random random = new Random(1);
+        String[] domains = {"www.a.com", "www.b.com", "www.a.com:8080"};
+        for (int run=0; run < 200; run++) {
+            List servers = new LinkedList();
+            int count = 1 + random.nextInt(12);
+            for (int i=0; i < count; i++) {
+                String domain = domains[random.nextInt(domains.length)];
+                String path = DIRECTORIES[random.nextInt(DIRECTORIES.length)];
+                if (path.equals("/")) {
+                    path = "";
+                }
+                if (random.nextInt(8) == 0) {
+                    servers.add(container(server(domain, path, true)));
+                } else {
+                    servers.add(server(domain, path, random.nextInt(4) != 0));
+                }
+            }
+            ServerChain chain = new ServerChain(servers);
+
+            for (int i=0; i < domains.length; i++) {
+                for (int j=0; j < PATHS.length; j++) {
+                    String location = domains[i] + PATHS[j];
+                    assertSame("Index should give the same server as a linear search for " + location,
+                            linearSearch(servers, location), chain.getServerMapped(location));
+                }
+            }
+        }
+    }
+
+    private Server linearSearch(List servers, String location) {
+        Iterator itr = servers.iterator();
+        while (itr.hasNext()) {
+            ServerContainer container = (ServerContainer) itr.next();
+            Server server = container.getServerMapped(location);
+            if (server != null) {
+                return server;
+            }
+        }
+        return null;
+    }
+
+    private Server linearSearch(List servers, HttpServletRequest request) {
+        Iterator itr = servers.iterator();
+        while (itr.hasNext()) {
+            ServerContainer container = (ServerContainer) itr.next();
+            if (container.getRule().matches(request)) {
+                return container.getServer(request);
+            }
+        }
+        return null;
+    }
+
+    private BaseServer server(Rule rule) {
+        BaseServer server = new BaseServer();
+        server.setDomainName("www.server.com");
+        server.setRule(rule);
+        return server;
+    }
+
+    private BaseServer server(String domainName, String path, boolean rewriting) {
+        BaseServer server = server(new AcceptEverythingRule());
+        server.setDomainName(domainName);
+        server.setPath(path);
+        server.setIsRewriting(String.valueOf(rewriting));
+        return server;
+    }
+
+    private ServerContainer container(final BaseServer server) {
+        return new ServerContainerBase() {
+            public Server getServer(HttpServletRequest request) {
+                return server;
+            }
+            public Server getServerMapped(String link) {
+                return server.getServerMapped(link);
+            }
+        };
+    }
+
+    private Rule directory(String directory) {
+        DirectoryRule rule = new DirectoryRule();
+        rule.setDirectory(directory);
+        return rule;
+    }
+
+    private Rule regex(String from) {
+        RewriteRule rule = new RewriteRule();
+        rule.setFrom(from);
+        return rule;
+    }
+
+    private HttpServletRequest request(final String path, final String query) {
+        return new MockHttpServletRequest() {
+            public String getServletPath() {
+                return path;
+            }
+            public String getRequestURI() {
+                return "/ctx" + path;
+            }
+            public String getContextPath() {
+                return "/ctx";
+            }
+            public String getQueryString() {
+                return query;
+            }
+        };
+    }
+
+}
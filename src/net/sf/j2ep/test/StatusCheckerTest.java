@@ -52,7 +52,7 @@ public class StatusCheckerTest extends TestCase {
         //Taking server offline
         listener.makeReady();
         server.setDomainName("locallkjlkjlkjhost:8080");
-        statusChecker.interrupt();
+        statusChecker.checkNow();
         while (!listener.gotResponse()) {
             try {
                 Thread.sleep(100);
@@ -65,7 +65,7 @@ public class StatusCheckerTest extends TestCase {
         // Taking server online
         listener.makeReady();
         server.setDomainName("localhost:8080");
-        statusChecker.interrupt();
+        statusChecker.checkNow();
         while (!listener.gotResponse()) {
             try {
                 Thread.sleep(100);
@@ -77,6 +77,7 @@ public class StatusCheckerTest extends TestCase {
     }
     
     protected void tearDown() {
+        statusChecker.stop();
         statusChecker = null;
     }
 
@@ -0,0 +1,125 @@
+/*
+ * Copyright 1999-2005 The Apache Software Foundation.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.sf.j2ep.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedList;
+
+import javax.servlet.ServletOutputStream;
+
+import junit.framework.TestCase;
+import net.sf.j2ep.ServerChain;
+import net.sf.j2ep.UrlRewritingOutputStream;
+import net.sf.j2ep.rules.DirectoryRule;
+import net.sf.j2ep.servers.BaseServer;
+
+public class UrlRewritingStreamTest extends TestCase {
+    
+    private BaseServer server;
+    private ServerChain serverChain;
+    private ByteArrayOutputStream result;
+    private UrlRewritingOutputStream stream;
+
+    protected void setUp() throws Exception {
+        server = new BaseServer();
+        server.setDomainName("www.backend.com");
+        server.setPath("/app");
+        server.setIsRewriting("true");
+        DirectoryRule rule = new DirectoryRule();
+        rule.setDirectory("/proxied");
+        server.setRule(rule);
+        
+        LinkedList servers = new LinkedList();
+        servers.add(server);
+        serverChain = new ServerChain(servers);
+        
+        result = new ByteArrayOutputStream();
+        stream = new UrlRewritingOutputStream(new ServletOutputStream() {
+            public void write(int b) throws IOException {
+                result.write(b);
+            }
+        }, "proxy:8080", "/ctx", serverChain, server);
+    }
+    
+    public void testSmallPage() throws IOException {
+        stream.write("<a href=\"/app/index.html\">x</a><img src='http://www.backend.com/app/a.gif'/><a href=\"/other/b.html\">".getBytes());
+        stream.rewrite();
+        assertEquals("Links should be rewritten", 
+                "<a href=\"/ctx/proxied/index.html\">x</a><img src='http://proxy:8080/ctx/proxied/a.gif'/><a href=\"/other/b.html\">", 
+                result.toString());
+    }
+    
+    public void testStreaming() throws IOException {
+        StringBuffer page = new StringBuffer();
+        StringBuffer expected = new StringBuffer();
+        for (int i=0; i < 5000; i++) {
+            page.append("<p>Some text ").append(i).append(" <a href=\"/app/page").append(i).append(".html\">link</a></p>\n");
+            expected.append("<p>Some text ").append(i).append(" <a href=\"/ctx/proxied/page").append(i).append(".html\">link</a></p>\n");
+        }
+        byte[] data = page.toString().getBytes();
+        
+        for (int i=0; i < data.length; i += 7) {
+            stream.write(data, i, Math.min(7, data.length - i));
+        }
+        assertTrue("Data should be sent before the page is finished", result.size() > 0);
+        assertTrue("Only a window of the page should be kept", data.length - result.size() < 32 * 1024);
+        
+        stream.rewrite();
+        assertEquals("All links should be rewritten", expected.toString(), result.toString());
+    }
+    
+    public void testLinkOnWindowBorder() throws IOException {
+        StringBuffer page = new StringBuffer();
+        for (int i=0; i < 20000; i++) {
+            page.append('a');
+        }
+        page.append(" href=\"/app/x.html\" ");
+        
+        byte[] data = page.toString().getBytes();
+        for (int i=0; i < data.length; i++) {
+            stream.write(data[i]);
+        }
+        stream.rewrite();
+        assertTrue("Link should be rewritten", result.toString().endsWith(" href=\"/ctx/proxied/x.html\" "));
+        
+        result.reset();
+        stream.close();
+        stream.write("xhref=\"/app/x.html\"".getBytes());
+        stream.rewrite();
+        assertEquals("Link without word boundary should not be rewritten", "xhref=\"/app/x.html\"", result.toString());
+    }
+    
+    public void testCharset() throws IOException {
+        stream.setEncoding("UTF-8");
+        String page = "<p>R\u00e4ksm\u00f6rg\u00e5s</p><a href=\"/app/\u00e5\u00e4\u00f6.html\">";
+        stream.write(page.getBytes("UTF-8"));
+        stream.rewrite();
+        assertEquals("Links should be rewritten and other bytes kept", 
+                "<p>R\u00e4ksm\u00f6rg\u00e5s</p><a href=\"/ctx/proxied/\u00e5\u00e4\u00f6.html\">", 
+                new String(result.toByteArray(), "UTF-8"));
+        
+        result.reset();
+        stream.close();
+        stream.setEncoding("UTF-16");
+        page = "<a href=\"/app/index.html\">";
+        stream.write(page.getBytes("UTF-16"));
+        stream.rewrite();
+        assertEquals("Page should be sent as it is", page, new String(result.toByteArray(), "UTF-16"));
+    }
+
+}